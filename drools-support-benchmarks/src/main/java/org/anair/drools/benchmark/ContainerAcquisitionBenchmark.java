@@ -0,0 +1,87 @@
+package org.anair.drools.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.anair.drools.benchmark.fixture.KjarFixture;
+import org.anair.drools.provider.container.KieContainerProviderImpl;
+import org.kie.api.runtime.KieContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * KieContainerProvider acquisition cost. Cold builds and verifies a new container, warm is served from the cache.
+ * 
+ * @author anair
+ *
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ContainerAcquisitionBenchmark {
+	
+	@State(Scope.Thread)
+	public static class ColdState {
+		KieContainerProviderImpl kieContainerProvider;
+		
+		@Setup(Level.Trial)
+		public void install() {
+			KjarFixture.install();
+		}
+		
+		/**
+		 * Single shot runs one invocation per iteration, so iteration fixtures give every call a cold provider.
+		 */
+		@Setup(Level.Iteration)
+		public void newProvider() {
+			kieContainerProvider = new KieContainerProviderImpl();
+		}
+		
+		@TearDown(Level.Iteration)
+		public void evict() {
+			kieContainerProvider.evictKieContainer(KjarFixture.RELEASE_ID);
+		}
+	}
+	
+	@State(Scope.Benchmark)
+	public static class WarmState {
+		KieContainerProviderImpl kieContainerProvider;
+		
+		@Setup(Level.Trial)
+		public void setUp() {
+			KjarFixture.install();
+			kieContainerProvider = new KieContainerProviderImpl();
+			kieContainerProvider.getKieContainer(KjarFixture.RELEASE_ID, 0);
+		}
+		
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			kieContainerProvider.evictKieContainer(KjarFixture.RELEASE_ID);
+		}
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Measurement(iterations = 20)
+	public KieContainer coldContainer(ColdState state) {
+		return state.kieContainerProvider.getKieContainer(KjarFixture.RELEASE_ID, 0);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public KieContainer warmContainer(WarmState state) {
+		return state.kieContainerProvider.getKieContainer(KjarFixture.RELEASE_ID, 0);
+	}
+	
+}
@@ -0,0 +1,119 @@
+package org.anair.drools.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.anair.drools.benchmark.fixture.KjarFixture;
+import org.anair.drools.fluent.api.RulesExecution;
+import org.anair.drools.fluent.api.SessionBuilder;
+import org.anair.drools.model.FiredRulesReturnValues;
+import org.anair.drools.provider.container.KieContainerProviderImpl;
+import org.anair.drools.provider.session.KieSessionProviderImpl;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.StatelessKieSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RulesExecution hot paths. <code>auditLogging</code> switches the rules-audit logger between INFO and WARN,
+ * which turns the default AgendaStats listener on and off. The logger writes to a NullAppender.
+ * Facts are built once per iteration and reset before each execution, so fact allocation and per invocation
+ * fixtures stay out of the measured time.
+ * 
+ * @author anair
+ *
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class RulesExecutionBenchmark {
+	
+	@Param({"10", "1000"})
+	private int factCount;
+	
+	@Param({"false", "true"})
+	private boolean auditLogging;
+	
+	private KieSessionProviderImpl kieSessionProvider;
+	private SessionBuilder sessionBuilder;
+	private StatelessKieSession statelessKieSession;
+	private List<Object> facts;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		KjarFixture.install();
+		org.apache.log4j.Logger.getLogger("rules-audit").setLevel(auditLogging ? org.apache.log4j.Level.INFO : org.apache.log4j.Level.WARN);
+		kieSessionProvider = new KieSessionProviderImpl(new KieContainerProviderImpl());
+		sessionBuilder = new SessionBuilder(kieSessionProvider)
+				.forKnowledgeModule(KjarFixture.RELEASE_ID)
+				.sessionPoolSize(10);
+		statelessKieSession = sessionBuilder.fetchStatelessKieSession(KjarFixture.STATELESS_SESSION_NAME);
+	}
+	
+	@Setup(Level.Iteration)
+	public void newFacts() {
+		facts = KjarFixture.orders(factCount);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		kieSessionProvider.shutdown();
+	}
+	
+	@Benchmark
+	public FiredRulesReturnValues statelessBatchExecution() {
+		return new RulesExecution(statelessKieSession)
+				.addFacts(KjarFixture.resetOrders(facts))
+				.forAgendaGroups(KjarFixture.RISK_AGENDA_GROUP)
+				.fireRules(true);
+	}
+	
+	@Benchmark
+	public FiredRulesReturnValues statelessPlainExecution() {
+		return new RulesExecution(statelessKieSession)
+				.addFacts(KjarFixture.resetOrders(facts))
+				.fireRules(false);
+	}
+	
+	@Benchmark
+	public FiredRulesReturnValues statefulInsertAndFireAllRules() {
+		KieSession kieSession = sessionBuilder.fetchKieSession(KjarFixture.STATEFUL_SESSION_NAME);
+		try{
+			return new RulesExecution(kieSession)
+					.addFacts(KjarFixture.resetOrders(facts))
+					.forAgendaGroups(KjarFixture.RISK_AGENDA_GROUP)
+					.fireRules();
+		}finally{
+			kieSession.dispose();
+		}
+	}
+	
+	@Benchmark
+	public FiredRulesReturnValues statefulBatchExecution() {
+		KieSession kieSession = sessionBuilder.fetchKieSession(KjarFixture.STATEFUL_SESSION_NAME);
+		try{
+			return new RulesExecution(kieSession)
+					.addFacts(KjarFixture.resetOrders(facts))
+					.forAgendaGroups(KjarFixture.RISK_AGENDA_GROUP)
+					.batchExecution()
+					.fireRules();
+		}finally{
+			kieSession.dispose();
+		}
+	}
+	
+}
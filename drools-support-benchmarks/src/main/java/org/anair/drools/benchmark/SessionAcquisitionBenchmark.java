@@ -0,0 +1,85 @@
+package org.anair.drools.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.anair.drools.benchmark.fixture.KjarFixture;
+import org.anair.drools.fluent.api.SessionBuilder;
+import org.anair.drools.provider.container.KieContainerProviderImpl;
+import org.anair.drools.provider.session.KieSessionProviderImpl;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.StatelessKieSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Session acquisition through SessionBuilder (pooled) against sessions created directly from the KieContainer.
+ * Stateful sessions are disposed after each acquisition which returns pooled sessions to their pool.
+ * 
+ * @author anair
+ *
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SessionAcquisitionBenchmark {
+	
+	private KieSessionProviderImpl kieSessionProvider;
+	private KieContainer kieContainer;
+	private SessionBuilder sessionBuilder;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		KjarFixture.install();
+		KieContainerProviderImpl kieContainerProvider = new KieContainerProviderImpl();
+		kieContainer = kieContainerProvider.getKieContainer(KjarFixture.RELEASE_ID, 0);
+		kieSessionProvider = new KieSessionProviderImpl(kieContainerProvider);
+		sessionBuilder = new SessionBuilder(kieSessionProvider)
+				.forKnowledgeModule(KjarFixture.RELEASE_ID)
+				.sessionPoolSize(10);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		kieSessionProvider.shutdown();
+		kieContainer.dispose();
+	}
+	
+	@Benchmark
+	public KieSession pooledStatefulSession() {
+		KieSession kieSession = sessionBuilder.fetchKieSession(KjarFixture.STATEFUL_SESSION_NAME);
+		kieSession.dispose();
+		return kieSession;
+	}
+	
+	@Benchmark
+	public KieSession unpooledStatefulSession() {
+		KieSession kieSession = kieContainer.newKieSession(KjarFixture.STATEFUL_SESSION_NAME);
+		kieSession.dispose();
+		return kieSession;
+	}
+	
+	@Benchmark
+	public StatelessKieSession pooledStatelessSession() {
+		return sessionBuilder.fetchStatelessKieSession(KjarFixture.STATELESS_SESSION_NAME);
+	}
+	
+	@Benchmark
+	public StatelessKieSession unpooledStatelessSession() {
+		return kieContainer.newStatelessKieSession(KjarFixture.STATELESS_SESSION_NAME);
+	}
+	
+}
@@ -0,0 +1,101 @@
+package org.anair.drools.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.anair.drools.benchmark.fixture.KjarFixture;
+import org.anair.drools.fluent.api.RulesExecution;
+import org.anair.drools.fluent.api.SessionBuilder;
+import org.anair.drools.model.FiredRulesReturnValues;
+import org.anair.drools.provider.container.KieContainerProviderImpl;
+import org.anair.drools.provider.session.KieSessionProviderImpl;
+import org.anair.drools.trace.TraceWriter;
+import org.kie.api.runtime.StatelessKieSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cost of binary tracing on stateless batch execution. Compare the <code>binaryTrace</code> runs against the baseline.
+ * Facts are built once per iteration and reset before each execution.
+ * 
+ * @author anair
+ *
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class TraceBenchmark {
+	private static final Logger LOG = LoggerFactory.getLogger(TraceBenchmark.class);
+	
+	@Param({"100"})
+	private int factCount;
+	
+	@Param({"false", "true"})
+	private boolean binaryTrace;
+	
+	private KieSessionProviderImpl kieSessionProvider;
+	private StatelessKieSession statelessKieSession;
+	private TraceWriter traceWriter;
+	private Path traceFile;
+	private List<Object> facts;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		KjarFixture.install();
+		org.apache.log4j.Logger.getLogger("rules-audit").setLevel(org.apache.log4j.Level.WARN);
+		kieSessionProvider = new KieSessionProviderImpl(new KieContainerProviderImpl());
+		statelessKieSession = new SessionBuilder(kieSessionProvider)
+				.forKnowledgeModule(KjarFixture.RELEASE_ID)
+				.fetchStatelessKieSession(KjarFixture.STATELESS_SESSION_NAME);
+		if(binaryTrace){
+			traceFile = Files.createTempFile("rules-trace", ".bin");
+			traceWriter = new TraceWriter(traceFile);
+		}
+	}
+	
+	@Setup(Level.Iteration)
+	public void newFacts() {
+		facts = KjarFixture.orders(factCount);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		kieSessionProvider.shutdown();
+		if(traceWriter != null){
+			traceWriter.close();
+			LOG.info("Dropped trace events: {}", traceWriter.getDroppedEventCount());
+			Files.deleteIfExists(traceFile);
+		}
+	}
+	
+	@Benchmark
+	public FiredRulesReturnValues statelessBatchExecution() {
+		RulesExecution rulesExecution = new RulesExecution(statelessKieSession)
+				.lightweight()
+				.addFacts(KjarFixture.resetOrders(facts));
+		if(traceWriter != null){
+			rulesExecution.traceTo(traceWriter);
+		}
+		return rulesExecution.fireRules(true);
+	}
+	
+}
@@ -0,0 +1,85 @@
+package org.anair.drools.benchmark.fixture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.stream.Collectors;
+
+import org.anair.rules.exception.RulesSupportRuntimeException;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.Message;
+import org.kie.api.builder.Message.Level;
+import org.kie.api.builder.ReleaseId;
+
+/**
+ * Builds the benchmark knowledge module from src/main/resources/fixture and installs it in the Kie repository,
+ * so that it can be resolved by release Id like any other kjar.
+ * 
+ * @author anair
+ *
+ */
+public final class KjarFixture {
+	
+	public static final String RELEASE_ID = "org.anair.benchmark:benchmark-kjar:1.0.0";
+	public static final String STATEFUL_SESSION_NAME = "benchmark.stateful.session";
+	public static final String STATELESS_SESSION_NAME = "benchmark.stateless.session";
+	public static final String RISK_AGENDA_GROUP = "risk";
+	
+	private static volatile boolean installed = false;
+	
+	private KjarFixture() {
+	}
+	
+	public static synchronized void install() {
+		if(installed){
+			return;
+		}
+		KieServices kieServices = KieServices.Factory.get();
+		ReleaseId releaseId = kieServices.newReleaseId("org.anair.benchmark", "benchmark-kjar", "1.0.0");
+		
+		KieFileSystem kieFileSystem = kieServices.newKieFileSystem();
+		kieFileSystem.generateAndWritePomXML(releaseId);
+		kieFileSystem.writeKModuleXML(readResource("/fixture/kmodule.xml"));
+		kieFileSystem.write("src/main/resources/org/anair/drools/benchmark/rules/orders.drl", readResource("/fixture/orders.drl"));
+		
+		KieBuilder kieBuilder = kieServices.newKieBuilder(kieFileSystem).buildAll();
+		if(kieBuilder.getResults().hasMessages(Level.ERROR)){
+			throw new RulesSupportRuntimeException(kieBuilder.getResults().getMessages(Level.ERROR).stream()
+					.map(Message::toString)
+					.collect(Collectors.joining(":")));
+		}
+		installed = true;
+	}
+	
+	public static List<Object> orders(int count) {
+		List<Object> orders = new ArrayList<>(count);
+		for(int i=0;i<count;i++){
+			orders.add(new Order(i, (i % 10) * 1000d, i % 3 == 0 ? "PRIORITY" : "STANDARD"));
+		}
+		return orders;
+	}
+	
+	/**
+	 * Reset orders built by orders(int) so a benchmark can reuse them instead of allocating facts per invocation.
+	 */
+	public static List<Object> resetOrders(List<Object> orders) {
+		for(Object order: orders){
+			((Order) order).reset();
+		}
+		return orders;
+	}
+	
+	private static String readResource(String path) {
+		try(InputStream inputStream = KjarFixture.class.getResourceAsStream(path);
+				Scanner scanner = new Scanner(inputStream, "UTF-8")){
+			return scanner.useDelimiter("\\A").next();
+		}catch(IOException e){
+			throw new RulesSupportRuntimeException("Unable to read benchmark fixture " + path + ": " + e.getMessage());
+		}
+	}
+	
+}
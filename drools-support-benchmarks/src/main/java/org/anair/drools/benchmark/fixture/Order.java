@@ -0,0 +1,55 @@
+package org.anair.drools.benchmark.fixture;
+
+public class Order {
+	
+	private final long id;
+	private final double amount;
+	private final String customerType;
+	private int discount;
+	private boolean priority;
+	private boolean risky;
+	
+	public Order(long id, double amount, String customerType) {
+		this.id = id;
+		this.amount = amount;
+		this.customerType = customerType;
+	}
+	
+	public long getId() {
+		return id;
+	}
+	public double getAmount() {
+		return amount;
+	}
+	public String getCustomerType() {
+		return customerType;
+	}
+	public int getDiscount() {
+		return discount;
+	}
+	public void setDiscount(int discount) {
+		this.discount = discount;
+	}
+	public boolean isPriority() {
+		return priority;
+	}
+	public void setPriority(boolean priority) {
+		this.priority = priority;
+	}
+	public boolean isRisky() {
+		return risky;
+	}
+	public void setRisky(boolean risky) {
+		this.risky = risky;
+	}
+	
+	/**
+	 * Clear the fields set by the rules, so the order matches again.
+	 */
+	public void reset() {
+		this.discount = 0;
+		this.priority = false;
+		this.risky = false;
+	}
+	
+}
@@ -0,0 +1,36 @@
+package org.anair.drools.audit;
+
+import java.util.Map;
+
+/**
+ * Decide whether a rules execution is audit logged to the rules-audit logger.
+ * Executions that are not sampled do not register the AgendaStats listener and do not set the MDC context.
+ * 
+ * @author anair
+ *
+ */
+@FunctionalInterface
+public interface AuditSampler {
+	
+	/**
+	 * @param context application context added to the execution with addContext. May be null
+	 */
+	boolean sample(Map<String, String> context);
+	
+	default AuditSampler or(AuditSampler other){
+		return context -> sample(context) || other.sample(context);
+	}
+	
+	static AuditSampler everyNth(int n){
+		return new EveryNthAuditSampler(n);
+	}
+	
+	static AuditSampler perSecond(int budget){
+		return new RateLimitedAuditSampler(budget);
+	}
+	
+	static AuditSampler contextKey(String contextKey){
+		return context -> context != null && context.containsKey(contextKey);
+	}
+	
+}
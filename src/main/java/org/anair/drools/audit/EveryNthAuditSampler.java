@@ -0,0 +1,29 @@
+package org.anair.drools.audit;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sample 1 in N executions, starting with the first one.
+ * 
+ * @author anair
+ *
+ */
+public class EveryNthAuditSampler implements AuditSampler {
+	
+	private final int n;
+	private final AtomicLong executions = new AtomicLong();
+	
+	public EveryNthAuditSampler(int n) {
+		if(n < 1){
+			throw new IllegalArgumentException("N must be greater than 0");
+		}
+		this.n = n;
+	}
+
+	@Override
+	public boolean sample(Map<String, String> context) {
+		return executions.getAndIncrement() % n == 0;
+	}
+	
+}
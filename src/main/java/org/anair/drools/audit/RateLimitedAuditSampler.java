@@ -0,0 +1,39 @@
+package org.anair.drools.audit;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sample at most <code>budget</code> executions per wall clock second.
+ * 
+ * @author anair
+ *
+ */
+public class RateLimitedAuditSampler implements AuditSampler {
+	
+	private final int budget;
+	private final AtomicInteger sampledInWindow = new AtomicInteger();
+	private volatile long windowSecond;
+	
+	public RateLimitedAuditSampler(int budget) {
+		if(budget < 0){
+			throw new IllegalArgumentException("Budget must not be negative");
+		}
+		this.budget = budget;
+	}
+
+	@Override
+	public boolean sample(Map<String, String> context) {
+		long second = System.currentTimeMillis() / 1000;
+		if(second != windowSecond){
+			synchronized(this){
+				if(second != windowSecond){
+					sampledInWindow.set(0);
+					windowSecond = second;
+				}
+			}
+		}
+		return sampledInWindow.get() < budget && sampledInWindow.incrementAndGet() <= budget;
+	}
+	
+}
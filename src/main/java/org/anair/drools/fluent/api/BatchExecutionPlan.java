@@ -0,0 +1,146 @@
+package org.anair.drools.fluent.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.drools.core.command.runtime.rule.FireAllRulesCommand;
+import org.kie.api.command.BatchExecutionCommand;
+import org.kie.api.command.Command;
+import org.kie.api.command.KieCommands;
+import org.kie.api.runtime.rule.AgendaFilter;
+
+/**
+ * Pre-built batch commands for a Kie Session execution in batch mode, stateless or stateful.
+ * Agenda group focus and fire all rules commands are built once per KieCommands, agenda group combination and
+ * out identifier, and shared. At most MAX_CACHED_PLANS plans are cached; further combinations build their plan per execution.
+ * Each execution only binds globals and facts.
+ *
+ * @author anair
+ *
+ */
+final class BatchExecutionPlan {
+
+	static final int MAX_CACHED_PLANS = 256;
+	private static final List<String> NO_AGENDA_GROUPS = Collections.emptyList();
+	private static final Map<PlanKey, BatchExecutionPlan> PLANS = new ConcurrentHashMap<>();
+
+	private final KieCommands kieCommands;
+	@SuppressWarnings("rawtypes")
+	private final List<Command> trailingCommands;
+
+	private BatchExecutionPlan(KieCommands kieCommands, List<String> agendaGroupNames, String firedRulesOutIdentifier) {
+		this(kieCommands, agendaGroupNames, kieCommands.newFireAllRules(firedRulesOutIdentifier));
+	}
+
+	@SuppressWarnings("rawtypes")
+	private BatchExecutionPlan(KieCommands kieCommands, List<String> agendaGroupNames, Command... fireAllRulesCommands) {
+		this.kieCommands = kieCommands;
+		List<Command> commands = new ArrayList<>(agendaGroupNames.size() + fireAllRulesCommands.length);
+		for(int i=agendaGroupNames.size();i>0;i--){
+			commands.add(kieCommands.newAgendaGroupSetFocus(agendaGroupNames.get(i-1)));
+		}
+		commands.addAll(Arrays.asList(fireAllRulesCommands));
+		this.trailingCommands = Collections.unmodifiableList(commands);
+	}
+
+	static BatchExecutionPlan forAgendaGroups(KieCommands kieCommands, String[] agendaGroupNames, String firedRulesOutIdentifier){
+		List<String> agendaGroups = agendaGroupNames == null ? NO_AGENDA_GROUPS : Arrays.asList(agendaGroupNames);
+		PlanKey key = new PlanKey(kieCommands, agendaGroups, firedRulesOutIdentifier);
+		BatchExecutionPlan plan = PLANS.get(key);
+		if(plan == null){
+			if(PLANS.size() >= MAX_CACHED_PLANS){
+				return new BatchExecutionPlan(kieCommands, agendaGroups, firedRulesOutIdentifier);
+			}
+			PlanKey immutableKey = new PlanKey(kieCommands, Collections.unmodifiableList(new ArrayList<>(agendaGroups)), firedRulesOutIdentifier);
+			plan = PLANS.computeIfAbsent(immutableKey, k -> new BatchExecutionPlan(k.kieCommands, k.agendaGroups, k.firedRulesOutIdentifier));
+		}
+		return plan;
+	}
+
+	/**
+	 * Plan that fires at most maxRulesFired rules (no limit if not greater than 0) and only matches accepted by the agenda filter.
+	 * The optional probe then runs as the filter of a second fire all rules, to find out if matches are left. It must reject every match.
+	 * Not cached, since the filters are specific to the execution.
+	 */
+	static BatchExecutionPlan withLimits(KieCommands kieCommands, String[] agendaGroupNames, String firedRulesOutIdentifier,
+			int maxRulesFired, AgendaFilter agendaFilter, AgendaFilter pendingMatchProbe){
+		List<String> agendaGroups = agendaGroupNames == null ? NO_AGENDA_GROUPS : Arrays.asList(agendaGroupNames);
+		FireAllRulesCommand fireAllRules = new FireAllRulesCommand(firedRulesOutIdentifier, maxRulesFired > 0 ? maxRulesFired : -1, agendaFilter);
+		if(pendingMatchProbe == null){
+			return new BatchExecutionPlan(kieCommands, agendaGroups, fireAllRules);
+		}
+		return new BatchExecutionPlan(kieCommands, agendaGroups, fireAllRules, new FireAllRulesCommand(null, 1, pendingMatchProbe));
+	}
+
+	BatchExecutionCommand bind(Map<String, Object> globals, Collection<Object> facts){
+		return bind(null, globals, facts, null);
+	}
+
+	/**
+	 * @param listenersCommand optional command run first, to add the listeners of the execution to the working memory
+	 * @param resultCommands optional commands run after rules fired, e.g. to collect facts or globals
+	 */
+	@SuppressWarnings("rawtypes")
+	BatchExecutionCommand bind(Command listenersCommand, Map<String, Object> globals, Collection<Object> facts, List<Command> resultCommands){
+		int numberOfGlobals = globals == null ? 0 : globals.size();
+		int numberOfResultCommands = resultCommands == null ? 0 : resultCommands.size();
+		List<Command> commands = new ArrayList<>(numberOfGlobals + 2 + trailingCommands.size() + numberOfResultCommands);
+		if(listenersCommand != null){
+			commands.add(listenersCommand);
+		}
+		if(globals != null){
+			globals.forEach((k,v)->commands.add(kieCommands.newSetGlobal(k, v, true)));
+		}
+		commands.add(kieCommands.newInsertElements(facts));
+		commands.addAll(trailingCommands);
+		if(resultCommands != null){
+			commands.addAll(resultCommands);
+		}
+		return kieCommands.newBatchExecution(commands);
+	}
+
+	static int getCachedPlanCount(){
+		return PLANS.size();
+	}
+
+	static void clearCachedPlans(){
+		PLANS.clear();
+	}
+
+	private static final class PlanKey {
+		private final KieCommands kieCommands;
+		private final List<String> agendaGroups;
+		private final String firedRulesOutIdentifier;
+
+		private PlanKey(KieCommands kieCommands, List<String> agendaGroups, String firedRulesOutIdentifier) {
+			this.kieCommands = kieCommands;
+			this.agendaGroups = agendaGroups;
+			this.firedRulesOutIdentifier = firedRulesOutIdentifier;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * System.identityHashCode(kieCommands) + agendaGroups.hashCode()) + Objects.hashCode(firedRulesOutIdentifier);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj){
+				return true;
+			}
+			if(!(obj instanceof PlanKey)){
+				return false;
+			}
+			PlanKey other = (PlanKey) obj;
+			return kieCommands == other.kieCommands && agendaGroups.equals(other.agendaGroups)
+					&& Objects.equals(firedRulesOutIdentifier, other.firedRulesOutIdentifier);
+		}
+	}
+
+}
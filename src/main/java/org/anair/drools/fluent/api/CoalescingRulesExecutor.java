@@ -0,0 +1,278 @@
+package org.anair.drools.fluent.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.anair.drools.model.FiredRulesReturnValues;
+import org.kie.api.event.rule.AfterMatchFiredEvent;
+import org.kie.api.event.rule.DefaultAgendaEventListener;
+import org.kie.api.runtime.StatelessKieSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesce many small concurrent stateless requests into one rules execution, so the fixed cost of an execution
+ * is paid once per batch instead of once per request. Requests are gathered until the batch is full or the window
+ * elapses, fired in batch mode on one session and the result of each request is returned through its own future.
+ *
+ * Requests of a batch share working memory. A rule firing is attributed to every request that owns one of the facts
+ * of the match, so rules that join facts must join facts of one request, e.g. on a correlation id.
+ * Rules fired and executed rules of a request are attributed this way; read other results from the request facts.
+ *
+ * Call start() before use and shutdown() to fire queued requests and stop.
+ *
+ * @author anair
+ *
+ */
+public class CoalescingRulesExecutor {
+	private static final Logger LOG = LoggerFactory.getLogger(CoalescingRulesExecutor.class);
+	public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+	public static final long DEFAULT_WINDOW_MICROS = 1000;
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+	private final Supplier<StatelessKieSession> sessionSupplier;
+	private final Executor executor;
+	private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	private long windowNanos = TimeUnit.MICROSECONDS.toNanos(DEFAULT_WINDOW_MICROS);
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private long shutdownTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+	private UnaryOperator<RulesExecution> executionCustomizer = UnaryOperator.identity();
+	private volatile BlockingQueue<Request> requests;
+	private volatile Thread dispatcher;
+	private volatile boolean shutdown = false;
+
+	/**
+	 * @param sessionSupplier supplies the session of each batch, e.g. () -> sessionBuilder.fetchStatelessKieSession("my.session")
+	 * @param executor runs the batches. Use Runnable::run to fire on the dispatcher thread
+	 */
+	public CoalescingRulesExecutor(Supplier<StatelessKieSession> sessionSupplier, Executor executor) {
+		this.sessionSupplier = sessionSupplier;
+		this.executor = executor;
+	}
+
+	public synchronized void start(){
+		if(dispatcher != null){
+			return;
+		}
+		this.requests = new ArrayBlockingQueue<>(queueCapacity);
+		this.dispatcher = new Thread(this::dispatch, "rules-coalescer");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+	public CompletableFuture<FiredRulesReturnValues> submit(Object... facts){
+		return submit(Arrays.asList(facts));
+	}
+
+	/**
+	 * Queue the facts of one request. The future completes exceptionally if the queue is full or the executor is shut down.
+	 */
+	public CompletableFuture<FiredRulesReturnValues> submit(Collection<?> facts){
+		if(this.requests == null){
+			throw new IllegalStateException("Coalescing rules executor is not started");
+		}
+		BlockingQueue<Request> queue = this.requests;
+		Request request = new Request(facts);
+		if(shutdown || !queue.offer(request)){
+			request.future.completeExceptionally(new RejectedExecutionException(shutdown ? "Coalescing rules executor is shut down" : "Coalescing rules executor queue is full"));
+		}else if(shutdown && queue.remove(request)){
+			//Shut down while queuing; the dispatcher may have already stopped taking requests
+			request.future.completeExceptionally(new RejectedExecutionException("Coalescing rules executor is shut down"));
+		}
+		return request.future;
+	}
+
+	/**
+	 * Stop accepting requests, fire queued requests and stop the dispatcher thread.
+	 * If queued requests are not dispatched within the shutdown timeout, the dispatcher is interrupted and the requests left are rejected.
+	 */
+	public void shutdown(){
+		this.shutdown = true;
+		Thread dispatcherThread = this.dispatcher;
+		if(dispatcherThread == null){
+			return;
+		}
+		try{
+			dispatcherThread.join(shutdownTimeoutMillis);
+			if(dispatcherThread.isAlive()){
+				LOG.warn("Coalescing rules executor did not dispatch queued requests in {} ms. Rejecting the requests left", shutdownTimeoutMillis);
+				dispatcherThread.interrupt();
+			}
+		}catch(InterruptedException e){
+			dispatcherThread.interrupt();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Longest time the first request of a batch waits for more requests. Default is 1 ms.
+	 */
+	public void setWindow(long window, TimeUnit unit) {
+		this.windowNanos = unit.toNanos(window);
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Longest time shutdown() waits for queued requests to be dispatched. Default is 30 seconds.
+	 */
+	public void setShutdownTimeout(long shutdownTimeout, TimeUnit unit) {
+		this.shutdownTimeoutMillis = unit.toMillis(shutdownTimeout);
+	}
+
+	/**
+	 * Configure every batch execution, e.g. rulesExecution -> rulesExecution.forAgendaGroups("pricing")
+	 */
+	public void setExecutionCustomizer(UnaryOperator<RulesExecution> executionCustomizer) {
+		this.executionCustomizer = executionCustomizer;
+	}
+
+	public int getQueueDepth() {
+		return requests == null ? 0 : requests.size();
+	}
+
+	private void dispatch(){
+		List<Request> batch = new ArrayList<>(maxBatchSize);
+		try{
+			while(!shutdown || !requests.isEmpty()){
+				Request first = requests.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null){
+					continue;
+				}
+				batch.add(first);
+				long deadline = System.nanoTime() + windowNanos;
+				while(batch.size() < maxBatchSize){
+					requests.drainTo(batch, maxBatchSize - batch.size());
+					long remaining = deadline - System.nanoTime();
+					if(batch.size() >= maxBatchSize || remaining <= 0){
+						break;
+					}
+					Request next = requests.poll(remaining, TimeUnit.NANOSECONDS);
+					if(next == null){
+						break;
+					}
+					batch.add(next);
+				}
+				execute(new ArrayList<>(batch));
+				batch.clear();
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			batch.forEach(request -> request.future.completeExceptionally(e));
+		}finally{
+			rejectQueuedRequests();
+		}
+	}
+	
+	/**
+	 * Complete the requests that can no longer be dispatched, so no future is left pending.
+	 */
+	private void rejectQueuedRequests(){
+		Request request;
+		while((request = requests.poll()) != null){
+			request.future.completeExceptionally(new RejectedExecutionException("Coalescing rules executor is shut down"));
+		}
+	}
+
+	private void execute(List<Request> batch){
+		try{
+			executor.execute(() -> fire(batch));
+		}catch(RejectedExecutionException e){
+			batch.forEach(request -> request.future.completeExceptionally(e));
+		}
+	}
+
+	private void fire(List<Request> batch){
+		Map<Object, List<Request>> owners = new IdentityHashMap<>();
+		List<Object> facts = new ArrayList<>();
+		for(Request request: batch){
+			for(Object fact: request.facts){
+				List<Request> factOwners = owners.get(fact);
+				if(factOwners == null){
+					//A fact shared by requests is inserted once and owned by each of them
+					factOwners = new ArrayList<>(1);
+					owners.put(fact, factOwners);
+					facts.add(fact);
+				}
+				if(!factOwners.contains(request)){
+					factOwners.add(request);
+				}
+			}
+		}
+		try{
+			if(!facts.isEmpty()){
+				LOG.trace("Firing rules on {} coalesced requests with {} facts", batch.size(), facts.size());
+				executionCustomizer.apply(new RulesExecution(sessionSupplier.get()).lightweight())
+					.addEventListeners(new CorrelatingAgendaEventListener(owners))
+					.addFacts(facts)
+					.fireRules();
+			}
+			for(Request request: batch){
+				request.returnValues.setNumberOfRulesFired(request.rulesFired);
+				request.future.complete(request.returnValues);
+			}
+		}catch(Throwable t){
+			batch.forEach(request -> request.future.completeExceptionally(t));
+		}
+	}
+
+	private static final class Request {
+		private final Collection<?> facts;
+		private final CompletableFuture<FiredRulesReturnValues> future = new CompletableFuture<>();
+		private final FiredRulesReturnValues returnValues = new FiredRulesReturnValues();
+		private int rulesFired;
+
+		private Request(Collection<?> facts) {
+			this.facts = facts;
+		}
+	}
+
+	/**
+	 * Attribute each rule firing to the requests owning the facts of the match. Facts of other executions
+	 * on a shared session are not owned and are skipped.
+	 */
+	private static final class CorrelatingAgendaEventListener extends DefaultAgendaEventListener {
+		private final Map<Object, List<Request>> owners;
+
+		private CorrelatingAgendaEventListener(Map<Object, List<Request>> owners) {
+			this.owners = owners;
+		}
+
+		@Override
+		public void afterMatchFired(AfterMatchFiredEvent event) {
+			List<Request> attributed = new ArrayList<>(1);
+			for(Object object: event.getMatch().getObjects()){
+				List<Request> factOwners = owners.get(object);
+				if(factOwners == null){
+					continue;
+				}
+				for(Request request: factOwners){
+					if(!attributed.contains(request)){
+						attributed.add(request);
+						request.rulesFired++;
+						request.returnValues.getExecutedRules().add(event.getMatch().getRule().getName());
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,40 @@
+package org.anair.drools.fluent.api;
+
+import java.util.EventListener;
+import java.util.List;
+
+import org.kie.api.command.ExecutableCommand;
+import org.kie.api.runtime.Context;
+import org.kie.api.runtime.KieSession;
+import org.kie.internal.command.RegistryContext;
+
+/**
+ * Batch command that adds the listeners of one execution to the working memory the batch runs on.
+ * A Stateless Kie Session creates a new working memory for every execute, so the listeners only observe that call,
+ * even when the session is shared or pooled.
+ * 
+ * @author anair
+ *
+ */
+final class ExecutionListenersCommand implements ExecutableCommand<Void> {
+	
+	private final List<EventListener> eventListeners;
+	
+	ExecutionListenersCommand(List<EventListener> eventListeners) {
+		this.eventListeners = eventListeners;
+	}
+
+	@Override
+	public Void execute(Context context) {
+		KieSession kieSession = ((RegistryContext) context).lookup(KieSession.class);
+		for(EventListener eventListener: eventListeners){
+			SessionEventListeners.addEventListener(kieSession, eventListener);
+		}
+		return null;
+	}
+	
+	List<EventListener> getEventListeners() {
+		return eventListeners;
+	}
+	
+}
@@ -0,0 +1,103 @@
+package org.anair.drools.fluent.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.anair.drools.model.FiredRulesReturnValues;
+import org.kie.api.command.Command;
+import org.kie.api.command.KieCommands;
+import org.kie.api.runtime.ClassObjectFilter;
+import org.kie.api.runtime.ExecutionResults;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.QueryResults;
+import org.kie.api.runtime.rule.QueryResultsRow;
+
+/**
+ * Facts by type, query results and globals to copy out of a session once rules fired.
+ * Only the copied objects are kept, not fact handles or ExecutionResults.
+ * 
+ * @author anair
+ *
+ */
+final class ResultProjections {
+	private static final String COLLECT_OUT_PREFIX = "collect:";
+	private static final String QUERY_OUT_PREFIX = "query:";
+	private static final String GLOBAL_OUT_PREFIX = "global:";
+	private static final Object[] NO_ARGUMENTS = new Object[0];
+	
+	private final List<Class<?>> types = new ArrayList<>();
+	private final Map<String, Object[]> queries = new LinkedHashMap<>();
+	private final List<String> globals = new ArrayList<>();
+	
+	void addType(Class<?> type){
+		types.add(Objects.requireNonNull(type, "Fact type must be present"));
+	}
+	
+	void addQuery(String queryName, Object[] arguments){
+		queries.put(Objects.requireNonNull(queryName, "Query name must be present"), arguments == null ? NO_ARGUMENTS : arguments);
+	}
+	
+	void addGlobal(String globalName){
+		globals.add(Objects.requireNonNull(globalName, "Global name must be present"));
+	}
+	
+	void collect(KieSession kieSession, FiredRulesReturnValues firedRulesReturnValues){
+		for(Class<?> type: types){
+			firedRulesReturnValues.setCollected(type, new ArrayList<>(kieSession.getObjects(new ClassObjectFilter(type))));
+		}
+		queries.forEach((queryName, arguments) ->
+			firedRulesReturnValues.setQueryResults(queryName, rows(kieSession.getQueryResults(queryName, arguments))));
+		for(String globalName: globals){
+			firedRulesReturnValues.setGlobal(globalName, kieSession.getGlobal(globalName));
+		}
+	}
+	
+	/**
+	 * Commands that run after fire all rules in a Stateless Kie Session batch
+	 */
+	@SuppressWarnings("rawtypes")
+	List<Command> commands(KieCommands kieCommands){
+		List<Command> commands = new ArrayList<>(types.size() + queries.size() + globals.size());
+		for(Class<?> type: types){
+			commands.add(kieCommands.newGetObjects(new ClassObjectFilter(type), COLLECT_OUT_PREFIX + type.getName()));
+		}
+		queries.forEach((queryName, arguments) ->
+			commands.add(kieCommands.newQuery(QUERY_OUT_PREFIX + queryName, queryName, arguments)));
+		for(String globalName: globals){
+			commands.add(kieCommands.newGetGlobal(globalName, GLOBAL_OUT_PREFIX + globalName));
+		}
+		return commands;
+	}
+	
+	void collect(ExecutionResults executionResults, FiredRulesReturnValues firedRulesReturnValues){
+		for(Class<?> type: types){
+			Collection<?> facts = (Collection<?>) executionResults.getValue(COLLECT_OUT_PREFIX + type.getName());
+			firedRulesReturnValues.setCollected(type, facts == null ? new ArrayList<>() : new ArrayList<>(facts));
+		}
+		for(String queryName: queries.keySet()){
+			firedRulesReturnValues.setQueryResults(queryName, rows((QueryResults) executionResults.getValue(QUERY_OUT_PREFIX + queryName)));
+		}
+		for(String globalName: globals){
+			firedRulesReturnValues.setGlobal(globalName, executionResults.getValue(GLOBAL_OUT_PREFIX + globalName));
+		}
+	}
+	
+	private static List<Map<String, Object>> rows(QueryResults queryResults){
+		List<Map<String, Object>> rows = new ArrayList<>(queryResults.size());
+		String[] identifiers = queryResults.getIdentifiers();
+		for(QueryResultsRow queryResultsRow: queryResults){
+			Map<String, Object> row = new HashMap<>(identifiers.length * 2);
+			for(String identifier: identifiers){
+				row.put(identifier, queryResultsRow.get(identifier));
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+	
+}
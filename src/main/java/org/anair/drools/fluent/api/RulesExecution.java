@@ -3,13 +3,36 @@ package org.anair.drools.fluent.api;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EventListener;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
 
+import org.anair.drools.audit.AuditSampler;
+import org.anair.drools.metrics.MetricsAgendaEventListener;
+import org.anair.drools.metrics.RuleProfiler;
+import org.anair.drools.metrics.RulesMetrics;
+import org.anair.drools.model.ExecutionOutcome;
 import org.anair.drools.model.FiredRulesReturnValues;
+import org.anair.drools.trace.TraceWriter;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -17,48 +40,87 @@ import org.apache.commons.lang3.time.StopWatch;
 import org.drools.core.management.GenericKieSessionMonitoringImpl.AgendaStats;
 import org.drools.core.management.GenericKieSessionMonitoringImpl.AgendaStats.AgendaStatsData;
 import org.kie.api.KieServices;
-import org.kie.api.command.Command;
-import org.kie.api.event.process.ProcessEventListener;
-import org.kie.api.event.rule.AgendaEventListener;
-import org.kie.api.event.rule.RuleRuntimeEventListener;
+import org.kie.api.command.BatchExecutionCommand;
+import org.kie.api.event.KieRuntimeEventManager;
 import org.kie.api.logger.KieRuntimeLogger;
+import org.kie.api.runtime.CommandExecutor;
 import org.kie.api.runtime.ExecutionResults;
 import org.kie.api.runtime.KieSession;
 import org.kie.api.runtime.StatelessKieSession;
+import org.kie.api.runtime.rule.AgendaFilter;
 import org.kie.api.runtime.rule.FactHandle;
+import org.kie.api.runtime.rule.Match;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
 /**
  * Builder class to prepare objects for rules execution and to fire rules.
+ * An execution on a Stateful Kie Session can own the session: use try-with-resources or autoRelease(true)
+ * to retract facts, reset globals, remove listeners and dispose (return to its pool) the session once done.
  * 
  * @author anair
  *
  */
-public class RulesExecution {
+public class RulesExecution implements AutoCloseable {
 	protected static final String DEFAULT_RULES_TRACE_FILENAME = "/rules-trace";
 	protected static final String NUMBER_OF_RULES_FIRED = "numberOfRulesFired";
 	private static final String RULES_LOGGER_NAME = "rules-audit";
 
 	private static final Logger LOG = LoggerFactory.getLogger(RulesExecution.class);
 	private static final Logger RULES_LOG = LoggerFactory.getLogger(RULES_LOGGER_NAME);
+	private static final int ASYNC_NEW = 0;
+	private static final int ASYNC_RUNNING = 1;
+	private static final int ASYNC_DONE = 2;
+	private static final long DEADLINE_HALT_RETRY_MILLIS = 10;
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+	private static volatile AuditSampler defaultAuditSampler;
 		
 	private Collection<Object> facts;
-	private Map<String, Object> globals = new HashMap<>();
+	private Map<String, Object> globals;
 	private String[] agendaGroupNames;
 	private Collection<EventListener> eventListeners;
 	private KieSession kieSession;
 	private StatelessKieSession statelessKieSession;
-	private AgendaStats agendaStats = new AgendaStats();
+	private AgendaStats agendaStats;
 	private boolean enableListeners = true;
+	private boolean lightweight = false;
+	private boolean autoRelease = false;
+	private boolean auditEnabled = false;
 	private KieRuntimeLogger logger = null;
-	private Map<String, String> appContext = new HashMap<>();
+	private Map<String, String> appContext;
 	private FiredRulesReturnValues firedRulesReturnValues;
+	private RulesMetrics rulesMetrics;
+	private String metricsReleaseId;
+	private String metricsSessionName;
+	private RuleProfiler ruleProfiler;
+	private RulesResultCache resultCache;
+	private String resultCacheReleaseId;
+	private String resultCacheSessionName;
+	private Object resultCacheFactKey;
+	private String[] resultCacheKeyGlobals;
+	private KieRuntimeEventManager listenerSession;
+	private List<EventListener> registeredEventListeners;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private boolean retractAfterFire = false;
+	private boolean retainFactHandles = false;
+	private boolean statefulBatchExecution = false;
+	private TraceWriter traceWriter;
+	private AuditSampler auditSampler;
+	private ResultProjections resultProjections;
+	private SessionLeakDetector.Lease sessionLease;
+	private volatile boolean released = false;
+	private final Object sessionLock = new Object();
+	private int maxRulesFired = 0;
+	private long deadlineNanos = 0;
+	private AgendaFilter agendaFilter;
+	private volatile boolean deadlineExceeded = false;
+	private long deadlineRun = 0;
 	
 	public RulesExecution(KieSession kieSession){
 		this();
 		this.kieSession = kieSession;
+		this.sessionLease = SessionLeakDetector.track(this);
 	}
 	
 	public RulesExecution(StatelessKieSession statelessKieSession){
@@ -68,11 +130,237 @@ public class RulesExecution {
 
 	private RulesExecution(){
 		this.firedRulesReturnValues = new FiredRulesReturnValues();
-		if(RULES_LOG.isInfoEnabled()){
-			agendaStats = new AgendaStats();
-			agendaStats.reset();
-			registerDefaultEventListeners(agendaStats);
+	}
+	
+	/**
+	 * Skip audit logging (AgendaStats listener, MDC context, executed rules), execution time measurement,
+	 * fact handle and ExecutionResults retention. Only the number of rules fired is returned.
+	 */
+	public RulesExecution lightweight(){
+		this.lightweight = true;
+		return this;
+	}
+	
+	/**
+	 * Run set globals, insert facts, agenda group focus and fire all rules on a Stateful Kie Session as one batch command
+	 * through kieSession.execute. Fact handles are not returned in batch mode. Stateless Kie Sessions use fireRules(true) instead.
+	 */
+	public RulesExecution batchExecution(){
+		this.statefulBatchExecution = true;
+		return this;
+	}
+	
+	/**
+	 * Release the Stateful Kie Session once an execution completes, synchronous, streaming or asynchronous.
+	 * See close().
+	 */
+	public RulesExecution autoRelease(boolean autoRelease){
+		this.autoRelease = autoRelease;
+		return this;
+	}
+	
+	/**
+	 * Log the stack trace that created a rules execution on a Stateful Kie Session that was garbage collected
+	 * without being closed or auto released. Disabled by default. When enabled, every such execution must release its session.
+	 */
+	public static void setLeakDetection(boolean leakDetection){
+		SessionLeakDetector.setEnabled(leakDetection);
+	}
+	
+	/**
+	 * Record rule matches, firing time, facts inserted and execution time of this execution
+	 * under the given knowledge module release Id and session name.
+	 */
+	public RulesExecution withMetrics(RulesMetrics rulesMetrics, String releaseId, String sessionName){
+		this.rulesMetrics = rulesMetrics;
+		this.metricsReleaseId = releaseId;
+		this.metricsSessionName = sessionName;
+		return this;
+	}
+	
+	/**
+	 * Aggregate per rule firing time, matches and cancelled matches of this execution in the profiler.
+	 */
+	public RulesExecution profileWith(RuleProfiler ruleProfiler){
+		this.ruleProfiler = ruleProfiler;
+		return this;
+	}
+	
+	/**
+	 * Return the cached result of an earlier execution with the same release Id, session name and fact key instead of firing rules.
+	 * Applicable to Stateless Kie Session only. The fact key identifies the facts, e.g. a hash of the request. Globals are not part
+	 * of the key unless named in keyGlobals; their values must have value equality and must not change while cached.
+	 * On a cache hit rules do not run, so read results from FiredRulesReturnValues, not from globals or facts.
+	 */
+	public RulesExecution cacheResult(RulesResultCache resultCache, String releaseId, String sessionName, Object factKey, String... keyGlobals){
+		if(this.statelessKieSession == null){
+			throw new IllegalStateException("Result cache is applicable to Stateless Kie Session only");
+		}
+		this.resultCache = resultCache;
+		this.resultCacheReleaseId = releaseId;
+		this.resultCacheSessionName = sessionName;
+		this.resultCacheFactKey = factKey;
+		this.resultCacheKeyGlobals = keyGlobals;
+		return this;
+	}
+	
+	/**
+	 * Audit log only the executions picked by the sampler. Overrides the default audit sampler.
+	 */
+	public RulesExecution auditSampler(AuditSampler auditSampler){
+		this.auditSampler = auditSampler;
+		return this;
+	}
+	
+	/**
+	 * Audit sampler for executions without their own sampler. All executions are audit logged when not set.
+	 */
+	public static void setDefaultAuditSampler(AuditSampler auditSampler){
+		defaultAuditSampler = auditSampler;
+	}
+	
+	/**
+	 * Record activation and working memory events of this execution to a binary trace file.
+	 * Unlike auditTrace, events are written asynchronously off the rule thread.
+	 */
+	public RulesExecution traceTo(TraceWriter traceWriter){
+		this.traceWriter = traceWriter;
+		return this;
+	}
+	
+	/**
+	 * Number of facts inserted before each fireAllRules in streaming mode. Default is 1000.
+	 */
+	public RulesExecution chunkSize(int chunkSize){
+		if(chunkSize < 1){
+			throw new IllegalArgumentException("Chunk size must be greater than 0");
+		}
+		this.chunkSize = chunkSize;
+		return this;
+	}
+	
+	/**
+	 * Delete the facts of a chunk from the Stateful Kie Session once rules fired on that chunk in streaming mode.
+	 */
+	public RulesExecution retractAfterFire(boolean retractAfterFire){
+		this.retractAfterFire = retractAfterFire;
+		return this;
+	}
+	
+	/**
+	 * Keep the fact handle of every streamed fact in FiredRulesReturnValues. Off by default so memory stays bounded.
+	 */
+	public RulesExecution retainFactHandles(boolean retainFactHandles){
+		this.retainFactHandles = retainFactHandles;
+		return this;
+	}
+	
+	/**
+	 * Copy facts of the type out of the session once rules fired. See FiredRulesReturnValues.getCollected.
+	 * With any collect option, fact handles and ExecutionResults are not retained, so the session can be
+	 * released as soon as rules fired.
+	 */
+	public RulesExecution collect(Class<?> type){
+		resultProjections().addType(type);
+		return this;
+	}
+	
+	/**
+	 * Copy the rows of the query out of the session once rules fired. See FiredRulesReturnValues.getQueryResults.
+	 */
+	public RulesExecution collectQuery(String queryName, Object... arguments){
+		resultProjections().addQuery(queryName, arguments);
+		return this;
+	}
+	
+	/**
+	 * Copy the global, e.g. a result accumulator, out of the session once rules fired. See FiredRulesReturnValues.getGlobal.
+	 */
+	public RulesExecution collectGlobal(String globalName){
+		resultProjections().addGlobal(globalName);
+		return this;
+	}
+	
+	private ResultProjections resultProjections(){
+		if(this.resultProjections == null){
+			this.resultProjections = new ResultProjections();
+		}
+		return this.resultProjections;
+	}
+	
+	/**
+	 * Stop firing once maxRulesFired rules fired, e.g. to guard against a rule loop. The outcome is then LIMIT_REACHED.
+	 * The limit applies to all chunks in streaming mode and to each partition in parallel mode.
+	 */
+	public RulesExecution maxRulesFired(int maxRulesFired){
+		if(maxRulesFired < 1){
+			throw new IllegalArgumentException("Max rules fired must be greater than 0");
+		}
+		this.maxRulesFired = maxRulesFired;
+		return this;
+	}
+	
+	/**
+	 * Halt the Stateful Kie Session if rules are still firing once the timeout elapses. The outcome is then TIMED_OUT.
+	 * The shared RulesWatchdog halts the session, so no thread is started per execution. The halt is repeated until
+	 * firing returns, since a halt is ignored while the session is not firing. A Stateless Kie Session cannot be halted; use maxRulesFired instead.
+	 */
+	public RulesExecution deadline(long timeout, TimeUnit unit){
+		if(this.kieSession == null){
+			throw new IllegalStateException("Deadline is applicable to Stateful Kie Session only");
 		}
+		if(timeout < 1){
+			throw new IllegalArgumentException("Deadline must be greater than 0");
+		}
+		this.deadlineNanos = unit.toNanos(timeout);
+		return this;
+	}
+	
+	/**
+	 * Fire only the matches accepted by the agenda filter.
+	 */
+	public RulesExecution agendaFilter(AgendaFilter agendaFilter){
+		this.agendaFilter = agendaFilter;
+		return this;
+	}
+	
+	/**
+	 * Clear the state of the last execution so that this instance can be reused for another execution on the same session:
+	 * facts, globals, agenda groups, listeners, context, projections, result cache, agenda filter, limits, deadline and
+	 * batch/retraction options. Lightweight, listener, auto release, metrics, profiler, trace, audit sampler and chunk size
+	 * settings are kept.
+	 * The returned values are reused, so read them, or take a copy(), before calling reset.
+	 * A released Stateful Kie Session cannot be reused.
+	 */
+	public RulesExecution reset(){
+		if(this.released){
+			throw new IllegalStateException("Stateful Kie Session of this execution was released. Fetch a new session to fire rules again");
+		}
+		removeEventListeners();
+		this.facts = null;
+		this.globals = null;
+		this.agendaGroupNames = null;
+		this.eventListeners = null;
+		this.appContext = null;
+		this.logger = null;
+		this.resultProjections = null;
+		this.resultCache = null;
+		this.resultCacheReleaseId = null;
+		this.resultCacheSessionName = null;
+		this.resultCacheFactKey = null;
+		this.resultCacheKeyGlobals = null;
+		this.agendaFilter = null;
+		this.maxRulesFired = 0;
+		this.deadlineNanos = 0;
+		this.deadlineExceeded = false;
+		this.retractAfterFire = false;
+		this.retainFactHandles = false;
+		this.statefulBatchExecution = false;
+		if(this.agendaStats != null){
+			this.agendaStats.reset();
+		}
+		this.firedRulesReturnValues.clear();
+		return this;
 	}
 
 	public RulesExecution auditTrace(String auditFilePath){
@@ -89,7 +377,7 @@ public class RulesExecution {
 	}
 
 	public KieServices getKieServices() {
-		return KieServices.Factory.get();
+		return KieServicesHolder.KIE_SERVICES;
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -112,20 +400,37 @@ public class RulesExecution {
 	}
 	
 	public RulesExecution addContext(Map<String, String> context){
-		this.appContext.putAll(context);
+		if(MapUtils.isNotEmpty(context)){
+			appContext().putAll(context);
+		}
 		return this;
 	}
 	
 	public RulesExecution addContext(final String contextName, String contextValue){
-		this.appContext.put(contextName, contextValue);
+		appContext().put(contextName, contextValue);
 		return this;
 	}
 	
+	private Map<String, String> appContext(){
+		if(this.appContext == null){
+			this.appContext = new HashMap<>();
+		}
+		return this.appContext;
+	}
+	
 	public RulesExecution enableListeners(boolean enableListeners){
 		this.enableListeners = enableListeners;
 		return this;
 	}
 	
+	/**
+	 * Listeners of this execution only.
+	 * In batch mode on a Stateless Kie Session, the default, listeners are added by the batch to the working memory of
+	 * this call, so they do not observe other executions on the same (shared or pooled) session.
+	 * On a Stateful Kie Session, and with fireRules(false) on a Stateless Kie Session, listeners are registered on the
+	 * session before rules fire and removed after. A pooled Stateless Kie Session is one shared instance, so do not combine
+	 * fireRules(false) with listeners on a session used by concurrent executions.
+	 */
 	public RulesExecution addEventListeners(EventListener... eventListeners){
 		if(this.eventListeners == null){
 			this.eventListeners = new ArrayList<>();
@@ -136,7 +441,7 @@ public class RulesExecution {
 	
 	public RulesExecution addEventListeners(Collection<EventListener> eventListeners){
 		if(this.eventListeners == null){
-			this.eventListeners = eventListeners;
+			this.eventListeners = new ArrayList<>(eventListeners);
 		}else{
 			this.eventListeners.addAll(eventListeners);
 		}
@@ -144,39 +449,181 @@ public class RulesExecution {
 	}
 	
 	public RulesExecution addGlobals(Map<String, Object> globals){
-		this.globals.putAll(globals);
+		if(MapUtils.isNotEmpty(globals)){
+			globals().putAll(globals);
+		}
 		return this;
 	}
 	
 	public RulesExecution addGlobal(String globalVariable, Object globalObject){
-		this.globals.put(globalVariable, globalObject);
+		globals().put(globalVariable, globalObject);
 		return this;
 	}
 	
+	private Map<String, Object> globals(){
+		if(this.globals == null){
+			this.globals = new HashMap<>();
+		}
+		return this.globals;
+	}
+	
 	public RulesExecution forAgendaGroups(String... agendaGroupNames){
 		this.agendaGroupNames = agendaGroupNames;
 		return this;
 	}
 	
+	/**
+	 * Fire rules in batch mode on a Stateless Kie Session, and insert fact by fact on a Stateful Kie Session.
+	 * The Stateful Kie Session is released only with autoRelease(true).
+	 */
 	public FiredRulesReturnValues fireRules(){
-		try{
-			if(RULES_LOG.isInfoEnabled()){
-				auditLoggingContext();
+		return fireRules(true);
+	}
+
+	public CompletableFuture<FiredRulesReturnValues> fireRulesAsync(Executor executor){
+		return fireRulesAsync(executor, 0, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Fire rules in batch mode on the executor. The MDC of the calling thread is carried to the executing thread.
+	 * The future completes with a TimeoutException once the timeout elapses (0 means no timeout).
+	 * If the future is cancelled or times out before the executor runs the execution, rules are not fired.
+	 * If it is cancelled or times out once the execution started, a Stateful Kie Session is halted; the halt is repeated
+	 * until the execution ends, since a halt that lands before fire all rules starts is ignored.
+	 * A Stateless Kie Session cannot be halted and runs to completion.
+	 * With autoRelease the session is released once rules stopped firing, before the future completes.
+	 */
+	public CompletableFuture<FiredRulesReturnValues> fireRulesAsync(Executor executor, long timeout, TimeUnit unit){
+		CompletableFuture<FiredRulesReturnValues> future = new CompletableFuture<>();
+		AtomicInteger state = new AtomicInteger(ASYNC_NEW);
+		Map<String, String> callerContext = MDC.getCopyOfContextMap();
+		
+		future.whenComplete((returnValues, throwable) -> {
+			if(throwable instanceof TimeoutException || throwable instanceof CancellationException){
+				haltIfFiring(state);
 			}
-			fireRules(true);
-		}finally{
-			fireRulesPostProcessor();
+		});
+		
+		try{
+			executor.execute(() -> {
+				if(!state.compareAndSet(ASYNC_NEW, ASYNC_RUNNING)){
+					return;
+				}
+				Map<String, String> workerContext = MDC.getCopyOfContextMap();
+				setMdcContext(callerContext);
+				FiredRulesReturnValues returnValues = null;
+				Throwable failure = null;
+				try{
+					returnValues = executeRules(this.kieSession == null);
+				}catch(Throwable t){
+					failure = t;
+				}finally{
+					synchronized(sessionLock){
+						state.set(ASYNC_DONE);
+					}
+					setMdcContext(workerContext);
+				}
+				try{
+					releaseSession();
+				}catch(RuntimeException e){
+					if(failure == null){
+						failure = e;
+					}
+				}
+				if(failure == null){
+					future.complete(returnValues);
+				}else{
+					future.completeExceptionally(failure);
+				}
+			});
+		}catch(RejectedExecutionException e){
+			state.set(ASYNC_DONE);
+			future.completeExceptionally(e);
+			releaseSession();
+			return future;
 		}
 		
-		return firedRulesReturnValues;
+		if(timeout > 0){
+			ScheduledFuture<?> timeoutTask = RulesWatchdog.schedule(
+					() -> future.completeExceptionally(new TimeoutException("Rules execution did not complete in " + timeout + " " + unit)),
+					timeout, unit);
+			future.whenComplete((returnValues, throwable) -> timeoutTask.cancel(false));
+		}
+		
+		future.whenComplete((returnValues, throwable) -> {
+			if(state.compareAndSet(ASYNC_NEW, ASYNC_DONE)){
+				releaseSession();
+			}
+		});
+		return future;
+	}
+	
+	/**
+	 * Halt the Stateful Kie Session only while this execution is still running on it, never once it was released
+	 * and possibly borrowed by another caller. A halt is ignored unless rules are firing, so the halt is repeated
+	 * until the execution ends, in case it landed before fire all rules started.
+	 */
+	private void haltIfFiring(AtomicInteger state){
+		if(this.kieSession == null){
+			return;
+		}
+		if(state.get() == ASYNC_RUNNING){
+			LOG.debug("Rules execution cancelled or timed out. Halting Stateful Kie Session");
+		}
+		haltWhileRunning(state);
+	}
+	
+	private void haltWhileRunning(AtomicInteger state){
+		synchronized(sessionLock){
+			if(state.get() != ASYNC_RUNNING || this.released){
+				return;
+			}
+			this.kieSession.halt();
+		}
+		RulesWatchdog.schedule(() -> haltWhileRunning(state), DEADLINE_HALT_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+	
+	private void setMdcContext(Map<String, String> context){
+		if(context == null){
+			MDC.clear();
+		}else{
+			MDC.setContextMap(context);
+		}
+	}
+	
+	private void releaseSession(){
+		if(this.autoRelease){
+			close();
+		}
+	}
+	
+	/**
+	 * Release the Stateful Kie Session: remove listeners of this execution and dispose the session. Disposing a pooled session
+	 * resets it, which clears its working memory and globals, and returns it to its pool. The session cannot be used afterwards.
+	 * Releasing more than once has no effect. Nothing is released for a Stateless Kie Session.
+	 */
+	@Override
+	public void close(){
+		removeEventListeners();
+		if(this.kieSession == null || this.released){
+			return;
+		}
+		this.released = true;
+		if(this.sessionLease != null){
+			this.sessionLease.close();
+			this.sessionLease = null;
+		}
+		LOG.trace("Releasing Stateful Kie Session");
+		this.kieSession.dispose();
 	}
 
 	private void fireRulesPostProcessor() {
+		removeEventListeners();
 		printDefaultAgendaStats();
 		if(this.logger != null){
 			this.logger.close();
 		}
-		if(RULES_LOG.isInfoEnabled() && MapUtils.isNotEmpty(this.appContext)){
+		if(this.auditEnabled && MapUtils.isNotEmpty(this.appContext)){
 			appContext.forEach((key,value) -> MDC.remove(key));
 		}
 	}
@@ -187,153 +634,580 @@ public class RulesExecution {
 		}
 	}
 	
+	/**
+	 * @param enableBatchExecution run set globals, insert facts, agenda group focus and fire all rules as one batch command
+	 * on a Stateless Kie Session. Ignored on a Stateful Kie Session, see batchExecution()
+	 */
 	public FiredRulesReturnValues fireRules(boolean enableBatchExecution){
+		try{
+			return executeRules(enableBatchExecution);
+		}finally{
+			releaseSession();
+		}
+	}
+	
+	private FiredRulesReturnValues executeRules(boolean enableBatchExecution){
 		if(CollectionUtils.isEmpty(facts)){
 			throw new IllegalAccessError("Cannot fire rules without facts. Set atleast 1 fact");
 		}
 		
-		if(! enableListeners){
-			this.eventListeners.clear();
+		RulesResultCache.Key resultCacheKey = null;
+		if(this.resultCache != null){
+			resultCacheKey = this.resultCache.newKey(resultCacheReleaseId, resultCacheSessionName, resultCacheFactKey, resultCacheKeyGlobals());
+			FiredRulesReturnValues cachedReturnValues = this.resultCache.get(resultCacheKey);
+			if(cachedReturnValues != null){
+				LOG.trace("Rules execution result found in cache for {}", resultCacheFactKey);
+				return cachedReturnValues;
+			}
+		}
+		
+		this.auditEnabled = isAuditSampled();
+		try{
+			if(this.auditEnabled){
+				prepareDefaultAgendaStats();
+				auditLoggingContext();
+			}
+			if(this.rulesMetrics != null){
+				long start = System.nanoTime();
+				fireRulesOnSession(enableBatchExecution);
+				Integer numberOfRulesFired = firedRulesReturnValues.getNumberOfRulesFired();
+				this.rulesMetrics.rulesExecuted(metricsReleaseId, metricsSessionName, facts.size(),
+						numberOfRulesFired == null ? 0 : numberOfRulesFired, System.nanoTime() - start);
+			}else{
+				fireRulesOnSession(enableBatchExecution);
+			}
+		}finally{
+			fireRulesPostProcessor();
+		}
+		if(resultCacheKey != null){
+			this.resultCache.put(resultCacheKey, firedRulesReturnValues);
+		}
+		return firedRulesReturnValues;
+	}
+	
+	private Map<String, Object> resultCacheKeyGlobals(){
+		if(ArrayUtils.isEmpty(this.resultCacheKeyGlobals) || this.globals == null){
+			return null;
+		}
+		Map<String, Object> keyGlobals = new HashMap<>();
+		for(String globalName: this.resultCacheKeyGlobals){
+			keyGlobals.put(globalName, this.globals.get(globalName));
+		}
+		return keyGlobals;
+	}
+	
+	public FiredRulesReturnValues fireRulesStreaming(Stream<?> facts){
+		return fireRulesStreaming(facts.iterator());
+	}
+	
+	public FiredRulesReturnValues fireRulesStreaming(Spliterator<?> facts){
+		return fireRulesStreaming(Spliterators.iterator(facts));
+	}
+	
+	/**
+	 * Insert facts on the Stateful Kie Session in chunks and fire rules after each chunk.
+	 * Facts are pulled from the iterator one chunk at a time, so the whole input is never held in memory.
+	 * Combine with retractAfterFire(true) when rules do not need facts of earlier chunks.
+	 * 
+	 * @return number of rules fired over all chunks
+	 */
+	public FiredRulesReturnValues fireRulesStreaming(Iterator<?> facts){
+		if(this.kieSession == null){
+			throw new IllegalStateException("Streaming rules execution is applicable to Stateful Kie Session only");
+		}
+		if(!facts.hasNext()){
+			throw new IllegalAccessError("Cannot fire rules without facts. Set atleast 1 fact");
+		}
+		
+		this.auditEnabled = isAuditSampled();
+		try{
+			if(this.auditEnabled){
+				prepareDefaultAgendaStats();
+				auditLoggingContext();
+			}
+			long start = System.nanoTime();
+			int numberOfFactsInserted;
+			ScheduledFuture<?> deadlineTask = startDeadline();
+			try{
+				numberOfFactsInserted = fireKieSessionRulesInChunks(facts);
+			}finally{
+				cancelDeadline(deadlineTask);
+			}
+			if(this.rulesMetrics != null){
+				this.rulesMetrics.rulesExecuted(metricsReleaseId, metricsSessionName, numberOfFactsInserted,
+						firedRulesReturnValues.getNumberOfRulesFired(), System.nanoTime() - start);
+			}
+		}finally{
+			fireRulesPostProcessor();
+			releaseSession();
+		}
+		return firedRulesReturnValues;
+	}
+	
+	private int fireKieSessionRulesInChunks(Iterator<?> facts){
+		LOG.trace("Preparing to fire rules on a Stateful Kie Session in chunks of {} facts...", chunkSize);
+		
+		if(this.globals != null){
+			this.globals.forEach((k,v)->this.kieSession.setGlobal(k, v));
 		}
+		registerEventListeners(this.kieSession);
 		
+		boolean keepChunkHandles = this.retractAfterFire || this.retainFactHandles;
+		List<FactHandle> chunkFactHandles = keepChunkHandles ? new ArrayList<>(chunkSize) : null;
+		int numberOfFactsInserted = 0;
+		int numberOfRulesFired = 0;
+		ExecutionOutcome executionOutcome = null;
+		StopWatch sw = startStopWatch();
+		while(facts.hasNext()){
+			for(int i=0;i<chunkSize && facts.hasNext();i++){
+				FactHandle factHandle = this.kieSession.insert(facts.next());
+				if(keepChunkHandles){
+					chunkFactHandles.add(factHandle);
+				}
+				numberOfFactsInserted++;
+			}
+			setAgendaGroupFocus();
+			numberOfRulesFired += fireAllRules(numberOfRulesFired);
+			
+			if(keepChunkHandles){
+				if(this.retractAfterFire){
+					chunkFactHandles.forEach(this.kieSession::delete);
+				}
+				if(this.retainFactHandles){
+					firedRulesReturnValues.getFactHandles().addAll(chunkFactHandles);
+				}
+				chunkFactHandles.clear();
+			}
+			executionOutcome = executionOutcome(numberOfRulesFired, this::hasPendingMatches);
+			if(executionOutcome != ExecutionOutcome.COMPLETED){
+				LOG.debug("Stopped streaming after {} facts. Outcome: {}", numberOfFactsInserted, executionOutcome);
+				break;
+			}
+		}
+		if(sw != null){
+			sw.stop();
+			LOG.debug("Fired {} rules on {} streamed facts on a Stateful Kie Session. Execution time: {}", numberOfRulesFired, numberOfFactsInserted, sw);
+		}
+		firedRulesReturnValues.setNumberOfRulesFired(numberOfRulesFired);
+		firedRulesReturnValues.setExecutionOutcome(executionOutcome != null ? executionOutcome : executionOutcome(numberOfRulesFired, this::hasPendingMatches));
+		if(this.resultProjections != null){
+			this.resultProjections.collect(this.kieSession, firedRulesReturnValues);
+		}
+		return numberOfFactsInserted;
+	}
+	
+	private boolean isAuditSampled(){
+		if(this.lightweight || !RULES_LOG.isInfoEnabled()){
+			return false;
+		}
+		AuditSampler sampler = this.auditSampler != null ? this.auditSampler : defaultAuditSampler;
+		return sampler == null || sampler.sample(this.appContext);
+	}
+	
+	private void fireRulesOnSession(boolean enableBatchExecution){
 		if(this.kieSession != null){
-			fireKieSessionRules();
+			ScheduledFuture<?> deadlineTask = startDeadline();
+			try{
+				if(this.statefulBatchExecution){
+					fireBatchExecution(this.kieSession, "Stateful");
+				}else{
+					fireKieSessionRules();
+				}
+			}finally{
+				cancelDeadline(deadlineTask);
+			}
 		}else if(this.statelessKieSession != null){
 			if(enableBatchExecution){
-				fireStatelessKieSessionRulesBatchExecution();	
+				fireBatchExecution(this.statelessKieSession, "Stateless");
 			}else{
 				fireStatelessKieSessionRules();
 			}
 		}
-		return firedRulesReturnValues;
 	}
 	
-	private void fireKieSessionRules() {
-		LOG.trace("Preparing to fire rules on a Stateful Kie Session...");
+	/**
+	 * Split the facts of this execution into partitions and fire each partition in batch mode.
+	 * Partitions run on the common ForkJoinPool.
+	 */
+	public FiredRulesReturnValues fireRulesInParallel(int partitionSize){
+		return fireRulesInParallel(partitionSize, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Split the facts of this execution into partitions and fire each partition as its own batch execution on the
+	 * Stateless Kie Session of this execution. Every execute of a Stateless Kie Session runs on a new working memory,
+	 * so partitions are isolated even on a shared or pooled session, and listeners of a partition only observe that partition.
+	 * Globals, agenda groups, event listeners and context of this execution are applied to every partition.
+	 * The same global objects are shared by all partitions running at once, so globals must be immutable or thread-safe.
+	 * Do not pass a result accumulator as a global; collect facts or queries instead.
+	 * 
+	 * @return merged values with the result of each partition available through getPartitionResults()
+	 */
+	public FiredRulesReturnValues fireRulesInParallel(int partitionSize, Executor executor){
+		if(this.statelessKieSession == null){
+			throw new IllegalStateException("Parallel rules execution is applicable to Stateless Kie Session only");
+		}
+		if(CollectionUtils.isEmpty(this.facts)){
+			throw new IllegalAccessError("Cannot fire rules without facts. Set atleast 1 fact");
+		}
+		if(partitionSize < 1){
+			throw new IllegalArgumentException("Partition size must be greater than 0");
+		}
 		
-		this.globals.forEach((k,v)->this.kieSession.setGlobal(k, v));
-
-		this.facts.forEach(fact->{
-			FactHandle factHandle = this.kieSession.insert(fact);
-			firedRulesReturnValues.addFactHandle(factHandle);
-		});
+		List<List<Object>> partitions = ListUtils.partition(new ArrayList<Object>(this.facts), partitionSize);
+		LOG.debug("Firing rules on {} partitions of {} facts", partitions.size(), partitionSize);
 		
-		if(this.eventListeners != null){
-			for(EventListener eventListener: this.eventListeners){
-				if(eventListener instanceof RuleRuntimeEventListener){
-					this.kieSession.addEventListener((RuleRuntimeEventListener) eventListener);
-				}else if(eventListener instanceof AgendaEventListener){
-					this.kieSession.addEventListener((AgendaEventListener) eventListener);
-				}else if(eventListener instanceof ProcessEventListener){
-					this.kieSession.addEventListener((ProcessEventListener) eventListener);
-				}
-			}
+		List<CompletableFuture<FiredRulesReturnValues>> futures = new ArrayList<>(partitions.size());
+		for(List<Object> partition: partitions){
+			futures.add(CompletableFuture.supplyAsync(
+					() -> newPartitionExecution(partition).fireRules(true), executor));
 		}
 		
-		if(ArrayUtils.isNotEmpty(agendaGroupNames)){
-			for(int i=agendaGroupNames.length;i>0;i--){
-				this.kieSession.getAgenda().getAgendaGroup(agendaGroupNames[i-1]).setFocus();
+		FiredRulesReturnValues mergedReturnValues = new FiredRulesReturnValues();
+		try{
+			for(CompletableFuture<FiredRulesReturnValues> future: futures){
+				mergedReturnValues.addPartitionResult(future.join());
+			}
+		}catch(CompletionException e){
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
 			}
+			throw e;
+		}
+		this.firedRulesReturnValues = mergedReturnValues;
+		return mergedReturnValues;
+	}
+	
+	private RulesExecution newPartitionExecution(List<Object> partition){
+		RulesExecution partitionExecution = new RulesExecution(this.statelessKieSession)
+				.addFacts(new ArrayList<Object>(partition))
+				.addGlobals(this.globals)
+				.addContext(this.appContext)
+				.enableListeners(this.enableListeners);
+		if(ArrayUtils.isNotEmpty(this.agendaGroupNames)){
+			partitionExecution.forAgendaGroups(this.agendaGroupNames);
+		}
+		if(this.eventListeners != null){
+			partitionExecution.addEventListeners(this.eventListeners);
 		}
+		if(this.lightweight){
+			partitionExecution.lightweight();
+		}
+		if(this.rulesMetrics != null){
+			partitionExecution.withMetrics(this.rulesMetrics, this.metricsReleaseId, this.metricsSessionName);
+		}
+		if(this.traceWriter != null){
+			partitionExecution.traceTo(this.traceWriter);
+		}
+		if(this.ruleProfiler != null){
+			partitionExecution.profileWith(this.ruleProfiler);
+		}
+		if(this.auditSampler != null){
+			partitionExecution.auditSampler(this.auditSampler);
+		}
+		partitionExecution.resultProjections = this.resultProjections;
+		partitionExecution.maxRulesFired = this.maxRulesFired;
+		partitionExecution.agendaFilter = this.agendaFilter;
+		return partitionExecution;
+	}
+	
+	private void fireKieSessionRules() {
+		LOG.trace("Preparing to fire rules on a Stateful Kie Session...");
 		
-		StopWatch sw = new StopWatch();
-		if(LOG.isDebugEnabled()){
-			sw.start();
+		if(this.globals != null){
+			this.globals.forEach((k,v)->this.kieSession.setGlobal(k, v));
 		}
-		int numberOfRulesFired = this.kieSession.fireAllRules();
-		if(LOG.isDebugEnabled()){
+
+		if(this.lightweight || this.resultProjections != null){
+			this.facts.forEach(this.kieSession::insert);
+		}else{
+			this.facts.forEach(fact->{
+				FactHandle factHandle = this.kieSession.insert(fact);
+				firedRulesReturnValues.addFactHandle(factHandle);
+			});
+		}
+		
+		registerEventListeners(this.kieSession);
+		
+		setAgendaGroupFocus();
+		
+		StopWatch sw = startStopWatch();
+		int numberOfRulesFired = fireAllRules(0);
+		if(sw != null){
 			sw.stop();
 			LOG.debug("Fired {} rules on a Stateful Kie Session. Execution time: {}", numberOfRulesFired, sw);
 		}
 		firedRulesReturnValues.setNumberOfRulesFired(numberOfRulesFired);
+		firedRulesReturnValues.setExecutionOutcome(executionOutcome(numberOfRulesFired, this::hasPendingMatches));
+		if(this.resultProjections != null){
+			this.resultProjections.collect(this.kieSession, firedRulesReturnValues);
+		}
+	}
+	
+	/**
+	 * Fire the remaining rules allowed by maxRulesFired, through the agenda filter if present.
+	 */
+	private int fireAllRules(int numberOfRulesFired){
+		if(this.deadlineExceeded){
+			return 0;
+		}
+		if(this.maxRulesFired > 0){
+			int remaining = this.maxRulesFired - numberOfRulesFired;
+			if(remaining <= 0){
+				return 0;
+			}
+			return this.agendaFilter == null ? this.kieSession.fireAllRules(remaining) : this.kieSession.fireAllRules(this.agendaFilter, remaining);
+		}
+		return this.agendaFilter == null ? this.kieSession.fireAllRules() : this.kieSession.fireAllRules(this.agendaFilter);
+	}
+	
+	/**
+	 * LIMIT_REACHED only if the limit was reached with matches left to fire. An agenda that emptied at exactly the limit is COMPLETED.
+	 */
+	private ExecutionOutcome executionOutcome(int numberOfRulesFired, BooleanSupplier pendingMatches){
+		if(this.deadlineExceeded){
+			return ExecutionOutcome.TIMED_OUT;
+		}
+		if(this.maxRulesFired > 0 && numberOfRulesFired >= this.maxRulesFired && pendingMatches.getAsBoolean()){
+			return ExecutionOutcome.LIMIT_REACHED;
+		}
+		return ExecutionOutcome.COMPLETED;
+	}
+	
+	/**
+	 * Matches left in the focused agenda groups of the Stateful Kie Session that the agenda filter accepts.
+	 * The probe cancels the matches it visits, so it runs only once the limit is reached and firing stops anyway.
+	 */
+	private boolean hasPendingMatches(){
+		PendingMatchProbe pendingMatchProbe = new PendingMatchProbe(this.agendaFilter);
+		this.kieSession.fireAllRules(pendingMatchProbe, 1);
+		return pendingMatchProbe.isPending();
+	}
+	
+	private ScheduledFuture<?> startDeadline(){
+		this.deadlineExceeded = false;
+		if(this.deadlineNanos <= 0){
+			return null;
+		}
+		long run;
+		synchronized(sessionLock){
+			run = ++this.deadlineRun;
+		}
+		return RulesWatchdog.schedule(() -> haltOnDeadline(run), this.deadlineNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Halt only while the execution that armed the deadline is still firing. A halt is ignored unless rules are firing,
+	 * so the halt is repeated until the deadline is cancelled, in case it landed just before firing started.
+	 */
+	private void haltOnDeadline(long run){
+		synchronized(sessionLock){
+			if(run != this.deadlineRun || this.released){
+				return;
+			}
+			if(!this.deadlineExceeded){
+				LOG.warn("Rules execution exceeded its deadline of {} ms. Halting the Stateful Kie Session", TimeUnit.NANOSECONDS.toMillis(this.deadlineNanos));
+				this.deadlineExceeded = true;
+			}
+			this.kieSession.halt();
+		}
+		RulesWatchdog.schedule(() -> haltOnDeadline(run), DEADLINE_HALT_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Invalidate the deadline. Once this returns, the deadline task cannot halt the session, even if it is already running.
+	 */
+	private void cancelDeadline(ScheduledFuture<?> deadlineTask){
+		if(deadlineTask != null){
+			synchronized(sessionLock){
+				this.deadlineRun++;
+			}
+			deadlineTask.cancel(false);
+		}
+	}
+	
+	private void setAgendaGroupFocus(){
+		if(ArrayUtils.isNotEmpty(agendaGroupNames)){
+			for(int i=agendaGroupNames.length;i>0;i--){
+				this.kieSession.getAgenda().getAgendaGroup(agendaGroupNames[i-1]).setFocus();
+			}
+		}
 	}
 	
 	private void fireStatelessKieSessionRules(){
 		LOG.trace("Preparing to fire rules on a Stateless Kie Session...");
-		
-		this.globals.forEach((k,v)->this.statelessKieSession.setGlobal(k, v));
-		
-		if(this.eventListeners != null){
-			for(EventListener eventListener: this.eventListeners){
-				if(eventListener instanceof RuleRuntimeEventListener){
-					this.statelessKieSession.addEventListener((RuleRuntimeEventListener) eventListener);
-				}else if(eventListener instanceof AgendaEventListener){
-					this.statelessKieSession.addEventListener((AgendaEventListener) eventListener);
-				}else if(eventListener instanceof ProcessEventListener){
-					this.statelessKieSession.addEventListener((ProcessEventListener) eventListener);
-				}
-			}
+		if(this.resultProjections != null){
+			throw new IllegalStateException("Collecting results from a Stateless Kie Session requires batch execution");
+		}
+		if(this.maxRulesFired > 0 || this.agendaFilter != null){
+			throw new IllegalStateException("Fire limit and agenda filter on a Stateless Kie Session require batch execution");
 		}
 		
-		StopWatch sw = new StopWatch();
-		if(LOG.isDebugEnabled()){
-			sw.start();
+		if(this.globals != null){
+			this.globals.forEach((k,v)->this.statelessKieSession.setGlobal(k, v));
 		}
+		
+		registerEventListeners(this.statelessKieSession);
+		
+		StopWatch sw = startStopWatch();
 		this.statelessKieSession.execute(facts);
-		if(LOG.isDebugEnabled()){
+		if(sw != null){
 			sw.stop();
 			LOG.debug("Fired rules on a Stateless Kie Session. Execution time: {}", sw);
 		}
+		firedRulesReturnValues.setExecutionOutcome(ExecutionOutcome.COMPLETED);
 	}
 	
-	private void fireStatelessKieSessionRulesBatchExecution(){
-		LOG.trace("Preparing to fire rules on a Stateless Kie Session - batch command mode...");
+	private <S extends CommandExecutor & KieRuntimeEventManager> void fireBatchExecution(S session, String sessionType){
+		LOG.trace("Preparing to fire rules on a {} Kie Session - batch command mode...", sessionType);
 		
-		KieServices kieServices = getKieServices();
-		@SuppressWarnings("rawtypes")
-		List<Command> commands = new ArrayList<Command>();
+		//A Stateless Kie Session is gone after execute, so pending matches are probed within the batch
+		PendingMatchProbe pendingMatchProbe = this.maxRulesFired > 0 && this.kieSession == null ? new PendingMatchProbe(this.agendaFilter) : null;
+		BatchExecutionPlan executionPlan = this.maxRulesFired > 0 || this.agendaFilter != null
+				? BatchExecutionPlan.withLimits(getKieServices().getCommands(), this.agendaGroupNames, NUMBER_OF_RULES_FIRED, this.maxRulesFired, this.agendaFilter, pendingMatchProbe)
+				: BatchExecutionPlan.forAgendaGroups(getKieServices().getCommands(), this.agendaGroupNames, NUMBER_OF_RULES_FIRED);
+		//A Stateless Kie Session runs the batch on a new working memory, so listeners added by the batch only observe this call
+		ExecutionListenersCommand listenersCommand = null;
+		if(this.kieSession == null){
+			List<EventListener> executionEventListeners = executionEventListeners();
+			listenersCommand = executionEventListeners.isEmpty() ? null : new ExecutionListenersCommand(executionEventListeners);
+		}else{
+			registerEventListeners(session);
+		}
+		BatchExecutionCommand batchExecutionCommand = executionPlan.bind(listenersCommand, this.globals, this.facts,
+				this.resultProjections == null ? null : this.resultProjections.commands(getKieServices().getCommands()));
 		
-		this.globals.forEach((k,v)->commands.add(kieServices.getCommands().newSetGlobal(k, v, true)));
+		StopWatch sw = startStopWatch();
 		
-		this.facts.forEach(fact->{
-			commands.add(kieServices.getCommands().newInsert(fact));
-		});
+		ExecutionResults executionResults = session.execute(batchExecutionCommand);
+		if(this.resultProjections != null){
+			this.resultProjections.collect(executionResults, firedRulesReturnValues);
+		}else if(!this.lightweight){
+			firedRulesReturnValues.setExecutionResults(executionResults);
+		}
+		Integer numberOfRulesFired = (Integer)executionResults.getValue(NUMBER_OF_RULES_FIRED);
+		firedRulesReturnValues.setNumberOfRulesFired(numberOfRulesFired);
+		firedRulesReturnValues.setExecutionOutcome(executionOutcome(numberOfRulesFired == null ? 0 : numberOfRulesFired,
+				pendingMatchProbe == null ? this::hasPendingMatches : pendingMatchProbe::isPending));
 		
+		if(sw != null){
+			sw.stop();
+			LOG.debug("Fired {} rules on a {} Kie Session in batch mode. Execution time: {}", firedRulesReturnValues.getNumberOfRulesFired(), sessionType, sw);
+		}
+	}
+	
+	private StopWatch startStopWatch(){
+		if(this.lightweight || !LOG.isDebugEnabled()){
+			return null;
+		}
+		StopWatch sw = new StopWatch();
+		sw.start();
+		return sw;
+	}
+	
+	/**
+	 * Listeners of this execution, each once even if added more than once.
+	 */
+	private List<EventListener> executionEventListeners(){
+		if(!this.enableListeners || (this.eventListeners == null && !this.auditEnabled && this.rulesMetrics == null && this.ruleProfiler == null && this.traceWriter == null)){
+			return Collections.emptyList();
+		}
+		List<EventListener> executionEventListeners = new ArrayList<>(this.eventListeners == null ? 1 : this.eventListeners.size() + 1);
 		if(this.eventListeners != null){
 			for(EventListener eventListener: this.eventListeners){
-				if(eventListener instanceof RuleRuntimeEventListener){
-					this.statelessKieSession.addEventListener((RuleRuntimeEventListener) eventListener);
-				}else if(eventListener instanceof AgendaEventListener){
-					this.statelessKieSession.addEventListener((AgendaEventListener) eventListener);
-				}else if(eventListener instanceof ProcessEventListener){
-					this.statelessKieSession.addEventListener((ProcessEventListener) eventListener);
-				}
+				addOnce(executionEventListeners, eventListener);
 			}
 		}
-		
-		if(ArrayUtils.isNotEmpty(agendaGroupNames)){
-			for(int i=agendaGroupNames.length;i>0;i--){
-				kieServices.getCommands().newAgendaGroupSetFocus(agendaGroupNames[i-1]);
-			}
+		if(this.auditEnabled){
+			addOnce(executionEventListeners, this.agendaStats);
 		}
-		
-		commands.add(kieServices.getCommands().newFireAllRules(NUMBER_OF_RULES_FIRED));
-		
-		StopWatch sw = new StopWatch();
-		if(LOG.isDebugEnabled()){
-			sw.start();
+		if(this.rulesMetrics != null || this.ruleProfiler != null){
+			executionEventListeners.add(new MetricsAgendaEventListener(this.rulesMetrics, this.metricsReleaseId, this.metricsSessionName, this.ruleProfiler));
 		}
-		
-		ExecutionResults executionResults = statelessKieSession.execute(kieServices.getCommands().newBatchExecution(commands));
-		firedRulesReturnValues.setExecutionResults(executionResults);
-		firedRulesReturnValues.setNumberOfRulesFired((Integer)executionResults.getValue(NUMBER_OF_RULES_FIRED));
-		
-		if(LOG.isDebugEnabled()){
-			sw.stop();
-			LOG.debug("Fired {} rules on a Stateless Kie Session in batch mode. Execution time: {}", firedRulesReturnValues.getNumberOfRulesFired(), sw);
+		if(this.traceWriter != null){
+			addOnce(executionEventListeners, this.traceWriter.getEventListener());
 		}
+		return executionEventListeners;
 	}
 	
-	private void registerDefaultEventListeners(EventListener... eventListeners){
-		this.addEventListeners(eventListeners);
+	private static void addOnce(List<EventListener> eventListeners, EventListener eventListener){
+		if(!eventListeners.contains(eventListener)){
+			eventListeners.add(eventListener);
+		}
+	}
+	
+	/**
+	 * Register listeners of this execution on the session and remove them after the execution, so sessions do not
+	 * accumulate listeners. Registration is per session, not per working memory: used for Stateful Kie Sessions, which
+	 * run one execution at a time, and plain (non batch) execution on a Stateless Kie Session, see addEventListeners.
+	 */
+	private void registerEventListeners(KieRuntimeEventManager session){
+		List<EventListener> executionEventListeners = executionEventListeners();
+		if(executionEventListeners.isEmpty()){
+			return;
+		}
+		this.listenerSession = session;
+		this.registeredEventListeners = new ArrayList<>(executionEventListeners.size());
+		for(EventListener eventListener: executionEventListeners){
+			//A listener the caller attached to the session stays attached
+			if(!SessionEventListeners.isAttached(session, eventListener) && SessionEventListeners.addEventListener(session, eventListener)){
+				this.registeredEventListeners.add(eventListener);
+			}
+		}
+	}
+	
+	private void removeEventListeners(){
+		if(this.registeredEventListeners != null){
+			for(EventListener eventListener: this.registeredEventListeners){
+				SessionEventListeners.removeEventListener(this.listenerSession, eventListener);
+			}
+			this.registeredEventListeners = null;
+			this.listenerSession = null;
+		}
+	}
+	
+	private void prepareDefaultAgendaStats(){
+		if(this.agendaStats == null){
+			this.agendaStats = new AgendaStats();
+		}
+		this.agendaStats.reset();
 	}
 	
 	private void printDefaultAgendaStats(){
-		if(RULES_LOG.isInfoEnabled()){
+		if(this.auditEnabled && this.agendaStats != null){
 			for(Map.Entry<String, AgendaStatsData> entry: this.agendaStats.getRulesStats().entrySet()){
 				RULES_LOG.info("{} | {}", entry.getKey(), entry.getValue());
 				firedRulesReturnValues.getExecutedRules().add(entry.getKey());
 			}
 		}
 	}
+	
+	/**
+	 * Agenda filter run after the limited fire all rules. It records whether a match the execution filter accepts is left,
+	 * and rejects it so nothing more fires.
+	 */
+	static final class PendingMatchProbe implements AgendaFilter {
+		private final AgendaFilter agendaFilter;
+		private boolean pending = false;
+		
+		PendingMatchProbe(AgendaFilter agendaFilter) {
+			this.agendaFilter = agendaFilter;
+		}
+		
+		@Override
+		public boolean accept(Match match) {
+			if(agendaFilter == null || agendaFilter.accept(match)){
+				pending = true;
+			}
+			return false;
+		}
+		
+		boolean isPending() {
+			return pending;
+		}
+	}
+	
+	private static class KieServicesHolder {
+		private static final KieServices KIE_SERVICES = KieServices.Factory.get();
+	}
 }
@@ -0,0 +1,220 @@
+package org.anair.drools.fluent.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.anair.drools.model.FiredRulesReturnValues;
+import org.anair.drools.provider.container.KieContainerUpdateListener;
+
+/**
+ * Opt-in cache of stateless rules execution results, keyed by release Id, session name, a caller supplied fact key
+ * and the globals named by the caller. Repeated executions with the same key skip the engine. Entries expire after the time to live.
+ * Gets and puts do not lock. Once the cache is full, one put at a time evicts the expired entries and then the least recently used
+ * ones, plus a tenth of the maximum size so that eviction does not run on every put. The size can exceed the maximum
+ * while concurrent puts race an eviction. The cache keeps a copy of each result without ExecutionResults
+ * and returns a new copy on every hit.
+ * Register the cache as a KieContainerUpdateListener on the KieContainerProviderImpl so a Kie Scanner update,
+ * hot swap or eviction of a release Id invalidates its entries.
+ *
+ * @author anair
+ *
+ */
+public class RulesResultCache implements KieContainerUpdateListener {
+
+	private final int maxSize;
+	private final long timeToLiveNanos;
+	private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+	private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+	private final AtomicBoolean evicting = new AtomicBoolean(false);
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public RulesResultCache(int maxSize, long timeToLive, TimeUnit unit) {
+		this.maxSize = maxSize;
+		this.timeToLiveNanos = unit.toNanos(timeToLive);
+	}
+
+	Key newKey(String releaseId, String sessionName, Object factKey, Map<String, Object> globals){
+		Objects.requireNonNull(releaseId, "Release Id must be present");
+		Objects.requireNonNull(factKey, "Fact key must be present");
+		return new Key(releaseId, sessionName, factKey, globals, generation(releaseId).get());
+	}
+
+	FiredRulesReturnValues get(Key key){
+		Entry entry = entries.get(key);
+		if(entry != null){
+			long now = System.nanoTime();
+			if(entry.expiresAtNanos - now > 0){
+				entry.lastAccessNanos = now;
+				hits.increment();
+				return entry.returnValues.copy();
+			}
+			entries.remove(key, entry);
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * The result is not cached if the release Id was invalidated after the key was created,
+	 * since it may have been computed by the previous rules. The generation is checked again after the put,
+	 * in case an invalidation ran in between.
+	 */
+	void put(Key key, FiredRulesReturnValues returnValues){
+		AtomicLong generation = generation(key.releaseId);
+		if(generation.get() != key.generation){
+			return;
+		}
+		long now = System.nanoTime();
+		Entry entry = new Entry(returnValues.copy(), now, now + timeToLiveNanos);
+		entries.put(key, entry);
+		if(generation.get() != key.generation){
+			entries.remove(key, entry);
+		}else if(entries.size() > maxSize){
+			evict(entry);
+		}
+	}
+
+	/**
+	 * Remove expired entries, then the least recently used entries down to nine tenths of the maximum size.
+	 * The entry just put is kept. Skipped if another put is already evicting.
+	 */
+	private void evict(Entry putEntry){
+		if(!evicting.compareAndSet(false, true)){
+			return;
+		}
+		try{
+			long now = System.nanoTime();
+			entries.entrySet().removeIf(cacheEntry -> cacheEntry.getValue().expiresAtNanos - now <= 0);
+			int excess = entries.size() - maxSize;
+			if(excess <= 0){
+				return;
+			}
+			List<EvictionCandidate> candidates = new ArrayList<>(entries.size());
+			entries.forEach((key, entry) -> {
+				if(entry != putEntry){
+					candidates.add(new EvictionCandidate(key, entry, entry.lastAccessNanos - now));
+				}
+			});
+			candidates.sort(Comparator.comparingLong(candidate -> candidate.lastAccessAge));
+			int toEvict = excess + maxSize / 10;
+			for(EvictionCandidate candidate: candidates){
+				if(toEvict <= 0){
+					break;
+				}
+				if(entries.remove(candidate.key, candidate.entry)){
+					toEvict--;
+				}
+			}
+		}finally{
+			evicting.set(false);
+		}
+	}
+
+	public void invalidate(String releaseId){
+		Objects.requireNonNull(releaseId, "Release Id must be present");
+		generation(releaseId).incrementAndGet();
+		entries.keySet().removeIf(key -> key.releaseId.equals(releaseId));
+	}
+
+	public void invalidateAll(){
+		generations.values().forEach(AtomicLong::incrementAndGet);
+		entries.clear();
+	}
+
+	@Override
+	public void kieContainerUpdated(String releaseId) {
+		invalidate(releaseId);
+	}
+
+	public int size(){
+		return entries.size();
+	}
+
+	public long getHitCount(){
+		return hits.sum();
+	}
+
+	public long getMissCount(){
+		return misses.sum();
+	}
+
+	private AtomicLong generation(String releaseId){
+		AtomicLong generation = generations.get(releaseId);
+		return generation != null ? generation : generations.computeIfAbsent(releaseId, key -> new AtomicLong());
+	}
+
+	static final class Key {
+		private final String releaseId;
+		private final String sessionName;
+		private final Object factKey;
+		private final Map<String, Object> globals;
+		private final long generation;
+		private final int hash;
+
+		private Key(String releaseId, String sessionName, Object factKey, Map<String, Object> globals, long generation) {
+			this.releaseId = releaseId;
+			this.sessionName = sessionName;
+			this.factKey = factKey;
+			this.globals = globals == null ? Collections.emptyMap() : new HashMap<>(globals);
+			this.generation = generation;
+			this.hash = Objects.hash(releaseId, sessionName, factKey, this.globals);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj){
+				return true;
+			}
+			if(!(obj instanceof Key)){
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && releaseId.equals(other.releaseId) && Objects.equals(sessionName, other.sessionName)
+					&& factKey.equals(other.factKey) && globals.equals(other.globals);
+		}
+	}
+
+	private static final class Entry {
+		private final FiredRulesReturnValues returnValues;
+		private final long expiresAtNanos;
+		private volatile long lastAccessNanos;
+
+		private Entry(FiredRulesReturnValues returnValues, long lastAccessNanos, long expiresAtNanos) {
+			this.returnValues = returnValues;
+			this.lastAccessNanos = lastAccessNanos;
+			this.expiresAtNanos = expiresAtNanos;
+		}
+	}
+
+	/**
+	 * Entry with its last access time read once, so that hits during the sort do not change the order.
+	 */
+	private static final class EvictionCandidate {
+		private final Key key;
+		private final Entry entry;
+		private final long lastAccessAge;
+
+		private EvictionCandidate(Key key, Entry entry, long lastAccessAge) {
+			this.key = key;
+			this.entry = entry;
+			this.lastAccessAge = lastAccessAge;
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package org.anair.drools.fluent.api;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared single daemon thread scheduler for rules execution timeouts.
+ * Scheduled tasks must be short, e.g. completing a future or halting a session.
+ * 
+ * @author anair
+ *
+ */
+public final class RulesWatchdog {
+	
+	private static final ScheduledThreadPoolExecutor SCHEDULER = newScheduler();
+	
+	private RulesWatchdog() {
+	}
+	
+	public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit){
+		return SCHEDULER.schedule(task, delay, unit);
+	}
+	
+	private static ScheduledThreadPoolExecutor newScheduler(){
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "rules-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+	
+}
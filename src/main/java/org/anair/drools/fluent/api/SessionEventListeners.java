@@ -0,0 +1,84 @@
+package org.anair.drools.fluent.api;
+
+import java.util.EventListener;
+
+import org.kie.api.event.KieRuntimeEventManager;
+import org.kie.api.event.process.ProcessEventListener;
+import org.kie.api.event.rule.AgendaEventListener;
+import org.kie.api.event.rule.RuleRuntimeEventListener;
+
+/**
+ * Attach long-lived event listeners to a Stateful/Stateless Kie Session once.
+ * Listeners that are already attached to the session are not added again, so it is safe to call for every
+ * session fetched from a pool or shared across requests.
+ * Listeners passed to RulesExecution observe that execution only, see RulesExecution.addEventListeners.
+ * Listeners attached here see every execution on the session and must be thread-safe when the session is shared.
+ * 
+ * @author anair
+ *
+ */
+public final class SessionEventListeners {
+	
+	private SessionEventListeners() {
+	}
+	
+	public static void attach(KieRuntimeEventManager session, EventListener... eventListeners){
+		for(EventListener eventListener: eventListeners){
+			if(!isAttached(session, eventListener)){
+				addEventListener(session, eventListener);
+			}
+		}
+	}
+	
+	public static void detach(KieRuntimeEventManager session, EventListener... eventListeners){
+		for(EventListener eventListener: eventListeners){
+			removeEventListener(session, eventListener);
+		}
+	}
+	
+	public static boolean isAttached(KieRuntimeEventManager session, EventListener eventListener){
+		if(eventListener instanceof RuleRuntimeEventListener){
+			return session.getRuleRuntimeEventListeners().contains(eventListener);
+		}else if(eventListener instanceof AgendaEventListener){
+			return session.getAgendaEventListeners().contains(eventListener);
+		}else if(eventListener instanceof ProcessEventListener){
+			return session.getProcessEventListeners().contains(eventListener);
+		}
+		return false;
+	}
+	
+	/**
+	 * Add the listener for every listener type it implements.
+	 * 
+	 * @return false if the listener is not a rule runtime, agenda or process event listener
+	 */
+	static boolean addEventListener(KieRuntimeEventManager session, EventListener eventListener){
+		boolean added = false;
+		if(eventListener instanceof RuleRuntimeEventListener){
+			session.addEventListener((RuleRuntimeEventListener) eventListener);
+			added = true;
+		}
+		if(eventListener instanceof AgendaEventListener){
+			session.addEventListener((AgendaEventListener) eventListener);
+			added = true;
+		}
+		if(eventListener instanceof ProcessEventListener){
+			session.addEventListener((ProcessEventListener) eventListener);
+			added = true;
+		}
+		return added;
+	}
+	
+	static void removeEventListener(KieRuntimeEventManager session, EventListener eventListener){
+		if(eventListener instanceof RuleRuntimeEventListener){
+			session.removeEventListener((RuleRuntimeEventListener) eventListener);
+		}
+		if(eventListener instanceof AgendaEventListener){
+			session.removeEventListener((AgendaEventListener) eventListener);
+		}
+		if(eventListener instanceof ProcessEventListener){
+			session.removeEventListener((ProcessEventListener) eventListener);
+		}
+	}
+	
+}
@@ -0,0 +1,81 @@
+package org.anair.drools.fluent.api;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detect Stateful Kie Sessions owned by a rules execution that was garbage collected without releasing its session.
+ * The stack trace of the thread that acquired the session is logged. Leaks are reported when the next session is tracked,
+ * so no background thread is needed.
+ *
+ * @author anair
+ *
+ */
+final class SessionLeakDetector {
+	private static final Logger LOG = LoggerFactory.getLogger(SessionLeakDetector.class);
+	private static final ReferenceQueue<Object> COLLECTED = new ReferenceQueue<>();
+	private static final Set<Lease> OPEN_LEASES = ConcurrentHashMap.newKeySet();
+	private static volatile boolean enabled = false;
+
+	private SessionLeakDetector() {
+	}
+
+	static void setEnabled(boolean enabled) {
+		SessionLeakDetector.enabled = enabled;
+	}
+
+	static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return lease to close once the session is released, or null if leak detection is disabled
+	 */
+	static Lease track(Object owner) {
+		reportLeaks();
+		if(!enabled){
+			return null;
+		}
+		Lease lease = new Lease(owner);
+		OPEN_LEASES.add(lease);
+		return lease;
+	}
+
+	static int reportLeaks() {
+		int leaks = 0;
+		Reference<?> reference;
+		while((reference = COLLECTED.poll()) != null){
+			Lease lease = (Lease) reference;
+			if(OPEN_LEASES.remove(lease)){
+				leaks++;
+				LOG.warn("Stateful Kie Session was never released. Use close() or autoRelease(true) on the rules execution", lease.acquiredAt);
+			}
+		}
+		return leaks;
+	}
+
+	static int getOpenLeaseCount() {
+		return OPEN_LEASES.size();
+	}
+
+	static final class Lease extends WeakReference<Object> {
+		private final Throwable acquiredAt;
+
+		private Lease(Object owner) {
+			super(owner, COLLECTED);
+			this.acquiredAt = new Throwable("Stateful Kie Session acquired here");
+		}
+
+		void close() {
+			OPEN_LEASES.remove(this);
+			clear();
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+package org.anair.drools.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.anair.rules.exception.RulesSupportRuntimeException;
+
+/**
+ * In-memory RulesMetrics with counters and latency histograms per release id, session and rule.
+ * Call register() to expose it over JMX as <code>org.anair.drools:type=RulesMetrics</code>.
+ * Metric names are <code>metric[releaseId,sessionName,packageName,ruleName]</code>. Names are built once per session and rule
+ * and reused for every event.
+ * 
+ * @author anair
+ *
+ */
+public class JmxRulesMetrics implements RulesMetrics, RulesMetricsMXBean {
+	
+	public static final String DEFAULT_OBJECT_NAME = "org.anair.drools:type=RulesMetrics";
+	
+	private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+	private final Map<String, Map<String, SessionNames>> sessionNames = new ConcurrentHashMap<>();
+	private ObjectName objectName;
+	
+	@Override
+	public void matchCreated(String releaseId, String sessionName, String packageName, String ruleName) {
+		counter(sessionNames(releaseId, sessionName).rule(packageName, ruleName).matchesCreated).increment();
+	}
+
+	@Override
+	public void matchCancelled(String releaseId, String sessionName, String packageName, String ruleName) {
+		counter(sessionNames(releaseId, sessionName).rule(packageName, ruleName).matchesCancelled).increment();
+	}
+
+	@Override
+	public void ruleFired(String releaseId, String sessionName, String packageName, String ruleName, long firingTimeNanos) {
+		RuleNames names = sessionNames(releaseId, sessionName).rule(packageName, ruleName);
+		counter(names.fired).increment();
+		latency(names.firingTime).record(firingTimeNanos);
+	}
+
+	@Override
+	public void rulesExecuted(String releaseId, String sessionName, int factsInserted, int rulesFired, long executionTimeNanos) {
+		SessionNames names = sessionNames(releaseId, sessionName);
+		counter(names.executions).increment();
+		counter(names.rulesFired).add(rulesFired);
+		latency(names.factsInserted).record(factsInserted);
+		latency(names.executionTime).record(executionTimeNanos);
+	}
+
+	@Override
+	public void sessionAcquired(String releaseId, String sessionName, long acquisitionTimeNanos) {
+		SessionNames names = sessionNames(releaseId, sessionName);
+		counter(names.acquired).increment();
+		latency(names.acquisitionTime).record(acquisitionTimeNanos);
+	}
+
+	@Override
+	public void containerBuilt(String releaseId, long buildTimeNanos) {
+		counter(name("container.builds", releaseId)).increment();
+		latency(name("container.buildTime", releaseId)).record(buildTimeNanos);
+	}
+	
+	@Override
+	public Map<String, Long> getCounters() {
+		Map<String, Long> snapshot = new TreeMap<>();
+		counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+		return snapshot;
+	}
+	
+	/**
+	 * Count, total, max, p50 and p99 of every histogram. Time histograms are in nanoseconds.
+	 */
+	@Override
+	public Map<String, Long> getLatencies() {
+		Map<String, Long> snapshot = new TreeMap<>();
+		latencies.forEach((name, histogram) -> {
+			snapshot.put(name + ".count", histogram.getCount());
+			snapshot.put(name + ".total", histogram.getTotalNanos());
+			snapshot.put(name + ".max", histogram.getMaxNanos());
+			snapshot.put(name + ".p50", histogram.getPercentileNanos(50));
+			snapshot.put(name + ".p99", histogram.getPercentileNanos(99));
+		});
+		return snapshot;
+	}
+	
+	public LatencyHistogram getLatency(String name) {
+		return latencies.get(name);
+	}
+	
+	@Override
+	public void reset() {
+		counters.clear();
+		latencies.clear();
+	}
+	
+	public void register() {
+		register(DEFAULT_OBJECT_NAME);
+	}
+	
+	public synchronized void register(String name) {
+		try{
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			this.objectName = new ObjectName(name);
+			if(!mBeanServer.isRegistered(this.objectName)){
+				mBeanServer.registerMBean(this, this.objectName);
+			}
+		}catch(JMException e){
+			throw new RulesSupportRuntimeException("Unable to register rules metrics MBean " + name + ": " + e.getMessage());
+		}
+	}
+	
+	public synchronized void unregister() {
+		if(this.objectName == null){
+			return;
+		}
+		try{
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			if(mBeanServer.isRegistered(this.objectName)){
+				mBeanServer.unregisterMBean(this.objectName);
+			}
+			this.objectName = null;
+		}catch(JMException e){
+			throw new RulesSupportRuntimeException("Unable to unregister rules metrics MBean: " + e.getMessage());
+		}
+	}
+	
+	private SessionNames sessionNames(String releaseId, String sessionName){
+		String releaseKey = String.valueOf(releaseId);
+		Map<String, SessionNames> releaseNames = sessionNames.get(releaseKey);
+		if(releaseNames == null){
+			releaseNames = sessionNames.computeIfAbsent(releaseKey, key -> new ConcurrentHashMap<>());
+		}
+		String sessionKey = String.valueOf(sessionName);
+		SessionNames names = releaseNames.get(sessionKey);
+		return names != null ? names : releaseNames.computeIfAbsent(sessionKey, key -> new SessionNames(releaseId, sessionName));
+	}
+	
+	private LongAdder counter(String name){
+		return counters.computeIfAbsent(name, key -> new LongAdder());
+	}
+	
+	private LatencyHistogram latency(String name){
+		return latencies.computeIfAbsent(name, key -> new LatencyHistogram());
+	}
+	
+	public static String name(String metric, String... tags){
+		StringBuilder name = new StringBuilder(metric).append('[');
+		for(int i=0;i<tags.length;i++){
+			if(i > 0){
+				name.append(',');
+			}
+			name.append(tags[i]);
+		}
+		return name.append(']').toString();
+	}
+	
+	private static final class SessionNames {
+		private final String releaseId;
+		private final String sessionName;
+		private final String executions;
+		private final String rulesFired;
+		private final String factsInserted;
+		private final String executionTime;
+		private final String acquired;
+		private final String acquisitionTime;
+		private final Map<String, Map<String, RuleNames>> ruleNames = new ConcurrentHashMap<>();
+		
+		private SessionNames(String releaseId, String sessionName){
+			this.releaseId = releaseId;
+			this.sessionName = sessionName;
+			this.executions = name("session.executions", releaseId, sessionName);
+			this.rulesFired = name("session.rulesFired", releaseId, sessionName);
+			this.factsInserted = name("session.factsInserted", releaseId, sessionName);
+			this.executionTime = name("session.executionTime", releaseId, sessionName);
+			this.acquired = name("session.acquired", releaseId, sessionName);
+			this.acquisitionTime = name("session.acquisitionTime", releaseId, sessionName);
+		}
+		
+		private RuleNames rule(String packageName, String ruleName){
+			String packageKey = String.valueOf(packageName);
+			Map<String, RuleNames> packageNames = ruleNames.get(packageKey);
+			if(packageNames == null){
+				packageNames = ruleNames.computeIfAbsent(packageKey, key -> new ConcurrentHashMap<>());
+			}
+			String ruleKey = String.valueOf(ruleName);
+			RuleNames names = packageNames.get(ruleKey);
+			return names != null ? names : packageNames.computeIfAbsent(ruleKey, key -> new RuleNames(releaseId, sessionName, packageName, ruleName));
+		}
+	}
+	
+	private static final class RuleNames {
+		private final String matchesCreated;
+		private final String matchesCancelled;
+		private final String fired;
+		private final String firingTime;
+		
+		private RuleNames(String releaseId, String sessionName, String packageName, String ruleName){
+			this.matchesCreated = name("rule.matchesCreated", releaseId, sessionName, packageName, ruleName);
+			this.matchesCancelled = name("rule.matchesCancelled", releaseId, sessionName, packageName, ruleName);
+			this.fired = name("rule.fired", releaseId, sessionName, packageName, ruleName);
+			this.firingTime = name("rule.firingTime", releaseId, sessionName, packageName, ruleName);
+		}
+	}
+	
+}
@@ -0,0 +1,72 @@
+package org.anair.drools.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power of two nanosecond buckets.
+ * Percentiles are reported as the upper bound of the bucket they fall in.
+ * 
+ * @author anair
+ *
+ */
+public class LatencyHistogram {
+	
+	private static final int BUCKETS = 64;
+	
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+	
+	public LatencyHistogram() {
+		for(int i=0;i<BUCKETS;i++){
+			buckets[i] = new LongAdder();
+		}
+	}
+	
+	public void record(long valueNanos){
+		long value = Math.max(0, valueNanos);
+		buckets[BUCKETS - 1 - Long.numberOfLeadingZeros(value | 1)].increment();
+		count.increment();
+		total.add(value);
+		long currentMax = max.get();
+		while(value > currentMax && !max.compareAndSet(currentMax, value)){
+			currentMax = max.get();
+		}
+	}
+	
+	public long getCount() {
+		return count.sum();
+	}
+	
+	public long getTotalNanos() {
+		return total.sum();
+	}
+	
+	public long getMaxNanos() {
+		return max.get();
+	}
+	
+	public long getPercentileNanos(double percentile){
+		long[] counts = new long[BUCKETS];
+		long totalCount = 0;
+		for(int i=0;i<BUCKETS;i++){
+			counts[i] = buckets[i].sum();
+			totalCount += counts[i];
+		}
+		if(totalCount == 0){
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100d * totalCount);
+		long seen = 0;
+		for(int i=0;i<BUCKETS;i++){
+			seen += counts[i];
+			if(seen >= rank){
+				return i >= BUCKETS - 2 ? getMaxNanos() : Math.min((1L << (i + 1)) - 1, getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+	
+}
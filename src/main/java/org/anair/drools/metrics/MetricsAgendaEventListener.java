@@ -0,0 +1,81 @@
+package org.anair.drools.metrics;
+
+import org.kie.api.definition.rule.Rule;
+import org.kie.api.event.rule.AfterMatchFiredEvent;
+import org.kie.api.event.rule.BeforeMatchFiredEvent;
+import org.kie.api.event.rule.DefaultAgendaEventListener;
+import org.kie.api.event.rule.MatchCancelledEvent;
+import org.kie.api.event.rule.MatchCreatedEvent;
+
+/**
+ * Agenda listener that feeds per rule matches and firing time to RulesMetrics and/or a RuleProfiler.
+ * Each firing is timed once for both. A rule fires on the thread that fires the session, so the start time is kept
+ * per thread and an instance may be attached to a session shared by concurrent executions.
+ * 
+ * @author anair
+ *
+ */
+public class MetricsAgendaEventListener extends DefaultAgendaEventListener {
+	
+	private static final ThreadLocal<long[]> FIRING_START_NANOS = ThreadLocal.withInitial(() -> new long[1]);
+	
+	private final RulesMetrics rulesMetrics;
+	private final RuleProfiler ruleProfiler;
+	private final String releaseId;
+	private final String sessionName;
+	
+	public MetricsAgendaEventListener(RulesMetrics rulesMetrics, String releaseId, String sessionName) {
+		this(rulesMetrics, releaseId, sessionName, null);
+	}
+	
+	/**
+	 * @param rulesMetrics metrics sink, or null to only profile
+	 * @param ruleProfiler profiler, or null to only record metrics
+	 */
+	public MetricsAgendaEventListener(RulesMetrics rulesMetrics, String releaseId, String sessionName, RuleProfiler ruleProfiler) {
+		this.rulesMetrics = rulesMetrics;
+		this.ruleProfiler = ruleProfiler;
+		this.releaseId = releaseId;
+		this.sessionName = sessionName;
+	}
+
+	@Override
+	public void matchCreated(MatchCreatedEvent event) {
+		Rule rule = event.getMatch().getRule();
+		if(rulesMetrics != null){
+			rulesMetrics.matchCreated(releaseId, sessionName, rule.getPackageName(), rule.getName());
+		}
+		if(ruleProfiler != null){
+			ruleProfiler.matchCreated(rule.getPackageName(), rule.getName());
+		}
+	}
+
+	@Override
+	public void matchCancelled(MatchCancelledEvent event) {
+		Rule rule = event.getMatch().getRule();
+		if(rulesMetrics != null){
+			rulesMetrics.matchCancelled(releaseId, sessionName, rule.getPackageName(), rule.getName());
+		}
+		if(ruleProfiler != null){
+			ruleProfiler.matchCancelled(rule.getPackageName(), rule.getName());
+		}
+	}
+
+	@Override
+	public void beforeMatchFired(BeforeMatchFiredEvent event) {
+		FIRING_START_NANOS.get()[0] = System.nanoTime();
+	}
+
+	@Override
+	public void afterMatchFired(AfterMatchFiredEvent event) {
+		long firingTimeNanos = System.nanoTime() - FIRING_START_NANOS.get()[0];
+		Rule rule = event.getMatch().getRule();
+		if(rulesMetrics != null){
+			rulesMetrics.ruleFired(releaseId, sessionName, rule.getPackageName(), rule.getName(), firingTimeNanos);
+		}
+		if(ruleProfiler != null){
+			ruleProfiler.ruleFired(rule.getPackageName(), rule.getName(), firingTimeNanos);
+		}
+	}
+	
+}
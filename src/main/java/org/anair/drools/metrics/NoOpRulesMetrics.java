@@ -0,0 +1,40 @@
+package org.anair.drools.metrics;
+
+/**
+ * Default RulesMetrics that records nothing.
+ * 
+ * @author anair
+ *
+ */
+public final class NoOpRulesMetrics implements RulesMetrics {
+	
+	public static final NoOpRulesMetrics INSTANCE = new NoOpRulesMetrics();
+	
+	private NoOpRulesMetrics() {
+	}
+
+	@Override
+	public void matchCreated(String releaseId, String sessionName, String packageName, String ruleName) {
+	}
+
+	@Override
+	public void matchCancelled(String releaseId, String sessionName, String packageName, String ruleName) {
+	}
+
+	@Override
+	public void ruleFired(String releaseId, String sessionName, String packageName, String ruleName, long firingTimeNanos) {
+	}
+
+	@Override
+	public void rulesExecuted(String releaseId, String sessionName, int factsInserted, int rulesFired, long executionTimeNanos) {
+	}
+
+	@Override
+	public void sessionAcquired(String releaseId, String sessionName, long acquisitionTimeNanos) {
+	}
+
+	@Override
+	public void containerBuilt(String releaseId, long buildTimeNanos) {
+	}
+
+}
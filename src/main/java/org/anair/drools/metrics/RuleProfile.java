@@ -0,0 +1,78 @@
+package org.anair.drools.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Aggregated profile of one rule over many executions. Times are in nanoseconds.
+ * 
+ * @author anair
+ *
+ */
+public class RuleProfile {
+	
+	private final String packageName;
+	private final String ruleName;
+	private final long matchesCreated;
+	private final long matchesCancelled;
+	private final long fired;
+	private final long totalFiringNanos;
+	private final long maxFiringNanos;
+	
+	@ConstructorProperties({"packageName", "ruleName", "matchesCreated", "matchesCancelled", "fired", "totalFiringNanos", "maxFiringNanos"})
+	public RuleProfile(String packageName, String ruleName, long matchesCreated, long matchesCancelled, long fired, long totalFiringNanos, long maxFiringNanos) {
+		this.packageName = packageName;
+		this.ruleName = ruleName;
+		this.matchesCreated = matchesCreated;
+		this.matchesCancelled = matchesCancelled;
+		this.fired = fired;
+		this.totalFiringNanos = totalFiringNanos;
+		this.maxFiringNanos = maxFiringNanos;
+	}
+
+	public String getPackageName() {
+		return packageName;
+	}
+
+	public String getRuleName() {
+		return ruleName;
+	}
+
+	public long getMatchesCreated() {
+		return matchesCreated;
+	}
+
+	public long getMatchesCancelled() {
+		return matchesCancelled;
+	}
+
+	public long getFired() {
+		return fired;
+	}
+
+	public long getTotalFiringNanos() {
+		return totalFiringNanos;
+	}
+
+	public long getMaxFiringNanos() {
+		return maxFiringNanos;
+	}
+	
+	public long getMeanFiringNanos() {
+		return fired == 0 ? 0 : totalFiringNanos / fired;
+	}
+	
+	/**
+	 * Share of created matches that were cancelled before firing. A high ratio points at LHS work that is thrown away.
+	 */
+	public double getCancelledMatchRatio() {
+		return matchesCreated == 0 ? 0d : (double) matchesCancelled / matchesCreated;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s.%s fired=%d totalFiringTime=%dus meanFiringTime=%dus maxFiringTime=%dus matches=%d cancelled=%.1f%%",
+				packageName, ruleName, fired, totalFiringNanos / 1000, getMeanFiringNanos() / 1000, maxFiringNanos / 1000,
+				matchesCreated, getCancelledMatchRatio() * 100);
+	}
+	
+}
@@ -0,0 +1,200 @@
+package org.anair.drools.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.anair.rules.exception.RulesSupportRuntimeException;
+import org.kie.api.event.rule.AgendaEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per rule profile aggregated across executions and sessions: RHS firing time, matches created and fired,
+ * and the share of matches cancelled before firing. Counters are striped LongAdders, so many sessions can record at once.
+ * Rules are keyed by package and name, so rules with the same name in different packages are profiled apart.
+ * Attach a listener from newAgendaEventListener() to every session to profile, report the slowest rules
+ * periodically with startReporting() and call register() to expose the profile over JMX as
+ * <code>org.anair.drools:type=RuleProfiler</code>.
+ * 
+ * @author anair
+ *
+ */
+public class RuleProfiler implements RuleProfilerMXBean {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(RuleProfiler.class);
+	public static final String DEFAULT_OBJECT_NAME = "org.anair.drools:type=RuleProfiler";
+	public static final int DEFAULT_TOP_N = 10;
+	
+	private final Map<String, Map<String, RuleStats>> ruleStats = new ConcurrentHashMap<>();
+	private volatile int topN = DEFAULT_TOP_N;
+	private ScheduledExecutorService reporter;
+	private ObjectName objectName;
+	
+	/**
+	 * The listener keeps the start time of the firing rule per thread, so it may be attached to a shared session.
+	 * RulesExecution feeds the profiler from its metrics listener and does not need this.
+	 */
+	public AgendaEventListener newAgendaEventListener() {
+		return new MetricsAgendaEventListener(null, null, null, this);
+	}
+	
+	public void matchCreated(String packageName, String ruleName) {
+		stats(packageName, ruleName).matchesCreated.increment();
+	}
+	
+	public void matchCancelled(String packageName, String ruleName) {
+		stats(packageName, ruleName).matchesCancelled.increment();
+	}
+	
+	public void ruleFired(String packageName, String ruleName, long firingTimeNanos) {
+		RuleStats stats = stats(packageName, ruleName);
+		stats.fired.increment();
+		stats.totalFiringNanos.add(firingTimeNanos);
+		long currentMax = stats.maxFiringNanos.get();
+		while(firingTimeNanos > currentMax && !stats.maxFiringNanos.compareAndSet(currentMax, firingTimeNanos)){
+			currentMax = stats.maxFiringNanos.get();
+		}
+	}
+	
+	/**
+	 * @return the n rules with the highest total firing time, slowest first
+	 */
+	public List<RuleProfile> getTopRules(int n) {
+		List<RuleProfile> profiles = new ArrayList<>();
+		ruleStats.forEach((packageName, packageStats) -> packageStats.forEach((ruleName, stats) -> profiles.add(stats.snapshot(packageName, ruleName))));
+		profiles.sort(Comparator.comparingLong(RuleProfile::getTotalFiringNanos).reversed());
+		return profiles.size() > n ? new ArrayList<>(profiles.subList(0, n)) : profiles;
+	}
+	
+	@Override
+	public List<RuleProfile> getTopRules() {
+		return getTopRules(topN);
+	}
+	
+	@Override
+	public String getReport() {
+		List<RuleProfile> topRules = getTopRules();
+		StringBuilder report = new StringBuilder("Top ").append(topRules.size()).append(" rules by total firing time");
+		for(RuleProfile profile: topRules){
+			report.append(System.lineSeparator()).append(profile);
+		}
+		return report.toString();
+	}
+	
+	@Override
+	public int getTopN() {
+		return topN;
+	}
+	
+	@Override
+	public void setTopN(int topN) {
+		this.topN = topN;
+	}
+	
+	@Override
+	public int getProfiledRuleCount() {
+		int count = 0;
+		for(Map<String, RuleStats> packageStats: ruleStats.values()){
+			count += packageStats.size();
+		}
+		return count;
+	}
+	
+	@Override
+	public void reset() {
+		ruleStats.clear();
+	}
+	
+	/**
+	 * Log the top N report at INFO level every interval on a daemon thread.
+	 */
+	public synchronized void startReporting(long interval, TimeUnit unit) {
+		if(this.reporter != null){
+			return;
+		}
+		this.reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "rule-profiler-report");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.reporter.scheduleAtFixedRate(() -> {
+			if(!ruleStats.isEmpty()){
+				LOG.info(getReport());
+			}
+		}, interval, interval, unit);
+	}
+	
+	public synchronized void stopReporting() {
+		if(this.reporter != null){
+			this.reporter.shutdownNow();
+			this.reporter = null;
+		}
+	}
+	
+	public void register() {
+		register(DEFAULT_OBJECT_NAME);
+	}
+	
+	public synchronized void register(String name) {
+		try{
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			this.objectName = new ObjectName(name);
+			if(!mBeanServer.isRegistered(this.objectName)){
+				mBeanServer.registerMBean(this, this.objectName);
+			}
+		}catch(JMException e){
+			throw new RulesSupportRuntimeException("Unable to register rule profiler MBean " + name + ": " + e.getMessage());
+		}
+	}
+	
+	public synchronized void unregister() {
+		if(this.objectName == null){
+			return;
+		}
+		try{
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			if(mBeanServer.isRegistered(this.objectName)){
+				mBeanServer.unregisterMBean(this.objectName);
+			}
+			this.objectName = null;
+		}catch(JMException e){
+			throw new RulesSupportRuntimeException("Unable to unregister rule profiler MBean: " + e.getMessage());
+		}
+	}
+	
+	private RuleStats stats(String packageName, String ruleName){
+		String packageKey = packageName == null ? "" : packageName;
+		Map<String, RuleStats> packageStats = ruleStats.get(packageKey);
+		if(packageStats == null){
+			packageStats = ruleStats.computeIfAbsent(packageKey, key -> new ConcurrentHashMap<>());
+		}
+		RuleStats stats = packageStats.get(ruleName);
+		return stats != null ? stats : packageStats.computeIfAbsent(ruleName, key -> new RuleStats());
+	}
+	
+	private static final class RuleStats {
+		private final LongAdder matchesCreated = new LongAdder();
+		private final LongAdder matchesCancelled = new LongAdder();
+		private final LongAdder fired = new LongAdder();
+		private final LongAdder totalFiringNanos = new LongAdder();
+		private final AtomicLong maxFiringNanos = new AtomicLong();
+		
+		private RuleProfile snapshot(String packageName, String ruleName){
+			return new RuleProfile(packageName, ruleName, matchesCreated.sum(), matchesCancelled.sum(), fired.sum(), totalFiringNanos.sum(), maxFiringNanos.get());
+		}
+	}
+	
+}
@@ -0,0 +1,25 @@
+package org.anair.drools.metrics;
+
+import java.util.List;
+
+/**
+ * JMX view of RuleProfiler
+ * 
+ * @author anair
+ *
+ */
+public interface RuleProfilerMXBean {
+	
+	List<RuleProfile> getTopRules();
+	
+	String getReport();
+	
+	int getTopN();
+	
+	void setTopN(int topN);
+	
+	int getProfiledRuleCount();
+	
+	void reset();
+	
+}
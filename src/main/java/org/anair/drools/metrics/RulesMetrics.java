@@ -0,0 +1,29 @@
+package org.anair.drools.metrics;
+
+/**
+ * Metrics sink for rules execution, session and container events.
+ * Plug in an implementation backed by the metrics registry of the application. NoOpRulesMetrics is the default
+ * and JmxRulesMetrics exposes counters and latency histograms over JMX.
+ * 
+ * @author anair
+ *
+ */
+public interface RulesMetrics {
+	
+	void matchCreated(String releaseId, String sessionName, String packageName, String ruleName);
+	
+	void matchCancelled(String releaseId, String sessionName, String packageName, String ruleName);
+	
+	void ruleFired(String releaseId, String sessionName, String packageName, String ruleName, long firingTimeNanos);
+	
+	void rulesExecuted(String releaseId, String sessionName, int factsInserted, int rulesFired, long executionTimeNanos);
+	
+	/**
+	 * @param acquisitionTimeNanos time to get the session from its pool. The pool creates a session when none is idle
+	 * and never blocks, so this is creation or reuse time, not contention
+	 */
+	void sessionAcquired(String releaseId, String sessionName, long acquisitionTimeNanos);
+	
+	void containerBuilt(String releaseId, long buildTimeNanos);
+	
+}
@@ -0,0 +1,19 @@
+package org.anair.drools.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of JmxRulesMetrics
+ * 
+ * @author anair
+ *
+ */
+public interface RulesMetricsMXBean {
+	
+	Map<String, Long> getCounters();
+	
+	Map<String, Long> getLatencies();
+	
+	void reset();
+	
+}
@@ -0,0 +1,16 @@
+package org.anair.drools.model;
+
+/**
+ * How a rules execution ended.
+ * 
+ * @author anair
+ *
+ */
+public enum ExecutionOutcome {
+	/** The agenda was fired to completion */
+	COMPLETED,
+	/** The maximum number of rules fired was reached. Matches may be left on the agenda */
+	LIMIT_REACHED,
+	/** The deadline passed and the session was halted */
+	TIMED_OUT
+}
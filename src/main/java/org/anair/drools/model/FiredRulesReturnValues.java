@@ -1,17 +1,25 @@
 package org.anair.drools.model;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.kie.api.runtime.ExecutionResults;
 import org.kie.api.runtime.rule.FactHandle;
 
 public class FiredRulesReturnValues {
 	
-	private List<FactHandle> factHandles = new ArrayList<>();
+	private List<FactHandle> factHandles;
 	private Integer numberOfRulesFired;
 	private ExecutionResults executionResults;
-	private List<String> executedRules = new ArrayList<>();
+	private List<String> executedRules;
+	private List<FiredRulesReturnValues> partitionResults;
+	private Map<Class<?>, List<?>> collectedFacts;
+	private Map<String, List<Map<String, Object>>> queryResults;
+	private Map<String, Object> globals;
+	private ExecutionOutcome executionOutcome;
 	
 	
 	public ExecutionResults getExecutionResults() {
@@ -21,6 +29,9 @@ public class FiredRulesReturnValues {
 		this.executionResults = executionResults;
 	}
 	public List<FactHandle> getFactHandles() {
+		if(factHandles == null){
+			factHandles = new ArrayList<>();
+		}
 		return factHandles;
 	}
 	public void setFactHandles(List<FactHandle> factHandles) {
@@ -33,14 +44,162 @@ public class FiredRulesReturnValues {
 		this.numberOfRulesFired = numberOfRulesFired;
 	}
 	
+	public ExecutionOutcome getExecutionOutcome() {
+		return executionOutcome;
+	}
+	public void setExecutionOutcome(ExecutionOutcome executionOutcome) {
+		this.executionOutcome = executionOutcome;
+	}
+	
 	public void addFactHandle(FactHandle factHandle){
-		this.factHandles.add(factHandle);
+		getFactHandles().add(factHandle);
 	}
 	public List<String> getExecutedRules() {
+		if(executedRules == null){
+			executedRules = new ArrayList<>();
+		}
 		return executedRules;
 	}
 	public void setExecutedRules(List<String> executedRules) {
 		this.executedRules = executedRules;
 	}
+	public List<FiredRulesReturnValues> getPartitionResults() {
+		if(partitionResults == null){
+			partitionResults = new ArrayList<>();
+		}
+		return partitionResults;
+	}
+	
+	public void addPartitionResult(FiredRulesReturnValues partitionResult){
+		getPartitionResults().add(partitionResult);
+		if(partitionResult.getNumberOfRulesFired() != null){
+			int numberOfRulesFiredSoFar = this.numberOfRulesFired == null ? 0 : this.numberOfRulesFired;
+			this.numberOfRulesFired = numberOfRulesFiredSoFar + partitionResult.getNumberOfRulesFired();
+		}
+		for(String executedRule: partitionResult.getExecutedRules()){
+			if(!getExecutedRules().contains(executedRule)){
+				getExecutedRules().add(executedRule);
+			}
+		}
+		if(partitionResult.collectedFacts != null){
+			partitionResult.collectedFacts.forEach((type, facts) -> {
+				List<Object> mergedFacts = new ArrayList<>(getCollected(type));
+				mergedFacts.addAll(facts);
+				setCollected(type, mergedFacts);
+			});
+		}
+		if(partitionResult.queryResults != null){
+			partitionResult.queryResults.forEach((queryName, rows) -> {
+				List<Map<String, Object>> mergedRows = new ArrayList<>(getQueryResults(queryName));
+				mergedRows.addAll(rows);
+				setQueryResults(queryName, mergedRows);
+			});
+		}
+		if(partitionResult.globals != null){
+			partitionResult.globals.forEach(this::setGlobal);
+		}
+		if(partitionResult.executionOutcome != null
+				&& (this.executionOutcome == null || partitionResult.executionOutcome.compareTo(this.executionOutcome) > 0)){
+			this.executionOutcome = partitionResult.executionOutcome;
+		}
+	}
+	
+	/**
+	 * Facts of the type collected with RulesExecution.collect. Empty if the type was not collected.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> getCollected(Class<T> type) {
+		if(collectedFacts == null || !collectedFacts.containsKey(type)){
+			return Collections.emptyList();
+		}
+		return (List<T>) collectedFacts.get(type);
+	}
+	
+	public void setCollected(Class<?> type, List<?> facts) {
+		if(collectedFacts == null){
+			collectedFacts = new HashMap<>();
+		}
+		collectedFacts.put(type, facts);
+	}
+	
+	/**
+	 * Rows of the query collected with RulesExecution.collectQuery, each row keyed by query identifier.
+	 */
+	public List<Map<String, Object>> getQueryResults(String queryName) {
+		if(queryResults == null || !queryResults.containsKey(queryName)){
+			return Collections.emptyList();
+		}
+		return queryResults.get(queryName);
+	}
+	
+	public void setQueryResults(String queryName, List<Map<String, Object>> rows) {
+		if(queryResults == null){
+			queryResults = new HashMap<>();
+		}
+		queryResults.put(queryName, rows);
+	}
+	
+	/**
+	 * Value of the global collected with RulesExecution.collectGlobal after rules fired.
+	 */
+	public Object getGlobal(String globalName) {
+		return globals == null ? null : globals.get(globalName);
+	}
+	
+	public void setGlobal(String globalName, Object value) {
+		if(globals == null){
+			globals = new HashMap<>();
+		}
+		globals.put(globalName, value);
+	}
+	
+	/**
+	 * Clear all values so the instance can be reused by the next execution. Collections are dropped, not cleared,
+	 * so a copy() taken before is not affected.
+	 */
+	public void clear() {
+		factHandles = null;
+		numberOfRulesFired = null;
+		executionResults = null;
+		executedRules = null;
+		partitionResults = null;
+		collectedFacts = null;
+		queryResults = null;
+		globals = null;
+		executionOutcome = null;
+	}
+	
+	/**
+	 * Copy of the rules fired, outcome, executed rules, partition results, collected facts, query rows and globals.
+	 * Lists and maps are copied, the facts in them are not. ExecutionResults and fact handles are not copied.
+	 */
+	public FiredRulesReturnValues copy() {
+		FiredRulesReturnValues copy = new FiredRulesReturnValues();
+		copy.numberOfRulesFired = numberOfRulesFired;
+		copy.executionOutcome = executionOutcome;
+		if(executedRules != null){
+			copy.executedRules = new ArrayList<>(executedRules);
+		}
+		if(partitionResults != null){
+			copy.partitionResults = new ArrayList<>();
+			partitionResults.forEach(partitionResult -> copy.partitionResults.add(partitionResult.copy()));
+		}
+		if(collectedFacts != null){
+			copy.collectedFacts = new HashMap<>();
+			collectedFacts.forEach((type, facts) -> copy.collectedFacts.put(type, new ArrayList<>(facts)));
+		}
+		if(queryResults != null){
+			copy.queryResults = new HashMap<>();
+			queryResults.forEach((queryName, rows) -> {
+				List<Map<String, Object>> copiedRows = new ArrayList<>();
+				rows.forEach(row -> copiedRows.add(new HashMap<>(row)));
+				copy.queryResults.put(queryName, copiedRows);
+			});
+		}
+		if(globals != null){
+			copy.globals = new HashMap<>(globals);
+		}
+		return copy;
+	}
 	
 }
@@ -0,0 +1,46 @@
+package org.anair.drools.provider.container;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.kie.api.runtime.KieContainer;
+
+/**
+ * Use of a cached Kie Container. A container that is swapped out or evicted is not disposed
+ * while a lease on it is open. Close the lease once done with the container, e.g. with try-with-resources.
+ * 
+ * @author anair
+ *
+ */
+public final class KieContainerLease implements AutoCloseable {
+	
+	private final KieContainer kieContainer;
+	private final Runnable release;
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	
+	KieContainerLease(KieContainer kieContainer, Runnable release) {
+		this.kieContainer = kieContainer;
+		this.release = release;
+	}
+	
+	/**
+	 * Lease on a container that is never disposed by its provider. Closing it has no effect.
+	 */
+	public static KieContainerLease unmanaged(KieContainer kieContainer) {
+		return new KieContainerLease(kieContainer, () -> {});
+	}
+	
+	public KieContainer getKieContainer() {
+		return kieContainer;
+	}
+	
+	/**
+	 * Release the lease. Closing more than once has no effect.
+	 */
+	@Override
+	public void close() {
+		if(closed.compareAndSet(false, true)){
+			release.run();
+		}
+	}
+	
+}
@@ -7,6 +7,8 @@ import org.kie.api.runtime.KieContainer;
  * Validate KieContainer for ERRORs
  * Add KieContainer to cache
  * Turn on interval based knowledge module scanning if polling interval is > 0 millis
+ * Evict KieContainer from cache, stop its scanner and dispose it
+ * Lease KieContainer so that it is not disposed while in use
  * 
  * @author anair
  * 
@@ -15,4 +17,15 @@ public interface KieContainerProvider {
 
 	KieContainer getKieContainer(String releaseId, long pollingIntervalMillis);
 	
+	default void evictKieContainer(String releaseId) {
+		throw new UnsupportedOperationException("Kie Container eviction is not supported by " + getClass().getName());
+	}
+	
+	/**
+	 * Get the Kie Container under a lease. Providers that never dispose cached containers hand out a lease that holds nothing.
+	 */
+	default KieContainerLease acquireKieContainer(String releaseId, long pollingIntervalMillis) {
+		return KieContainerLease.unmanaged(getKieContainer(releaseId, pollingIntervalMillis));
+	}
+	
 }
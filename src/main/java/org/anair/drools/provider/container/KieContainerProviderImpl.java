@@ -1,9 +1,20 @@
 package org.anair.drools.provider.container;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import org.anair.drools.metrics.NoOpRulesMetrics;
+import org.anair.drools.metrics.RulesMetrics;
 import org.anair.rules.exception.RulesSupportRuntimeException;
 import org.drools.compiler.kproject.ReleaseIdImpl;
 import org.kie.api.KieServices;
@@ -12,6 +23,9 @@ import org.kie.api.builder.Message;
 import org.kie.api.builder.ReleaseId;
 import org.kie.api.builder.Results;
 import org.kie.api.builder.Message.Level;
+import org.kie.api.event.kiescanner.KieScannerEventListener;
+import org.kie.api.event.kiescanner.KieScannerStatusChangeEvent;
+import org.kie.api.event.kiescanner.KieScannerUpdateResultsEvent;
 import org.kie.api.runtime.KieContainer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,41 +33,318 @@ import org.slf4j.LoggerFactory;
 
 public class KieContainerProviderImpl implements KieContainerProvider {
 	private static final Logger LOG = LoggerFactory.getLogger(KieContainerProviderImpl.class);
-	private final Map<ReleaseId, KieContainer> kieContainerCache = new ConcurrentHashMap<>();
-	private KieServices kieServices;
-	
+	public static final int DEFAULT_MAX_CACHE_SIZE = 20;
+	public static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 30000;
+	private final Map<ReleaseId, KieContainerEntry> kieContainerCache = new ConcurrentHashMap<>();
+	private volatile KieServices kieServices;
+	private int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+	private RulesMetrics rulesMetrics = NoOpRulesMetrics.INSTANCE;
+	private final Object swapLock = new Object();
+	private volatile Executor swapExecutor;
+	private long drainTimeoutMillis = DEFAULT_DRAIN_TIMEOUT_MILLIS;
+	private boolean hotSwapOnScan = false;
+	private KieContainerWarmUp warmUp;
+	private KieModuleDiskCache kieModuleDiskCache;
+	private volatile long lastBuildDurationNanos;
+	private volatile long lastSwapDurationNanos;
+	private final List<KieContainerUpdateListener> updateListeners = new CopyOnWriteArrayList<>();
+
 	@Override
 	public KieContainer getKieContainer(String releaseId, long pollingIntervalMillis) {
+		return awaitKieContainer(cachedEntry(new ReleaseIdImpl(releaseId), pollingIntervalMillis));
+	}
+
+	/**
+	 * Get the cached Kie Container under a lease. A container that is swapped out or evicted is disposed
+	 * only once every lease on it is closed.
+	 */
+	@Override
+	public KieContainerLease acquireKieContainer(String releaseId, long pollingIntervalMillis) {
+		ReleaseId releaseIdObj = new ReleaseIdImpl(releaseId);
+		for(;;){
+			KieContainerEntry entry = cachedEntry(releaseIdObj, pollingIntervalMillis);
+			entry.leases.incrementAndGet();
+			if(!entry.retired){
+				try{
+					return new KieContainerLease(awaitKieContainer(entry), () -> releaseLease(entry));
+				}catch(RuntimeException e){
+					releaseLease(entry);
+					throw e;
+				}
+			}
+			releaseLease(entry);
+		}
+	}
+
+	private KieContainerEntry cachedEntry(ReleaseId releaseIdObj, long pollingIntervalMillis) {
+		KieContainerEntry entry = kieContainerCache.get(releaseIdObj);
+		if (entry == null) {
+			KieContainerEntry newEntry = new KieContainerEntry();
+			entry = kieContainerCache.putIfAbsent(releaseIdObj, newEntry);
+			if(entry == null){
+				entry = newEntry;
+				buildKieContainer(releaseIdObj, newEntry, pollingIntervalMillis);
+				newEntry.lastAccessNanos = System.nanoTime();
+				evictLeastRecentlyUsed(newEntry);
+			}else{
+				LOG.debug("Kie Container for {} is being acquired by another thread. Waiting...", releaseIdObj);
+			}
+		}
+		entry.lastAccessNanos = System.nanoTime();
+		return entry;
+	}
+
+	/**
+	 * Take the container out of the cache. It is disposed once every lease on it is closed, including the leases
+	 * held by the session pools created on it.
+	 */
+	@Override
+	public void evictKieContainer(String releaseId) {
+		ReleaseId releaseIdObj = new ReleaseIdImpl(releaseId);
+		KieContainerEntry entry = kieContainerCache.remove(releaseIdObj);
+		if(entry != null){
+			LOG.debug("Evicting Kie Container for {}", releaseIdObj);
+			retireEntry(entry, 0);
+			notifyUpdated(releaseIdObj.toExternalForm());
+		}
+	}
+
+	/**
+	 * Blue/green swap of the Kie Container cached for <code>releaseId</code>.
+	 * The container for <code>newReleaseId</code> is built, verified and warmed up in the background,
+	 * then replaces the cached container atomically, after a build of the cached container that is still in progress.
+	 * The old container is disposed once the drain timeout elapsed and every lease on it is closed. Session pools
+	 * hold a lease until they are shut down, after the drain timeout of the KieSessionPoolRegistry. A stateful session
+	 * still borrowed by then is not protected, so size that drain timeout to the longest execution.
+	 * The cached container stays in place if the new container fails to build, verify or warm up.
+	 * 
+	 * @param releaseId release Id the container is cached and looked up by
+	 * @param newReleaseId release Id of the container to swap in
+	 * @param warmUp optional warm-up run before the cut-over
+	 * @return future completed with the new Kie Container once it is swapped in
+	 */
+	public CompletableFuture<KieContainer> hotSwap(String releaseId, String newReleaseId, KieContainerWarmUp warmUp) {
 		ReleaseId releaseIdObj = new ReleaseIdImpl(releaseId);
-		
-		if (!kieContainerCache.containsKey(releaseIdObj)) {
+		ReleaseId newReleaseIdObj = new ReleaseIdImpl(newReleaseId);
+		return CompletableFuture.supplyAsync(() -> {
+			long start = System.nanoTime();
+			KieContainer kieContainer = buildForSwap(newReleaseIdObj, warmUp);
+			swap(releaseIdObj, kieContainer);
+			lastSwapDurationNanos = System.nanoTime() - start;
+			LOG.info("Swapped Kie Container for {} to {} in {} ms", releaseIdObj, newReleaseIdObj, getLastSwapDurationMillis());
+			return kieContainer;
+		}, getSwapExecutor());
+	}
+
+	private KieContainer buildForSwap(ReleaseId newReleaseIdObj, KieContainerWarmUp warmUp) {
+		if(this.kieServices == null){
+			this.kieServices = KieServices.Factory.get();
+		}
+		LOG.debug("Building Kie Container {} for hot swap", newReleaseIdObj);
+		long start = System.nanoTime();
+		KieContainer kieContainer = this.createKieContainer(newReleaseIdObj);
+		if(kieContainer == null){
+			throw new RulesSupportRuntimeException("Kie Container not found for knowledge module: " + newReleaseIdObj);
+		}
+		try{
+			validateKieContainer(kieContainer);
+			recordBuild(newReleaseIdObj, System.nanoTime() - start);
+			if(warmUp != null){
+				LOG.debug("Warming up Kie Container {}", newReleaseIdObj);
+				warmUp.warmUp(kieContainer);
+			}
+		}catch(RuntimeException e){
+			LOG.error("Hot swap to {} aborted. Keeping current Kie Container", newReleaseIdObj, e);
+			kieContainer.dispose();
+			throw e;
+		}
+		return kieContainer;
+	}
+
+	private void swap(ReleaseId releaseIdObj, KieContainer kieContainer) {
+		KieContainerEntry newEntry = new KieContainerEntry();
+		newEntry.future.complete(kieContainer);
+		KieContainerEntry oldEntry;
+		synchronized(swapLock){
+			oldEntry = replaceBuiltEntry(releaseIdObj, newEntry);
+			if(oldEntry != null && oldEntry.kieScanner != null){
+				newEntry.pollingIntervalMillis = oldEntry.pollingIntervalMillis;
+				if(oldEntry.shadowContainer != null){
+					newEntry.kieScanner = oldEntry.kieScanner;
+					newEntry.shadowContainer = oldEntry.shadowContainer;
+					oldEntry.kieScanner = null;
+					oldEntry.shadowContainer = null;
+				}else{
+					oldEntry.kieScanner.shutdown();
+					oldEntry.kieScanner = null;
+					newEntry.kieScanner = kieServices.newKieScanner(kieContainer);
+					newEntry.kieScanner.addListener(new UpdateNotifyingScanListener(releaseIdObj.toExternalForm()));
+					startScan(newEntry.kieScanner, newEntry.pollingIntervalMillis);
+				}
+			}
+		}
+		if(oldEntry != null){
+			retireEntry(oldEntry, drainTimeoutMillis);
+		}
+		notifyUpdated(releaseIdObj.toExternalForm());
+	}
+
+	/**
+	 * Replace the cached entry once it is built, so that callers waiting on a build in progress
+	 * never receive a container that is already retired.
+	 */
+	private KieContainerEntry replaceBuiltEntry(ReleaseId releaseIdObj, KieContainerEntry newEntry) {
+		for(;;){
+			KieContainerEntry currentEntry = kieContainerCache.get(releaseIdObj);
+			if(currentEntry == null){
+				if(kieContainerCache.putIfAbsent(releaseIdObj, newEntry) == null){
+					return null;
+				}
+			}else if(!currentEntry.future.isDone()){
+				LOG.debug("Kie Container for {} is being built. Swapping once it is built", releaseIdObj);
+				currentEntry.future.handle((kieContainer, failure) -> null).join();
+			}else if(kieContainerCache.replace(releaseIdObj, currentEntry, newEntry)){
+				return currentEntry;
+			}
+		}
+	}
+
+	/**
+	 * Dispose a container taken out of the cache once the drain timeout elapsed and every lease on it is closed.
+	 * Disposal after a drain timeout or lease release runs on the RetirementExecutor.
+	 */
+	private void retireEntry(KieContainerEntry entry, long drainMillis) {
+		entry.retired = true;
+		if(drainMillis > 0){
+			LOG.debug("Disposing retired Kie Container in {} ms, once its leases are closed", drainMillis);
+			RetirementExecutor.schedule(() -> drained(entry), drainMillis, TimeUnit.MILLISECONDS);
+		}else{
+			drained(entry);
+		}
+	}
+
+	private void drained(KieContainerEntry entry) {
+		entry.drained = true;
+		disposeIfUnused(entry);
+	}
+
+	private void releaseLease(KieContainerEntry entry) {
+		if(entry.leases.decrementAndGet() == 0 && entry.drained){
+			RetirementExecutor.execute(() -> disposeIfUnused(entry));
+		}
+	}
+
+	private void disposeIfUnused(KieContainerEntry entry) {
+		int leases = entry.leases.get();
+		if(leases == 0){
+			entry.future.whenComplete((kieContainer, failure) -> disposeEntry(entry));
+		}else{
+			LOG.debug("Retired Kie Container has {} open leases. Disposing once they are closed", leases);
+		}
+	}
+
+	private void buildKieContainer(ReleaseId releaseIdObj, KieContainerEntry entry, long pollingIntervalMillis) {
+		try{
 			if(this.kieServices == null){
 				this.kieServices = KieServices.Factory.get();
 			}
 			LOG.debug("Kie Container not found in cache. Acquiring...");
+			long start = System.nanoTime();
 			KieContainer kieContainer = this.createKieContainer(releaseIdObj);
 			if(kieContainer == null){
-				throw new RulesSupportRuntimeException("Kie Container not found for knowledge module: {}");
+				throw new RulesSupportRuntimeException("Kie Container not found for knowledge module: " + releaseIdObj);
 			}
 			LOG.debug("Acquired Kie Container");
 			validateKieContainer(kieContainer);
-			
-			kieContainerCache.put(releaseIdObj, kieContainer);
-			
+			recordBuild(releaseIdObj, System.nanoTime() - start);
+
 			if(pollingIntervalMillis > 0){
 				LOG.debug("Acquiring Kie Scanner...");
-				startScan(kieServices.newKieScanner(kieContainer), pollingIntervalMillis);
+				entry.pollingIntervalMillis = pollingIntervalMillis;
+				if(hotSwapOnScan){
+					entry.shadowContainer = this.createKieContainer(releaseIdObj);
+					entry.kieScanner = kieServices.newKieScanner(entry.shadowContainer);
+					entry.kieScanner.addListener(new HotSwapOnScanListener(releaseIdObj.toExternalForm(), entry.shadowContainer));
+				}else{
+					entry.kieScanner = kieServices.newKieScanner(kieContainer);
+					entry.kieScanner.addListener(new UpdateNotifyingScanListener(releaseIdObj.toExternalForm()));
+				}
+				startScan(entry.kieScanner, pollingIntervalMillis);
 			}
-			return kieContainer;
+			entry.future.complete(kieContainer);
+		}catch(RuntimeException e){
+			kieContainerCache.remove(releaseIdObj, entry);
+			entry.future.completeExceptionally(e);
+			throw e;
 		}
-		
-		return kieContainerCache.get(releaseIdObj);
+	}
+
+	private void recordBuild(ReleaseId releaseIdObj, long buildNanos) {
+		lastBuildDurationNanos = buildNanos;
+		rulesMetrics.containerBuilt(releaseIdObj.toExternalForm(), buildNanos);
+	}
+
+	private KieContainer awaitKieContainer(KieContainerEntry entry) {
+		try{
+			return entry.future.join();
+		}catch(CompletionException e){
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Retire least recently used containers until the cache fits. The container just built is never evicted.
+	 */
+	private void evictLeastRecentlyUsed(KieContainerEntry builtEntry) {
+		while(kieContainerCache.size() > maxCacheSize){
+			ReleaseId lruReleaseId = null;
+			long lruAccessNanos = 0;
+			for(Map.Entry<ReleaseId, KieContainerEntry> cacheEntry: kieContainerCache.entrySet()){
+				KieContainerEntry entry = cacheEntry.getValue();
+				if(entry != builtEntry && entry.future.isDone() && (lruReleaseId == null || entry.lastAccessNanos < lruAccessNanos)){
+					lruAccessNanos = entry.lastAccessNanos;
+					lruReleaseId = cacheEntry.getKey();
+				}
+			}
+			if(lruReleaseId == null){
+				return;
+			}
+			KieContainerEntry lruEntry = kieContainerCache.remove(lruReleaseId);
+			if(lruEntry != null){
+				LOG.debug("Kie Container cache exceeded {} entries. Evicting {}", maxCacheSize, lruReleaseId);
+				retireEntry(lruEntry, drainTimeoutMillis);
+			}
+		}
+	}
+
+	private void disposeEntry(KieContainerEntry entry) {
+		if(entry.future.isCompletedExceptionally() || !entry.disposed.compareAndSet(false, true)){
+			return;
+		}
+		if(entry.kieScanner != null){
+			LOG.debug("Stopping Kie Scanner");
+			entry.kieScanner.shutdown();
+		}
+		if(entry.shadowContainer != null){
+			entry.shadowContainer.dispose();
+		}
+		entry.future.join().dispose();
 	}
 
 	private KieContainer createKieContainer(ReleaseId releaseId) {
+		if(kieModuleDiskCache != null){
+			try{
+				kieModuleDiskCache.install(kieServices, releaseId);
+			}catch(RuntimeException e){
+				LOG.warn("Knowledge module disk cache failed for {}. Building Kie Container from the repository", releaseId, e);
+			}
+		}
 		return kieServices.newKieContainer(releaseId);
 	}
-	
+
 	private void validateKieContainer(KieContainer kieContainer) {
 		LOG.debug("Validating Kie Container");
 		Results results = kieContainer.verify();
@@ -67,7 +358,7 @@ public class KieContainerProviderImpl implements KieContainerProvider {
 			LOG.debug("No ERRORs found while Validating Kie Container");
 		}
 	}
-	
+
 	private void startScan(KieScanner kieScanner, long pollingIntervalMillis){
 		LOG.debug("Kie component scan starts every {}", pollingIntervalMillis);
 		kieScanner.start(pollingIntervalMillis);
@@ -77,5 +368,138 @@ public class KieContainerProviderImpl implements KieContainerProvider {
 	public void setKieServices(KieServices kieServices) {
 		this.kieServices = kieServices;
 	}
-	
+
+	public void setRulesMetrics(RulesMetrics rulesMetrics) {
+		this.rulesMetrics = rulesMetrics;
+	}
+
+	public void setMaxCacheSize(int maxCacheSize) {
+		this.maxCacheSize = maxCacheSize;
+	}
+
+	public int getCacheSize() {
+		return kieContainerCache.size();
+	}
+
+	public void setSwapExecutor(Executor swapExecutor) {
+		this.swapExecutor = swapExecutor;
+	}
+
+	public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+		this.drainTimeoutMillis = drainTimeoutMillis;
+	}
+
+	public void setHotSwapOnScan(boolean hotSwapOnScan) {
+		this.hotSwapOnScan = hotSwapOnScan;
+	}
+
+	public void setWarmUp(KieContainerWarmUp warmUp) {
+		this.warmUp = warmUp;
+	}
+
+	public void setKieModuleDiskCache(KieModuleDiskCache kieModuleDiskCache) {
+		this.kieModuleDiskCache = kieModuleDiskCache;
+	}
+
+	public void addKieContainerUpdateListener(KieContainerUpdateListener updateListener) {
+		this.updateListeners.add(updateListener);
+	}
+
+	public void setKieContainerUpdateListeners(List<KieContainerUpdateListener> updateListeners) {
+		this.updateListeners.clear();
+		this.updateListeners.addAll(updateListeners);
+	}
+
+	private void notifyUpdated(String releaseId) {
+		for(KieContainerUpdateListener updateListener: updateListeners){
+			try{
+				updateListener.kieContainerUpdated(releaseId);
+			}catch(RuntimeException e){
+				LOG.warn("Kie Container update listener failed for {}", releaseId, e);
+			}
+		}
+	}
+
+	public long getLastBuildDurationMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(lastBuildDurationNanos);
+	}
+
+	public long getLastSwapDurationMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(lastSwapDurationNanos);
+	}
+
+	private Executor getSwapExecutor() {
+		if(swapExecutor == null){
+			synchronized(swapLock){
+				if(swapExecutor == null){
+					swapExecutor = Executors.newSingleThreadExecutor(runnable -> {
+						Thread thread = new Thread(runnable, "kie-container-swap");
+						thread.setDaemon(true);
+						return thread;
+					});
+				}
+			}
+		}
+		return swapExecutor;
+	}
+
+	/**
+	 * Scanner listener on the shadow container. Swaps in the updated knowledge module instead of
+	 * letting the scanner upgrade the live container while sessions are executing.
+	 */
+	private class HotSwapOnScanListener implements KieScannerEventListener {
+		private final String releaseId;
+		private final KieContainer shadowContainer;
+
+		private HotSwapOnScanListener(String releaseId, KieContainer shadowContainer) {
+			this.releaseId = releaseId;
+			this.shadowContainer = shadowContainer;
+		}
+
+		@Override
+		public void onKieScannerStatusChangeEvent(KieScannerStatusChangeEvent statusChange) {
+		}
+
+		@Override
+		public void onKieScannerUpdateResultsEvent(KieScannerUpdateResultsEvent updateResults) {
+			if(updateResults.getResults().hasMessages(Level.ERROR)){
+				LOG.error("Kie Scanner update for {} has ERRORs. Skipping hot swap", releaseId);
+				return;
+			}
+			hotSwap(releaseId, shadowContainer.getReleaseId().toExternalForm(), warmUp);
+		}
+	}
+
+	/**
+	 * Scanner listener on a live container that the scanner upgrades in place.
+	 */
+	private class UpdateNotifyingScanListener implements KieScannerEventListener {
+		private final String releaseId;
+
+		private UpdateNotifyingScanListener(String releaseId) {
+			this.releaseId = releaseId;
+		}
+
+		@Override
+		public void onKieScannerStatusChangeEvent(KieScannerStatusChangeEvent statusChange) {
+		}
+
+		@Override
+		public void onKieScannerUpdateResultsEvent(KieScannerUpdateResultsEvent updateResults) {
+			notifyUpdated(releaseId);
+		}
+	}
+
+	private static class KieContainerEntry {
+		private final CompletableFuture<KieContainer> future = new CompletableFuture<>();
+		private volatile KieScanner kieScanner;
+		private volatile long lastAccessNanos = System.nanoTime();
+		private final AtomicInteger leases = new AtomicInteger();
+		private final AtomicBoolean disposed = new AtomicBoolean(false);
+		private volatile boolean retired = false;
+		private volatile boolean drained = false;
+		private volatile KieContainer shadowContainer;
+		private long pollingIntervalMillis;
+	}
+
 }
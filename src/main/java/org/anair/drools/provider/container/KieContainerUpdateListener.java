@@ -0,0 +1,14 @@
+package org.anair.drools.provider.container;
+
+/**
+ * Notified when the Kie Container cached for a release Id changes: a Kie Scanner update, a hot swap or an eviction.
+ * 
+ * @author anair
+ *
+ */
+@FunctionalInterface
+public interface KieContainerUpdateListener {
+
+	void kieContainerUpdated(String releaseId);
+	
+}
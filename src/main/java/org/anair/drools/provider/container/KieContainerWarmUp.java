@@ -0,0 +1,17 @@
+package org.anair.drools.provider.container;
+
+import org.kie.api.runtime.KieContainer;
+
+/**
+ * Warm up a freshly built KieContainer before it starts serving requests, e.g. by firing rules on sample facts
+ * so that KieBases are built and the JIT has seen the rule code.
+ * 
+ * @author anair
+ *
+ */
+@FunctionalInterface
+public interface KieContainerWarmUp {
+
+	void warmUp(KieContainer kieContainer);
+	
+}
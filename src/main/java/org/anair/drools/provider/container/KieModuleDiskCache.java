@@ -0,0 +1,181 @@
+package org.anair.drools.provider.container;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.KieModule;
+import org.kie.api.builder.Message.Level;
+import org.kie.api.builder.ReleaseId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of compiled knowledge modules, keyed by release Id and the SHA-256 hash of the knowledge module content.
+ * A cached module is installed in the Kie repository before the Kie Container is created, so DRL is not compiled again
+ * after a restart. A cache file that is corrupt, or that was compiled from different content, is ignored and rebuilt.
+ *
+ * @author anair
+ *
+ */
+public class KieModuleDiskCache {
+	private static final Logger LOG = LoggerFactory.getLogger(KieModuleDiskCache.class);
+	private static final int MAGIC = 0x4B4A4152;
+	private static final int DIGEST_LENGTH = 32;
+	private static final int HEADER_LENGTH = 4 + DIGEST_LENGTH;
+	private static final String RESOURCES_ROOT = "src/main/resources/";
+
+	private final Path cacheDirectory;
+
+	public KieModuleDiskCache(String cacheDirectory) {
+		this.cacheDirectory = Paths.get(cacheDirectory);
+	}
+
+	/**
+	 * Install the compiled knowledge module for the release Id in the Kie repository, from the cache if it is there
+	 * and current, otherwise by compiling it and storing the result. On a miss the module just compiled is the one
+	 * installed, so the Kie Container created next reuses its compiled packages instead of compiling the module again.
+	 *
+	 * @return false if the knowledge module cannot be resolved or compiled. The caller builds the container as usual
+	 */
+	public boolean install(KieServices kieServices, ReleaseId releaseId) {
+		KieModule sourceKieModule = kieServices.getRepository().getKieModule(releaseId);
+		if(!(sourceKieModule instanceof InternalKieModule)){
+			return false;
+		}
+		InternalKieModule internalKieModule = (InternalKieModule) sourceKieModule;
+		String contentHash = toHex(sha256(internalKieModule.getBytes()));
+
+		byte[] compiledKieModule = load(releaseId, contentHash);
+		if(compiledKieModule != null){
+			LOG.debug("Installing compiled knowledge module {} from disk cache", releaseId);
+			kieServices.getRepository().addKieModule(kieServices.getResources().newByteArrayResource(compiledKieModule));
+			return true;
+		}
+
+		LOG.debug("Compiled knowledge module {} not found in disk cache. Compiling...", releaseId);
+		KieBuilder kieBuilder = kieServices.newKieBuilder(copyOf(kieServices, internalKieModule, releaseId)).buildAll();
+		if(kieBuilder.getResults().hasMessages(Level.ERROR)){
+			LOG.warn("Cannot compile knowledge module {} for disk cache: {}", releaseId, kieBuilder.getResults().getMessages(Level.ERROR));
+			return false;
+		}
+		InternalKieModule compiledKieModule = (InternalKieModule) kieBuilder.getKieModule();
+		kieServices.getRepository().addKieModule(compiledKieModule);
+		store(releaseId, contentHash, compiledKieModule.getBytes());
+		return true;
+	}
+
+	/**
+	 * @return compiled knowledge module, or null if it is not cached, was compiled from other content or is corrupt
+	 */
+	public byte[] load(ReleaseId releaseId, String contentHash) {
+		Path cacheFile = cacheFile(releaseId, contentHash);
+		if(!Files.isRegularFile(cacheFile)){
+			return null;
+		}
+		try{
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(cacheFile));
+			if(buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC){
+				throw new IOException("Invalid header");
+			}
+			byte[] digest = new byte[DIGEST_LENGTH];
+			buffer.get(digest);
+			byte[] compiledKieModule = new byte[buffer.remaining()];
+			buffer.get(compiledKieModule);
+			if(!Arrays.equals(digest, sha256(compiledKieModule))){
+				throw new IOException("Checksum mismatch");
+			}
+			return compiledKieModule;
+		}catch(IOException e){
+			LOG.warn("Discarding corrupt knowledge module cache file {}: {}", cacheFile, e.getMessage());
+			deleteQuietly(cacheFile);
+			return null;
+		}
+	}
+
+	public void store(ReleaseId releaseId, String contentHash, byte[] compiledKieModule) {
+		Path cacheFile = cacheFile(releaseId, contentHash);
+		try{
+			Files.createDirectories(cacheDirectory);
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + compiledKieModule.length);
+			buffer.putInt(MAGIC);
+			buffer.put(sha256(compiledKieModule));
+			buffer.put(compiledKieModule);
+			Path tempFile = Files.createTempFile(cacheDirectory, cacheFile.getFileName().toString(), ".tmp");
+			Files.write(tempFile, buffer.array());
+			Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			LOG.debug("Stored compiled knowledge module {} in {}", releaseId, cacheFile);
+			deleteStaleCacheFiles(releaseId, cacheFile);
+		}catch(IOException e){
+			LOG.warn("Cannot store compiled knowledge module {} in disk cache", releaseId, e);
+		}
+	}
+
+	private void deleteStaleCacheFiles(ReleaseId releaseId, Path currentCacheFile) throws IOException {
+		String prefix = cacheFile(releaseId, "").getFileName().toString().replace(".kjar", "");
+		try(DirectoryStream<Path> cacheFiles = Files.newDirectoryStream(cacheDirectory, prefix + "*.kjar")){
+			for(Path cacheFile: cacheFiles){
+				if(!cacheFile.equals(currentCacheFile)){
+					deleteQuietly(cacheFile);
+				}
+			}
+		}
+	}
+
+	private KieFileSystem copyOf(KieServices kieServices, InternalKieModule kieModule, ReleaseId releaseId) {
+		KieFileSystem kieFileSystem = kieServices.newKieFileSystem();
+		for(String fileName: kieModule.getFileNames()){
+			if(!fileName.endsWith("/")){
+				kieFileSystem.write(RESOURCES_ROOT + fileName, kieModule.getBytes(fileName));
+			}
+		}
+		byte[] pomXml = kieModule.getBytes("META-INF/maven/" + releaseId.getGroupId() + "/" + releaseId.getArtifactId() + "/pom.xml");
+		if(pomXml != null){
+			kieFileSystem.writePomXML(pomXml);
+		}else{
+			kieFileSystem.generateAndWritePomXML(releaseId);
+		}
+		return kieFileSystem;
+	}
+
+	private Path cacheFile(ReleaseId releaseId, String contentHash) {
+		String fileName = releaseId.getGroupId() + "_" + releaseId.getArtifactId() + "_" + releaseId.getVersion() + "-" + contentHash + ".kjar";
+		return cacheDirectory.resolve(fileName.replaceAll("[^A-Za-z0-9._-]", "_"));
+	}
+
+	private static void deleteQuietly(Path path) {
+		try{
+			Files.deleteIfExists(path);
+		}catch(IOException e){
+			LOG.debug("Cannot delete {}", path, e);
+		}
+	}
+
+	static byte[] sha256(byte[] bytes) {
+		try{
+			return MessageDigest.getInstance("SHA-256").digest(bytes);
+		}catch(NoSuchAlgorithmException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for(byte b: bytes){
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+}
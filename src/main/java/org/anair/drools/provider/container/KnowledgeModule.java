@@ -0,0 +1,66 @@
+package org.anair.drools.provider.container;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Knowledge module to load at startup with the sessions whose pools are created, and an optional warm-up.
+ * 
+ * @author anair
+ *
+ */
+public class KnowledgeModule {
+	
+	private String releaseId;
+	private List<String> sessionNames = new ArrayList<>();
+	private long pollingIntervalMillis = 0;
+	private int sessionPoolSize = 10;
+	private KieContainerWarmUp warmUp;
+	
+	public KnowledgeModule() {
+	}
+	
+	public KnowledgeModule(String releaseId, String... sessionNames) {
+		this.releaseId = releaseId;
+		for(String sessionName: sessionNames){
+			this.sessionNames.add(sessionName);
+		}
+	}
+	
+	public String getReleaseId() {
+		return releaseId;
+	}
+	public void setReleaseId(String releaseId) {
+		this.releaseId = releaseId;
+	}
+	public List<String> getSessionNames() {
+		return sessionNames;
+	}
+	public void setSessionNames(List<String> sessionNames) {
+		this.sessionNames = sessionNames;
+	}
+	public long getPollingIntervalMillis() {
+		return pollingIntervalMillis;
+	}
+	public void setPollingIntervalMillis(long pollingIntervalMillis) {
+		this.pollingIntervalMillis = pollingIntervalMillis;
+	}
+	public int getSessionPoolSize() {
+		return sessionPoolSize;
+	}
+	public void setSessionPoolSize(int sessionPoolSize) {
+		this.sessionPoolSize = sessionPoolSize;
+	}
+	public KieContainerWarmUp getWarmUp() {
+		return warmUp;
+	}
+	public void setWarmUp(KieContainerWarmUp warmUp) {
+		this.warmUp = warmUp;
+	}
+	
+	@Override
+	public String toString() {
+		return releaseId + sessionNames;
+	}
+	
+}
@@ -0,0 +1,50 @@
+package org.anair.drools.provider.container;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared single daemon thread that disposes retired Kie Containers and shuts down stale session pools,
+ * so that disposal never runs on a request thread or on the rules watchdog.
+ * 
+ * @author anair
+ *
+ */
+public final class RetirementExecutor {
+	private static final Logger LOG = LoggerFactory.getLogger(RetirementExecutor.class);
+	
+	private static final ScheduledThreadPoolExecutor EXECUTOR = newExecutor();
+	
+	private RetirementExecutor() {
+	}
+	
+	public static void execute(Runnable task){
+		EXECUTOR.execute(() -> run(task));
+	}
+	
+	public static void schedule(Runnable task, long delay, TimeUnit unit){
+		EXECUTOR.schedule(() -> run(task), delay, unit);
+	}
+	
+	private static void run(Runnable task){
+		try{
+			task.run();
+		}catch(RuntimeException e){
+			LOG.warn("Retirement task failed", e);
+		}
+	}
+	
+	private static ScheduledThreadPoolExecutor newExecutor(){
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "kie-retirement");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+	
+}
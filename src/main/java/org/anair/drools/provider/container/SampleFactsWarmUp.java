@@ -0,0 +1,61 @@
+package org.anair.drools.provider.container;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.kie.api.builder.model.KieSessionModel;
+import org.kie.api.builder.model.KieSessionModel.KieSessionType;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warm up a KieContainer by firing rules on sample facts for each configured session.
+ * Facts are supplied fresh for every iteration because rules may modify them.
+ * Sessions that are stateless in kmodule.xml are executed as stateless sessions, all others as stateful sessions.
+ * 
+ * @author anair
+ *
+ */
+public class SampleFactsWarmUp implements KieContainerWarmUp {
+	private static final Logger LOG = LoggerFactory.getLogger(SampleFactsWarmUp.class);
+	
+	private final Map<String, Supplier<Collection<?>>> sampleFacts = new LinkedHashMap<>();
+	private int iterations = 10;
+	
+	public SampleFactsWarmUp addSampleFacts(String sessionName, Supplier<Collection<?>> factsSupplier) {
+		this.sampleFacts.put(sessionName, factsSupplier);
+		return this;
+	}
+	
+	public SampleFactsWarmUp iterations(int iterations) {
+		this.iterations = iterations;
+		return this;
+	}
+
+	@Override
+	public void warmUp(KieContainer kieContainer) {
+		sampleFacts.forEach((sessionName, factsSupplier) -> {
+			LOG.debug("Warming up session {} with {} iterations", sessionName, iterations);
+			KieSessionModel kieSessionModel = kieContainer.getKieSessionModel(sessionName);
+			boolean stateless = kieSessionModel != null && kieSessionModel.getType() == KieSessionType.STATELESS;
+			for(int i=0;i<iterations;i++){
+				if(stateless){
+					kieContainer.newStatelessKieSession(sessionName).execute(factsSupplier.get());
+				}else{
+					KieSession kieSession = kieContainer.newKieSession(sessionName);
+					try{
+						factsSupplier.get().forEach(kieSession::insert);
+						kieSession.fireAllRules();
+					}finally{
+						kieSession.dispose();
+					}
+				}
+			}
+		});
+	}
+
+}
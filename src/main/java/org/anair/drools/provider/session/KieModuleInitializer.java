@@ -0,0 +1,140 @@
+package org.anair.drools.provider.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.anair.drools.provider.container.KieContainerProvider;
+import org.anair.drools.provider.container.KnowledgeModule;
+import org.anair.rules.exception.RulesSupportRuntimeException;
+import org.kie.api.builder.model.KieSessionModel;
+import org.kie.api.builder.model.KieSessionModel.KieSessionType;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load, verify and build the configured knowledge modules at startup, in parallel, so first requests after a deploy
+ * do not pay for it. The session pool of every configured stateful session is pre-filled. A stateless session pool hands out
+ * one shared session, so it is only created. The optional warm-up is run on the container, whose KieBase the pooled sessions share.
+ * Use <code>initialize</code> as the Spring init-method. The application context fails to start if a module fails
+ * to load, unless failOnError is false.
+ *
+ * @author anair
+ *
+ */
+public class KieModuleInitializer {
+	private static final Logger LOG = LoggerFactory.getLogger(KieModuleInitializer.class);
+
+	private final KieContainerProvider kieContainerProvider;
+	private final KieSessionProvider kieSessionProvider;
+	private List<KnowledgeModule> knowledgeModules = new ArrayList<>();
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private boolean failOnError = true;
+	private volatile boolean ready = false;
+	private volatile long initializationMillis;
+
+	public KieModuleInitializer(KieContainerProvider kieContainerProvider, KieSessionProvider kieSessionProvider) {
+		this.kieContainerProvider = kieContainerProvider;
+		this.kieSessionProvider = kieSessionProvider;
+	}
+
+	public void initialize() {
+		long start = System.currentTimeMillis();
+		LOG.info("Loading {} knowledge modules", knowledgeModules.size());
+		ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, knowledgeModules.size())), runnable -> {
+			Thread thread = new Thread(runnable, "kie-module-initializer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try{
+			List<CompletableFuture<Void>> futures = new ArrayList<>(knowledgeModules.size());
+			for(KnowledgeModule knowledgeModule: knowledgeModules){
+				futures.add(CompletableFuture.runAsync(() -> initialize(knowledgeModule), executorService));
+			}
+			List<String> failures = new ArrayList<>();
+			for(int i=0;i<futures.size();i++){
+				try{
+					futures.get(i).join();
+				}catch(CompletionException e){
+					LOG.error("Failed to load knowledge module {}", knowledgeModules.get(i), e.getCause());
+					failures.add(knowledgeModules.get(i) + ": " + e.getCause().getMessage());
+				}
+			}
+			if(!failures.isEmpty() && failOnError){
+				throw new RulesSupportRuntimeException("Failed to load knowledge modules: " + String.join(", ", failures));
+			}
+		}finally{
+			executorService.shutdownNow();
+		}
+		this.initializationMillis = System.currentTimeMillis() - start;
+		this.ready = true;
+		LOG.info("Loaded {} knowledge modules in {} ms", knowledgeModules.size(), initializationMillis);
+	}
+
+	private void initialize(KnowledgeModule knowledgeModule) {
+		String releaseId = knowledgeModule.getReleaseId();
+		long pollingIntervalMillis = knowledgeModule.getPollingIntervalMillis();
+		LOG.debug("Loading knowledge module {}", knowledgeModule);
+		KieContainer kieContainer = kieContainerProvider.getKieContainer(releaseId, pollingIntervalMillis);
+
+		for(String sessionName: knowledgeModule.getSessionNames()){
+			KieSessionModel kieSessionModel = kieContainer.getKieSessionModel(sessionName);
+			if(kieSessionModel == null){
+				throw new RulesSupportRuntimeException("Kie session " + sessionName + " not found in knowledge module: " + releaseId);
+			}
+			if(kieSessionModel.getType() == KieSessionType.STATELESS){
+				//Creates the pool. Nothing to pre-fill, the pool hands out one shared stateless session
+				kieSessionProvider.getStatelessKieSession(releaseId, pollingIntervalMillis, sessionName, knowledgeModule.getSessionPoolSize());
+			}else{
+				prefillStatefulSessionPool(knowledgeModule, sessionName);
+			}
+		}
+
+		if(knowledgeModule.getWarmUp() != null){
+			LOG.debug("Warming up knowledge module {}", knowledgeModule);
+			knowledgeModule.getWarmUp().warmUp(kieContainer);
+		}
+	}
+
+	/**
+	 * Borrow pool size sessions at once so the pool creates them, then return them to the pool.
+	 */
+	private void prefillStatefulSessionPool(KnowledgeModule knowledgeModule, String sessionName) {
+		List<KieSession> kieSessions = new ArrayList<>(knowledgeModule.getSessionPoolSize());
+		try{
+			for(int i=0;i<knowledgeModule.getSessionPoolSize();i++){
+				kieSessions.add(kieSessionProvider.getStatefulKieSession(knowledgeModule.getReleaseId(),
+						knowledgeModule.getPollingIntervalMillis(), sessionName, knowledgeModule.getSessionPoolSize()));
+			}
+		}finally{
+			kieSessions.forEach(KieSession::dispose);
+		}
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	public long getInitializationMillis() {
+		return initializationMillis;
+	}
+
+	public void setKnowledgeModules(List<KnowledgeModule> knowledgeModules) {
+		this.knowledgeModules = knowledgeModules;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	public void setFailOnError(boolean failOnError) {
+		this.failOnError = failOnError;
+	}
+
+}
@@ -0,0 +1,224 @@
+package org.anair.drools.provider.session;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.anair.drools.provider.container.KieContainerLease;
+import org.anair.drools.provider.container.KieContainerUpdateListener;
+import org.anair.drools.provider.container.RetirementExecutor;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieContainerSessionsPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of KieContainerSessionsPool instances keyed by knowledge module release Id, session name and session type.
+ * A pool is created once and reused for every subsequent session request. Its size is the size of the first request;
+ * a request with another size gets the existing pool and the mismatch is logged once per pool.
+ * Stateful sessions handed out by a pool go back to the pool when <code>dispose()</code> is called on them.
+ * When the Kie Container behind a pool is swapped, the stale pool is shut down on the RetirementExecutor
+ * after a drain timeout so sessions still in flight can complete.
+ * Each pool holds a lease on its Kie Container, released once the pool is shut down, so that a swapped out
+ * or evicted container is not disposed under the sessions of its pools. Registered as KieContainerUpdateListener,
+ * the pools of a release Id are drained as soon as its Kie Container changes instead of on the next session request.
+ * A session still borrowed when its pool is shut down is not covered by the lease.
+ *
+ * @author anair
+ *
+ */
+public class KieSessionPoolRegistry implements KieContainerUpdateListener {
+	private static final Logger LOG = LoggerFactory.getLogger(KieSessionPoolRegistry.class);
+
+	public enum SessionType { STATEFUL, STATELESS }
+
+	private final Map<SessionPoolKey, PooledContainer> sessionPools = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong acquisitions = new AtomicLong();
+	private final AtomicLong acquisitionNanos = new AtomicLong();
+	private final AtomicLong poolSizeMismatches = new AtomicLong();
+	private volatile boolean shutdown = false;
+	private long drainTimeoutMillis = 30000;
+
+	/**
+	 * Get the pool for the leased Kie Container. A new pool keeps the lease until it is shut down.
+	 * Otherwise the lease is closed before returning, as the existing pool already holds one on the same container.
+	 */
+	public KieContainerSessionsPool getSessionsPool(String releaseId, String sessionName, SessionType sessionType, KieContainerLease kieContainerLease, int sessionPoolSize){
+		PooledContainer pooledContainer = null;
+		try{
+			pooledContainer = pooledContainer(releaseId, sessionName, sessionType, kieContainerLease, sessionPoolSize);
+			return pooledContainer.sessionsPool;
+		}finally{
+			if(pooledContainer == null || pooledContainer.kieContainerLease != kieContainerLease){
+				kieContainerLease.close();
+			}
+		}
+	}
+
+	private PooledContainer pooledContainer(String releaseId, String sessionName, SessionType sessionType, KieContainerLease kieContainerLease, int sessionPoolSize){
+		if(shutdown){
+			throw new IllegalStateException("Kie session pool registry is shut down");
+		}
+		KieContainer kieContainer = kieContainerLease.getKieContainer();
+		SessionPoolKey key = new SessionPoolKey(releaseId, sessionName, sessionType);
+		PooledContainer pooledContainer = sessionPools.get(key);
+		if(pooledContainer != null && pooledContainer.kieContainer == kieContainer){
+			hits.incrementAndGet();
+			checkPoolSize(key, pooledContainer, sessionPoolSize);
+			return pooledContainer;
+		}
+
+		return sessionPools.compute(key, (k, existing) -> {
+			if(existing != null && existing.kieContainer == kieContainer){
+				checkPoolSize(k, existing, sessionPoolSize);
+				return existing;
+			}
+			if(existing != null){
+				LOG.debug("Kie Container changed for {}. Draining stale session pool", k);
+				drain(existing);
+			}
+			LOG.debug("Creating Kie session pool of size {} for {}", sessionPoolSize, k);
+			misses.incrementAndGet();
+			return new PooledContainer(kieContainerLease, kieContainer.newKieSessionsPool(sessionPoolSize), sessionPoolSize);
+		});
+	}
+
+	private void checkPoolSize(SessionPoolKey key, PooledContainer pooledContainer, int sessionPoolSize){
+		if(pooledContainer.sessionPoolSize != sessionPoolSize){
+			poolSizeMismatches.incrementAndGet();
+			if(pooledContainer.sizeMismatchLogged.compareAndSet(false, true)){
+				LOG.warn("Kie session pool for {} has size {}. Requested size {} is ignored", key, pooledContainer.sessionPoolSize, sessionPoolSize);
+			}
+		}
+	}
+
+	private void drain(PooledContainer pooledContainer){
+		if(drainTimeoutMillis > 0){
+			RetirementExecutor.schedule(pooledContainer::shutdown, drainTimeoutMillis, TimeUnit.MILLISECONDS);
+		}else{
+			RetirementExecutor.execute(pooledContainer::shutdown);
+		}
+	}
+
+	@Override
+	public void kieContainerUpdated(String releaseId){
+		sessionPools.forEach((key, pooledContainer) -> {
+			if(Objects.equals(key.releaseId, releaseId) && sessionPools.remove(key, pooledContainer)){
+				LOG.debug("Kie Container updated for {}. Draining session pool", key);
+				drain(pooledContainer);
+			}
+		});
+	}
+
+	/**
+	 * Record the time to get a session from a pool. Pools do not block, so this is not a wait for a free session.
+	 */
+	public void recordAcquisition(long nanos){
+		acquisitions.incrementAndGet();
+		acquisitionNanos.addAndGet(nanos);
+	}
+
+	public void shutdown(){
+		this.shutdown = true;
+		sessionPools.forEach((key, pooledContainer) -> {
+			LOG.debug("Shutting down Kie session pool for {}", key);
+			pooledContainer.shutdown();
+		});
+		sessionPools.clear();
+	}
+
+	public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+		this.drainTimeoutMillis = drainTimeoutMillis;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getAcquisitionCount() {
+		return acquisitions.get();
+	}
+
+	public long getAcquisitionNanos() {
+		return acquisitionNanos.get();
+	}
+
+	public int getPoolCount() {
+		return sessionPools.size();
+	}
+
+	/**
+	 * Session requests whose pool size differs from the size the pool was created with.
+	 */
+	public long getPoolSizeMismatchCount() {
+		return poolSizeMismatches.get();
+	}
+
+	private static class PooledContainer {
+		private final KieContainerLease kieContainerLease;
+		private final KieContainer kieContainer;
+		private final KieContainerSessionsPool sessionsPool;
+		private final int sessionPoolSize;
+		private final AtomicBoolean sizeMismatchLogged = new AtomicBoolean(false);
+
+		private PooledContainer(KieContainerLease kieContainerLease, KieContainerSessionsPool sessionsPool, int sessionPoolSize) {
+			this.kieContainerLease = kieContainerLease;
+			this.kieContainer = kieContainerLease.getKieContainer();
+			this.sessionsPool = sessionsPool;
+			this.sessionPoolSize = sessionPoolSize;
+		}
+
+		private void shutdown() {
+			try{
+				sessionsPool.shutdown();
+			}finally{
+				kieContainerLease.close();
+			}
+		}
+	}
+
+	private static final class SessionPoolKey {
+		private final String releaseId;
+		private final String sessionName;
+		private final SessionType sessionType;
+
+		private SessionPoolKey(String releaseId, String sessionName, SessionType sessionType) {
+			this.releaseId = releaseId;
+			this.sessionName = sessionName;
+			this.sessionType = sessionType;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(releaseId, sessionName, sessionType);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj){
+				return true;
+			}
+			if(!(obj instanceof SessionPoolKey)){
+				return false;
+			}
+			SessionPoolKey other = (SessionPoolKey) obj;
+			return Objects.equals(releaseId, other.releaseId)
+					&& Objects.equals(sessionName, other.sessionName)
+					&& sessionType == other.sessionType;
+		}
+
+		@Override
+		public String toString() {
+			return releaseId + "/" + sessionName + "/" + sessionType;
+		}
+	}
+}
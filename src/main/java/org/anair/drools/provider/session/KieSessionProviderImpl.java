@@ -1,8 +1,12 @@
 package org.anair.drools.provider.session;
 
+import org.anair.drools.metrics.NoOpRulesMetrics;
+import org.anair.drools.metrics.RulesMetrics;
+import org.anair.drools.provider.container.KieContainerLease;
 import org.anair.drools.provider.container.KieContainerProvider;
+import org.anair.drools.provider.container.KieContainerProviderImpl;
+import org.anair.drools.provider.session.KieSessionPoolRegistry.SessionType;
 import org.apache.commons.lang3.StringUtils;
-import org.kie.api.runtime.KieContainer;
 import org.kie.api.runtime.KieContainerSessionsPool;
 import org.kie.api.runtime.KieSession;
 import org.kie.api.runtime.StatelessKieSession;
@@ -13,27 +17,51 @@ public class KieSessionProviderImpl implements KieSessionProvider {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(KieSessionProviderImpl.class);
 	private KieContainerProvider kieContainerProvider;
+	private KieSessionPoolRegistry kieSessionPoolRegistry;
+	private RulesMetrics rulesMetrics = NoOpRulesMetrics.INSTANCE;
 	
 	
 	public KieSessionProviderImpl(KieContainerProvider kieContainerProvider) {
+		this(kieContainerProvider, new KieSessionPoolRegistry());
+	}
+	
+	public KieSessionProviderImpl(KieContainerProvider kieContainerProvider, KieSessionPoolRegistry kieSessionPoolRegistry) {
 		this.kieContainerProvider = kieContainerProvider;
+		this.kieSessionPoolRegistry = kieSessionPoolRegistry;
+		if(kieContainerProvider instanceof KieContainerProviderImpl){
+			((KieContainerProviderImpl) kieContainerProvider).addKieContainerUpdateListener(kieSessionPoolRegistry);
+		}
 	}
 
 	@Override
 	public KieSession getStatefulKieSession(String releaseId, long pollingIntervalMillis, String sessionName, int sessionPoolSize) {
-		KieContainer kieContainer = kieContainerProvider.getKieContainer(releaseId, pollingIntervalMillis);
-		return fetchKieSessionFromContainer(sessionName, kieContainer, sessionPoolSize);
+		KieContainerLease kieContainerLease = kieContainerProvider.acquireKieContainer(releaseId, pollingIntervalMillis);
+		return fetchKieSessionFromContainer(releaseId, sessionName, kieContainerLease, sessionPoolSize);
 	}
 
 	@Override
 	public StatelessKieSession getStatelessKieSession(String releaseId, long pollingIntervalMillis, String sessionName, int sessionPoolSize) {
-		KieContainer kieContainer = kieContainerProvider.getKieContainer(releaseId, pollingIntervalMillis);
-		return fetchStatelessKieSessionFromContainer(sessionName, kieContainer, sessionPoolSize);
+		KieContainerLease kieContainerLease = kieContainerProvider.acquireKieContainer(releaseId, pollingIntervalMillis);
+		return fetchStatelessKieSessionFromContainer(releaseId, sessionName, kieContainerLease, sessionPoolSize);
+	}
+	
+	public void shutdown() {
+		LOG.debug("Shutting down Kie session pools");
+		kieSessionPoolRegistry.shutdown();
+	}
+	
+	public KieSessionPoolRegistry getKieSessionPoolRegistry() {
+		return kieSessionPoolRegistry;
+	}
+	
+	public void setRulesMetrics(RulesMetrics rulesMetrics) {
+		this.rulesMetrics = rulesMetrics;
 	}
 	
-	private KieSession fetchKieSessionFromContainer(String sessionName, KieContainer kieContainer, int sessionPoolSize){
+	private KieSession fetchKieSessionFromContainer(String releaseId, String sessionName, KieContainerLease kieContainerLease, int sessionPoolSize){
 		KieSession kieSession;
-		KieContainerSessionsPool sessionsPool = kieContainer.newKieSessionsPool(sessionPoolSize);
+		KieContainerSessionsPool sessionsPool = kieSessionPoolRegistry.getSessionsPool(releaseId, sessionName, SessionType.STATEFUL, kieContainerLease, sessionPoolSize);
+		long start = System.nanoTime();
 		if(StringUtils.isBlank(sessionName)){
 			LOG.debug("Fetching default Stateful Kie Session...");
 			kieSession = sessionsPool.newKieSession();
@@ -43,13 +71,17 @@ public class KieSessionProviderImpl implements KieSessionProvider {
 			kieSession = sessionsPool.newKieSession(sessionName);
 			LOG.debug("Fetched Stateful Kie Session : {}...", sessionName);
 		}
+		long acquisitionNanos = System.nanoTime() - start;
+		kieSessionPoolRegistry.recordAcquisition(acquisitionNanos);
+		rulesMetrics.sessionAcquired(releaseId, sessionName, acquisitionNanos);
 		
 		return kieSession;
 	}
 	
-	private StatelessKieSession fetchStatelessKieSessionFromContainer(String sessionName, KieContainer kieContainer, int sessionPoolSize){
+	private StatelessKieSession fetchStatelessKieSessionFromContainer(String releaseId, String sessionName, KieContainerLease kieContainerLease, int sessionPoolSize){
 		StatelessKieSession statelessKieSession;
-		KieContainerSessionsPool sessionsPool = kieContainer.newKieSessionsPool(sessionPoolSize);
+		KieContainerSessionsPool sessionsPool = kieSessionPoolRegistry.getSessionsPool(releaseId, sessionName, SessionType.STATELESS, kieContainerLease, sessionPoolSize);
+		long start = System.nanoTime();
 
 		if(StringUtils.isBlank(sessionName)){
 			LOG.debug("Fetching default Stateless Kie Session...");
@@ -60,6 +92,9 @@ public class KieSessionProviderImpl implements KieSessionProvider {
 			statelessKieSession =  sessionsPool.newStatelessKieSession(sessionName);
 			LOG.debug("Fetched Stateless Kie Session: {}", sessionName);
 		}
+		long acquisitionNanos = System.nanoTime() - start;
+		kieSessionPoolRegistry.recordAcquisition(acquisitionNanos);
+		rulesMetrics.sessionAcquired(releaseId, sessionName, acquisitionNanos);
 		return statelessKieSession;
 	}
 
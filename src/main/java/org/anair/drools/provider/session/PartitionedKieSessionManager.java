@@ -0,0 +1,366 @@
+package org.anair.drools.provider.session;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.anair.rules.exception.RulesSupportRuntimeException;
+import org.kie.api.runtime.KieSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-lived Stateful Kie Sessions partitioned by routing key, e.g. one partition per customer shard.
+ * A routing key is hashed onto one of N partitions. Each partition is a single thread that owns one Kie Session,
+ * so facts from many threads reach a session without locking it.
+ * Facts are inserted in batches. Rules fire after each batch, or at most once per fire interval when one is set.
+ *
+ * Call start() before use and shutdown() to fire pending facts and dispose the sessions.
+ *
+ * @author anair
+ *
+ */
+public class PartitionedKieSessionManager {
+	private static final Logger LOG = LoggerFactory.getLogger(PartitionedKieSessionManager.class);
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	private static final long ENQUEUE_RETRY_MILLIS = 100;
+
+	private final int numberOfPartitions;
+	private final Supplier<KieSession> sessionSupplier;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private long fireIntervalMillis = 0;
+	private List<PartitionWorker> workers;
+	private volatile boolean shutdown = false;
+
+	/**
+	 * @param numberOfPartitions number of sessions and threads
+	 * @param sessionSupplier supplies one session per partition, e.g. () -> sessionBuilder.fetchKieSession("my.session")
+	 */
+	public PartitionedKieSessionManager(int numberOfPartitions, Supplier<KieSession> sessionSupplier) {
+		if(numberOfPartitions < 1){
+			throw new IllegalArgumentException("Number of partitions must be greater than 0");
+		}
+		this.numberOfPartitions = numberOfPartitions;
+		this.sessionSupplier = sessionSupplier;
+	}
+
+	public synchronized void start(){
+		if(workers != null){
+			return;
+		}
+		List<PartitionWorker> partitionWorkers = new ArrayList<>(numberOfPartitions);
+		boolean started = false;
+		try{
+			for(int i=0;i<numberOfPartitions;i++){
+				PartitionWorker worker = new PartitionWorker(i, sessionSupplier.get());
+				partitionWorkers.add(worker);
+				worker.thread.start();
+			}
+			started = true;
+		}finally{
+			if(!started){
+				LOG.error("Failed to start Kie session partition {}. Stopping the started partitions", partitionWorkers.size());
+				stop(partitionWorkers);
+			}
+		}
+		this.workers = partitionWorkers;
+		LOG.debug("Started {} Kie session partitions", numberOfPartitions);
+	}
+
+	/**
+	 * Stop the workers of a failed start and wait for them to dispose their sessions.
+	 */
+	private void stop(List<PartitionWorker> partitionWorkers){
+		partitionWorkers.forEach(worker -> worker.stopping = true);
+		for(PartitionWorker worker: partitionWorkers){
+			try{
+				worker.thread.join(TimeUnit.SECONDS.toMillis(30));
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Queue a fact for the partition of the routing key. Blocks while the partition queue is full,
+	 * until the partition stops because of shutdown or a failure.
+	 */
+	public void insert(Object routingKey, Object fact){
+		enqueue(worker(routingKey), fact);
+	}
+
+	public void insertAll(Object routingKey, Collection<?> facts){
+		PartitionWorker worker = worker(routingKey);
+		for(Object fact: facts){
+			enqueue(worker, fact);
+		}
+	}
+
+	/**
+	 * Run a task on the session of the routing key's partition, e.g. a query. Rules fire on facts queued before
+	 * the task, so the task sees them.
+	 */
+	public <T> CompletableFuture<T> execute(Object routingKey, Function<KieSession, T> task){
+		PartitionTask<T> partitionTask = new PartitionTask<>(task);
+		enqueue(worker(routingKey), partitionTask);
+		return partitionTask.future;
+	}
+
+	public int partitionFor(Object routingKey){
+		int hash = routingKey.hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), numberOfPartitions);
+	}
+
+	public int getNumberOfPartitions() {
+		return numberOfPartitions;
+	}
+
+	public int getQueueDepth(int partition) {
+		return workers().get(partition).inbox.size();
+	}
+
+	public long getInsertedCount(int partition) {
+		return workers().get(partition).insertedCount;
+	}
+
+	public long getRulesFiredCount(int partition) {
+		return workers().get(partition).rulesFiredCount;
+	}
+
+	public long getFailureCount(int partition) {
+		return workers().get(partition).failureCount;
+	}
+
+	/**
+	 * A partition fails when its thread dies, e.g. on a StackOverflowError from a recursive rule.
+	 * Facts and tasks routed to a failed partition are rejected.
+	 */
+	public boolean isPartitionFailed(int partition) {
+		return workers().get(partition).failure != null;
+	}
+
+	/**
+	 * Stop accepting facts, fire rules on queued facts and dispose the sessions.
+	 */
+	public void shutdown(){
+		this.shutdown = true;
+		if(workers == null){
+			return;
+		}
+		for(PartitionWorker worker: workers){
+			try{
+				worker.thread.join(TimeUnit.SECONDS.toMillis(30));
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		LOG.debug("Shut down {} Kie session partitions", numberOfPartitions);
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Fire rules at most once per interval instead of after every batch. 0 fires after every batch.
+	 */
+	public void setFireIntervalMillis(long fireIntervalMillis) {
+		this.fireIntervalMillis = fireIntervalMillis;
+	}
+
+	private List<PartitionWorker> workers(){
+		if(workers == null){
+			throw new IllegalStateException("Partitioned Kie session manager is not started");
+		}
+		return workers;
+	}
+
+	private PartitionWorker worker(Object routingKey){
+		return workers().get(partitionFor(routingKey));
+	}
+
+	private void enqueue(PartitionWorker worker, Object item){
+		try{
+			do{
+				worker.checkAccepting();
+			}while(!worker.inbox.offer(item, ENQUEUE_RETRY_MILLIS, TimeUnit.MILLISECONDS));
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RulesSupportRuntimeException("Interrupted while queueing for Kie session partition " + worker.partition, e);
+		}
+		if(worker.stopped && worker.inbox.remove(item)){
+			//The worker stopped while queuing and will not take the item
+			worker.checkAccepting();
+			throw new IllegalStateException("Kie session partition " + worker.partition + " is stopped");
+		}
+	}
+
+	private final class PartitionWorker implements Runnable {
+		private final int partition;
+		private final KieSession kieSession;
+		private final BlockingQueue<Object> inbox;
+		private final Thread thread;
+		private volatile long insertedCount;
+		private volatile long rulesFiredCount;
+		private volatile long failureCount;
+		private volatile Throwable failure;
+		private volatile boolean stopped = false;
+		private volatile boolean stopping = false;
+		private boolean pendingFire = false;
+		private long nextFireMillis;
+
+		private PartitionWorker(int partition, KieSession kieSession) {
+			this.partition = partition;
+			this.kieSession = kieSession;
+			this.inbox = new ArrayBlockingQueue<>(queueCapacity);
+			this.thread = new Thread(this, "kie-session-partition-" + partition);
+			this.thread.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			List<Object> batch = new ArrayList<>(batchSize);
+			nextFireMillis = System.currentTimeMillis() + fireIntervalMillis;
+			try{
+				while(!(shutdown || stopping) || !inbox.isEmpty()){
+					Object item = inbox.poll(pollTimeoutMillis(), TimeUnit.MILLISECONDS);
+					if(item != null){
+						batch.add(item);
+						inbox.drainTo(batch, batchSize - 1);
+						process(batch);
+						batch.clear();
+					}
+					if(pendingFire && (fireIntervalMillis <= 0 || System.currentTimeMillis() >= nextFireMillis)){
+						fire();
+					}
+				}
+				if(pendingFire){
+					fire();
+				}
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}catch(Throwable t){
+				failure = t;
+				failureCount++;
+				LOG.error("Kie session partition {} failed. Rejecting facts and tasks routed to it", partition, t);
+			}finally{
+				stopped = true;
+				rejectQueued(batch);
+				try{
+					kieSession.dispose();
+				}catch(RuntimeException e){
+					LOG.warn("Failed to dispose Kie session of partition {}", partition, e);
+				}
+			}
+		}
+
+		private void checkAccepting(){
+			if(failure != null){
+				throw new IllegalStateException("Kie session partition " + partition + " failed", failure);
+			}
+			if(shutdown || stopped){
+				throw new IllegalStateException("Partitioned Kie session manager is shut down");
+			}
+		}
+
+		/**
+		 * Fail the tasks and drop the facts the stopped worker will never process, so no caller waits forever.
+		 */
+		private void rejectQueued(List<Object> batch){
+			for(Object item: batch){
+				if(item instanceof PartitionTask){
+					rejectTask((PartitionTask<?>) item);
+				}
+			}
+			int droppedFacts = 0;
+			Object item;
+			while((item = inbox.poll()) != null){
+				if(item instanceof PartitionTask){
+					rejectTask((PartitionTask<?>) item);
+				}else{
+					droppedFacts++;
+				}
+			}
+			if(droppedFacts > 0){
+				failureCount += droppedFacts;
+				LOG.warn("Dropped {} facts queued on stopped Kie session partition {}", droppedFacts, partition);
+			}
+		}
+
+		private void rejectTask(PartitionTask<?> partitionTask){
+			partitionTask.future.completeExceptionally(failure != null
+					? new IllegalStateException("Kie session partition " + partition + " failed", failure)
+					: new IllegalStateException("Kie session partition " + partition + " is stopped"));
+		}
+
+		private long pollTimeoutMillis(){
+			if(pendingFire && fireIntervalMillis > 0){
+				return Math.max(1, nextFireMillis - System.currentTimeMillis());
+			}
+			return 100;
+		}
+
+		private void process(List<Object> batch){
+			for(Object item: batch){
+				if(item instanceof PartitionTask){
+					if(pendingFire){
+						fire();
+					}
+					((PartitionTask<?>) item).run(kieSession);
+				}else{
+					try{
+						kieSession.insert(item);
+						insertedCount++;
+						pendingFire = true;
+					}catch(RuntimeException e){
+						failureCount++;
+						LOG.error("Failed to insert fact on Kie session partition {}", partition, e);
+					}
+				}
+			}
+		}
+
+		private void fire(){
+			pendingFire = false;
+			nextFireMillis = System.currentTimeMillis() + fireIntervalMillis;
+			try{
+				rulesFiredCount += kieSession.fireAllRules();
+			}catch(RuntimeException e){
+				failureCount++;
+				LOG.error("Failed to fire rules on Kie session partition {}", partition, e);
+			}
+		}
+	}
+
+	private static final class PartitionTask<T> {
+		private final Function<KieSession, T> task;
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+
+		private PartitionTask(Function<KieSession, T> task) {
+			this.task = task;
+		}
+
+		private void run(KieSession kieSession){
+			try{
+				future.complete(task.apply(kieSession));
+			}catch(Throwable t){
+				future.completeExceptionally(t);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,373 @@
+package org.anair.drools.reactive;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.anair.drools.fluent.api.RulesExecution;
+import org.anair.drools.fluent.api.RulesWatchdog;
+import org.anair.drools.model.FiredRulesReturnValues;
+import org.kie.api.runtime.StatelessKieSession;
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reactive Streams stage that fires rules in batch mode on Stateless Kie Sessions.
+ * By default each fact group from the upstream publisher is one rules execution and one FiredRulesReturnValues is emitted per fact group,
+ * in completion order. Up to concurrency executions run at once on the executor.
+ *
+ * Micro-batching is opt-in with a batch size greater than 1: up to batchSize fact groups, or fewer once the batch window elapses,
+ * are merged into one working memory and fired as one execution. Facts of different groups can then match each other, and one
+ * FiredRulesReturnValues is emitted for the whole micro-batch, not per fact group. Only merge groups whose facts are independent.
+ *
+ * Backpressure: at most prefetch fact groups are requested from upstream and not yet emitted downstream,
+ * so a slow subscriber stops upstream instead of growing a buffer. Supports a single subscriber. A subscriber that arrives after
+ * upstream completed or failed still gets the results and the terminal signal.
+ *
+ * @author anair
+ *
+ */
+public class RulesProcessor implements Processor<Collection<?>, FiredRulesReturnValues> {
+	private static final Logger LOG = LoggerFactory.getLogger(RulesProcessor.class);
+	public static final int DEFAULT_BATCH_SIZE = 1;
+
+	private final Supplier<StatelessKieSession> sessionSupplier;
+	private final Executor executor;
+	private int concurrency = Runtime.getRuntime().availableProcessors();
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long batchWindowNanos = 0;
+	private int prefetch = 0;
+	private UnaryOperator<RulesExecution> executionCustomizer = UnaryOperator.identity();
+
+	private final Queue<Collection<?>> pendingGroups = new ConcurrentLinkedQueue<>();
+	private final Queue<BatchResult> results = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger wip = new AtomicInteger();
+	private final AtomicLong requested = new AtomicLong();
+	private final AtomicBoolean subscribed = new AtomicBoolean(false);
+	private volatile Subscription upstream;
+	private volatile Subscriber<? super FiredRulesReturnValues> downstream;
+	private volatile boolean upstreamDone = false;
+	private volatile boolean cancelled = false;
+	private volatile Throwable error;
+	private boolean terminated = false;
+	private boolean upstreamCancelled = false;
+	private long pendingSinceNanos = 0;
+
+	/**
+	 * @param sessionSupplier supplies the session of each micro-batch, e.g. () -> sessionBuilder.fetchStatelessKieSession("my.session")
+	 * @param executor runs the rules executions
+	 */
+	public RulesProcessor(Supplier<StatelessKieSession> sessionSupplier, Executor executor) {
+		this.sessionSupplier = sessionSupplier;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super FiredRulesReturnValues> subscriber) {
+		if(subscriber == null){
+			throw new NullPointerException("Subscriber must be present");
+		}
+		if(!subscribed.compareAndSet(false, true)){
+			subscriber.onSubscribe(new Subscription() {
+				@Override
+				public void request(long n) {
+				}
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("Rules processor supports a single subscriber"));
+			return;
+		}
+		//Signals reach the subscriber only after onSubscribe returned (Rule 1.9)
+		subscriber.onSubscribe(new DownstreamSubscription());
+		this.downstream = subscriber;
+		drain();
+	}
+
+	@Override
+	public void onSubscribe(Subscription subscription) {
+		if(this.upstream != null){
+			subscription.cancel();
+			return;
+		}
+		this.upstream = subscription;
+		subscription.request(getPrefetch());
+	}
+
+	@Override
+	public void onNext(Collection<?> factGroup) {
+		if(factGroup == null){
+			throw new NullPointerException("Fact group must be present");
+		}
+		pendingGroups.offer(factGroup);
+		drain();
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		if(this.error == null){
+			this.error = throwable;
+		}
+		this.upstreamDone = true;
+		drain();
+	}
+
+	@Override
+	public void onComplete() {
+		this.upstreamDone = true;
+		drain();
+	}
+
+	/**
+	 * Dispatch micro-batches, emit results and signal completion. Runs on one thread at a time; a call while
+	 * another thread is draining makes that thread loop once more.
+	 */
+	private void drain(){
+		if(wip.getAndIncrement() != 0){
+			return;
+		}
+		int missed = 1;
+		for(;;){
+			if(!terminated){
+				if(cancelled){
+					terminated = true;
+					pendingGroups.clear();
+					results.clear();
+				}else if(error != null){
+					terminate();
+				}else{
+					dispatchBatches();
+					if(error != null){
+						terminate();
+					}else{
+						emitResults();
+					}
+					if(!terminated && upstreamDone && pendingGroups.isEmpty() && inFlight.get() == 0 && results.isEmpty() && downstream != null){
+						terminated = true;
+						downstream.onComplete();
+					}
+				}
+			}
+			missed = wip.addAndGet(-missed);
+			if(missed == 0){
+				return;
+			}
+		}
+	}
+
+	private void dispatchBatches(){
+		while(inFlight.get() < concurrency && !pendingGroups.isEmpty()){
+			startBatchWindow();
+			boolean full = pendingGroups.size() >= batchSize;
+			boolean windowElapsed = batchWindowNanos <= 0 || System.nanoTime() - pendingSinceNanos >= batchWindowNanos;
+			if(!full && !windowElapsed && !upstreamDone){
+				break;
+			}
+			List<Object> facts = new ArrayList<>();
+			int groups = 0;
+			Collection<?> factGroup;
+			while(groups < batchSize && (factGroup = pendingGroups.poll()) != null){
+				facts.addAll(factGroup);
+				groups++;
+			}
+			pendingSinceNanos = 0;
+			inFlight.incrementAndGet();
+			dispatch(facts, groups);
+		}
+		if(!pendingGroups.isEmpty()){
+			startBatchWindow();
+		}
+	}
+
+	private void startBatchWindow(){
+		if(pendingSinceNanos == 0){
+			pendingSinceNanos = System.nanoTime();
+			if(batchWindowNanos > 0){
+				RulesWatchdog.schedule(this::drainOnExecutor, batchWindowNanos, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Hands the drain of an elapsed batch window off to the executor, so that the shared watchdog thread
+	 * never runs rules or emits results.
+	 */
+	private void drainOnExecutor(){
+		try{
+			executor.execute(this::drain);
+		}catch(RuntimeException e){
+			LOG.error("Unable to dispatch the micro-batch of an elapsed batch window", e);
+			if(error == null){
+				error = e;
+			}
+			drain(); //Only signals the error, no rules execution is dispatched once an error is set
+		}
+	}
+
+	private void dispatch(List<Object> facts, int groups){
+		try{
+			executor.execute(() -> {
+				try{
+					FiredRulesReturnValues returnValues = facts.isEmpty() ? new FiredRulesReturnValues()
+							: executionCustomizer.apply(new RulesExecution(sessionSupplier.get())).addFacts(facts).fireRules();
+					results.offer(new BatchResult(returnValues, groups));
+				}catch(Throwable t){
+					LOG.error("Rules execution of a micro-batch of {} fact groups failed", groups, t);
+					if(error == null){
+						error = t;
+					}
+				}finally{
+					inFlight.decrementAndGet();
+					drain();
+				}
+			});
+		}catch(RuntimeException e){
+			inFlight.decrementAndGet();
+			if(error == null){
+				error = e;
+			}
+		}
+	}
+
+	private void emitResults(){
+		Subscriber<? super FiredRulesReturnValues> subscriber = this.downstream;
+		if(subscriber == null){
+			return;
+		}
+		long emitted = 0;
+		long replenish = 0;
+		long demand = requested.get();
+		while(emitted != demand && !cancelled){
+			BatchResult result = results.poll();
+			if(result == null){
+				break;
+			}
+			subscriber.onNext(result.returnValues);
+			emitted++;
+			replenish += result.groups;
+		}
+		if(emitted > 0 && demand != Long.MAX_VALUE){
+			requested.addAndGet(-emitted);
+		}
+		if(replenish > 0 && !upstreamDone && !cancelled){
+			upstream.request(replenish);
+		}
+	}
+
+	/**
+	 * Stop upstream and signal the error. Without a subscriber yet, the error is kept and signalled once one subscribes.
+	 */
+	private void terminate(){
+		pendingGroups.clear();
+		results.clear();
+		if(!upstreamDone && upstream != null && !upstreamCancelled){
+			upstreamCancelled = true;
+			upstream.cancel();
+		}
+		if(downstream != null){
+			terminated = true;
+			downstream.onError(error);
+		}
+	}
+
+	/**
+	 * Concurrent rules executions. Defaults to the number of processors.
+	 */
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Fact groups merged into one rules execution. Default is 1, one execution and one result per fact group.
+	 * A greater batch size fires the facts of several groups in one working memory and emits one result per micro-batch.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Longest time a fact group waits for its micro-batch to fill up. 0 (default) fires a partial batch as soon as an execution slot is free.
+	 */
+	public void setBatchWindow(long batchWindow, TimeUnit unit) {
+		this.batchWindowNanos = unit.toNanos(batchWindow);
+	}
+
+	/**
+	 * Fact groups requested from upstream and not yet emitted downstream. Defaults to 2 batches per concurrent execution.
+	 */
+	public void setPrefetch(int prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	public int getPrefetch() {
+		return prefetch > 0 ? prefetch : batchSize * concurrency * 2;
+	}
+
+	/**
+	 * Configure every rules execution, e.g. rulesExecution -> rulesExecution.lightweight().forAgendaGroups("pricing")
+	 */
+	public void setExecutionCustomizer(UnaryOperator<RulesExecution> executionCustomizer) {
+		this.executionCustomizer = executionCustomizer;
+	}
+
+	public int getInFlightCount() {
+		return inFlight.get();
+	}
+
+	public int getPendingCount() {
+		return pendingGroups.size();
+	}
+
+	private final class DownstreamSubscription implements Subscription {
+		@Override
+		public void request(long n) {
+			if(n <= 0){
+				if(error == null){
+					error = new IllegalArgumentException("Rule 3.9: request must be greater than 0");
+				}
+			}else{
+				long current;
+				long next;
+				do{
+					current = requested.get();
+					next = current + n < 0 ? Long.MAX_VALUE : current + n;
+				}while(!requested.compareAndSet(current, next));
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			if(upstream != null){
+				upstream.cancel();
+			}
+			drain();
+		}
+	}
+
+	private static final class BatchResult {
+		private final FiredRulesReturnValues returnValues;
+		private final int groups;
+
+		private BatchResult(FiredRulesReturnValues returnValues, int groups) {
+			this.returnValues = returnValues;
+			this.groups = groups;
+		}
+	}
+
+}
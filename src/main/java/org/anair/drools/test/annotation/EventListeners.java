@@ -11,4 +11,5 @@ import java.lang.annotation.Target;
 public @interface EventListeners {
 	boolean enabled() default true;
 	String auditlogFileName() default "rules-trace";
+	boolean binaryTrace() default false;
 }
@@ -1,11 +1,25 @@
 package org.anair.drools.test.listener;
 
+import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
+import org.anair.drools.fluent.api.SessionEventListeners;
 import org.anair.drools.test.annotation.EventListeners;
 import org.anair.drools.test.annotation.StatelessKSession;
+import org.anair.drools.trace.TraceFileConverter;
+import org.anair.drools.trace.TraceWriter;
 import org.anair.rules.exception.RulesSupportRuntimeException;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -17,6 +31,7 @@ import org.kie.api.builder.Results;
 import org.kie.api.cdi.KBase;
 import org.kie.api.cdi.KReleaseId;
 import org.kie.api.cdi.KSession;
+import org.kie.api.event.KieRuntimeEventManager;
 import org.kie.api.logger.KieRuntimeLogger;
 import org.kie.api.runtime.KieContainer;
 import org.kie.api.runtime.KieSession;
@@ -24,6 +39,7 @@ import org.kie.api.runtime.StatelessKieSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.DefaultSingletonBeanRegistry;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.test.annotation.DirtiesContext.HierarchyMode;
@@ -32,20 +48,43 @@ import org.springframework.test.context.support.DependencyInjectionTestExecution
 import org.springframework.util.Assert;
 
 
-
+/**
+ * Registers Kie bases and sessions of the KReleaseId knowledge module as Spring beans for a test class.
+ * By default a new Kie Container is built for every test class and the application context is marked dirty after it.
+ * Set system property <code>drools.test.containerCache=true</code> to cache Kie Containers JVM-wide by release Id, so rules
+ * are compiled once per JVM, and to remove the beans of a test class after it instead of dirtying the context.
+ * With the cache, beans are reference counted per application context: test classes running in parallel share a Kie base
+ * or stateless session bean of the same release Id, and the bean is removed after the last of them. A stateful session
+ * bean, or a bean of another release Id, registered under a name already in use by a running test class is rejected.
+ * The binary trace file name includes the test class and the process Id, so parallel classes and forks write their own file.
+ * 
+ * @author anair
+ *
+ */
 public class DroolsTestExecutionListener extends DependencyInjectionTestExecutionListener {
 	private static final Logger LOG = LoggerFactory.getLogger(DroolsTestExecutionListener.class);
+	public static final String CONTAINER_CACHE_PROPERTY = "drools.test.containerCache";
+	private static final Map<String, CompletableFuture<KieContainer>> KIE_CONTAINERS = new ConcurrentHashMap<>();
+	private static final Map<SharedBeanKey, SharedBean> SHARED_BEANS = new HashMap<>();
 	private KieContainer kieContainer;
+	private String releaseIdKey;
+	private final List<String> registeredBeanNames = new ArrayList<>();
+	private final List<KieSession> statefulKieSessions = new ArrayList<>();
 	private KieRuntimeLogger logger = null;
+	private TraceWriter traceWriter = null;
+	private Path traceFile;
 	private KieServices kieServices;
 	
 	@Override
 	public void beforeTestClass(TestContext testContext) {
 		String[] releaseId = extractReleaseId(testContext);
+		this.releaseIdKey = String.join(":", releaseId);
 		this.kieServices = KieServices.Factory.get();
-		this.kieContainer = kieServices.newKieContainer(kieServices.newReleaseId(releaseId[0], releaseId[1], releaseId[2]));
-		
-		validateKieContainer(this.kieContainer.verify());
+		if(isContainerCacheEnabled()){
+			this.kieContainer = cachedKieContainer(releaseId);
+		}else{
+			this.kieContainer = newKieContainer(releaseId);
+		}
 		
 		Field[] declaredFieldsParent = testContext.getTestClass().getSuperclass().getDeclaredFields();
 		Field[] declaredFieldsTestClass = testContext.getTestClass().getDeclaredFields();
@@ -65,6 +104,46 @@ public class DroolsTestExecutionListener extends DependencyInjectionTestExecutio
 		}
 	}
 
+	private KieContainer newKieContainer(String[] releaseId) {
+		LOG.debug("Building Kie Container {}", String.join(":", releaseId));
+		KieContainer newKieContainer = kieServices.newKieContainer(kieServices.newReleaseId(releaseId[0], releaseId[1], releaseId[2]));
+		validateKieContainer(newKieContainer.verify());
+		return newKieContainer;
+	}
+	
+	/**
+	 * Build the container of a release Id once. Other test classes wait for that build instead of building it again.
+	 */
+	private KieContainer cachedKieContainer(String[] releaseId) {
+		CompletableFuture<KieContainer> future = KIE_CONTAINERS.get(this.releaseIdKey);
+		if(future == null){
+			CompletableFuture<KieContainer> newFuture = new CompletableFuture<>();
+			future = KIE_CONTAINERS.putIfAbsent(this.releaseIdKey, newFuture);
+			if(future == null){
+				try{
+					newFuture.complete(newKieContainer(releaseId));
+				}catch(RuntimeException e){
+					KIE_CONTAINERS.remove(this.releaseIdKey, newFuture);
+					newFuture.completeExceptionally(e);
+					throw e;
+				}
+				return newFuture.join();
+			}
+		}
+		try{
+			return future.join();
+		}catch(CompletionException e){
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+	
+	private static boolean isContainerCacheEnabled() {
+		return Boolean.parseBoolean(System.getProperty(CONTAINER_CACHE_PROPERTY, "false"));
+	}
+
 	public void validateKieContainer(Results results) {
 		if(results.hasMessages(Level.ERROR)){
 			String errorMessageConcat = results.getMessages(Level.ERROR).stream()
@@ -78,11 +157,33 @@ public class DroolsTestExecutionListener extends DependencyInjectionTestExecutio
 	public void afterTestClass(TestContext testContext) {
 		this.kieContainer = null;
 		this.kieServices = null;
-		testContext.markApplicationContextDirty(HierarchyMode.EXHAUSTIVE);
+		this.releaseIdKey = null;
+		if(isContainerCacheEnabled()){
+			removeSpringBeans(testContext);
+		}else{
+			testContext.markApplicationContextDirty(HierarchyMode.EXHAUSTIVE);
+		}
+		this.registeredBeanNames.clear();
+		this.statefulKieSessions.forEach(KieSession::dispose);
+		this.statefulKieSessions.clear();
 		
 		if(logger != null){
 			logger.close();
 		}
+		if(traceWriter != null){
+			closeTraceWriter();
+		}
+	}
+	
+	private void closeTraceWriter() {
+		traceWriter.close();
+		traceWriter = null;
+		Path auditLogFile = Paths.get(traceFile.toString().replaceFirst("\\.bin$", ".log"));
+		try{
+			TraceFileConverter.toAuditLog(traceFile, auditLogFile);
+		}catch(IOException e){
+			throw new RulesSupportRuntimeException("Cannot convert rules trace file: " + traceFile, e);
+		}
 	}
 	
 	@Override
@@ -100,7 +201,7 @@ public class DroolsTestExecutionListener extends DependencyInjectionTestExecutio
 				kieBase = this.kieContainer.getKieBase(kBaseAnn.value().trim());
 			}
 			Assert.notNull(kieBase, "KieBase must be present");
-			registerSpringBean(testContext.getApplicationContext(), kBaseAnn.value().trim(), kieBase);
+			registerSpringBean(testContext.getApplicationContext(), kBaseAnn.value().trim(), kieBase, true);
 		}
 	}
 	
@@ -116,10 +217,11 @@ public class DroolsTestExecutionListener extends DependencyInjectionTestExecutio
 				kieSession = getStatefulKieSessionFor(kSessionAnnValue);
 			}
 			
+			Assert.notNull(kieSession, "Stateful Kie session should be present");
+			this.statefulKieSessions.add(kieSession);
 			eventListenerProcessor(testContext, kieSession);
 			
-			Assert.notNull(kieSession, "Stateful Kie session should be present");
-			registerSpringBean(testContext.getApplicationContext(), kSessionAnnValue, kieSession);
+			registerSpringBean(testContext.getApplicationContext(), kSessionAnnValue, kieSession, false);
 		}
 	}
 	
@@ -138,7 +240,7 @@ public class DroolsTestExecutionListener extends DependencyInjectionTestExecutio
 			eventListenerProcessor(testContext, statelessKieSession);
 			
 			Assert.notNull(statelessKieSession, "Stateless Kie session should be present");
-			registerSpringBean(testContext.getApplicationContext(), statelessKSessionAnnValue, statelessKieSession);
+			registerSpringBean(testContext.getApplicationContext(), statelessKSessionAnnValue, statelessKieSession, true);
 		}
 	}
 
@@ -146,11 +248,24 @@ public class DroolsTestExecutionListener extends DependencyInjectionTestExecutio
 		EventListeners eventListeners = extractEventListenersContext(testContext);
 		if(eventListeners.enabled()){
 			if(StringUtils.isNotBlank(eventListeners.auditlogFileName())){
-				logger = kieServices.getLoggers().newFileLogger(session instanceof KieSession?(KieSession)session:(StatelessKieSession)session, "target/"+eventListeners.auditlogFileName());
+				if(eventListeners.binaryTrace()){
+					if(traceWriter == null){
+						traceFile = traceFile(testContext.getTestClass(), eventListeners.auditlogFileName());
+						traceWriter = new TraceWriter(traceFile);
+					}
+					SessionEventListeners.attach((KieRuntimeEventManager) session, traceWriter.getEventListener());
+				}else{
+					logger = kieServices.getLoggers().newFileLogger(session instanceof KieSession?(KieSession)session:(StatelessKieSession)session, "target/"+eventListeners.auditlogFileName());
+				}
 			}
 		}
 	}
 	
+	static Path traceFile(Class<?> testClass, String auditlogFileName) {
+		String processId = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+		return Paths.get("target", auditlogFileName + "-" + testClass.getName() + "-" + processId + ".bin");
+	}
+	
 	private String[] extractReleaseId(TestContext testContext) {
 		KReleaseId kReleaseId;
 		if(testContext.getTestClass().isAnnotationPresent(KReleaseId.class)){
@@ -187,15 +302,69 @@ public class DroolsTestExecutionListener extends DependencyInjectionTestExecutio
 				public String auditlogFileName() {
 					return "rules-trace";
 				}
+				
+				@Override
+				public boolean binaryTrace() {
+					return false;
+				}
 			};
 		}
 		return eventListeners;
 	}
 	
-	private void registerSpringBean(ApplicationContext applicationContext, String name, Object object){
+	/**
+	 * @param shareable whether test classes running in parallel may share the bean, see class comment
+	 */
+	private void registerSpringBean(ApplicationContext applicationContext, String name, Object object, boolean shareable){
 		ConfigurableApplicationContext configurableApplicationContext = (ConfigurableApplicationContext) applicationContext;
 		ConfigurableListableBeanFactory beanFactory = configurableApplicationContext.getBeanFactory();
-		beanFactory.registerSingleton(name, object);
+		if(isContainerCacheEnabled()){
+			registerSharedSpringBean(beanFactory, name, object, shareable);
+		}else{
+			if(beanFactory.containsSingleton(name) && beanFactory instanceof DefaultSingletonBeanRegistry){
+				((DefaultSingletonBeanRegistry) beanFactory).destroySingleton(name);
+			}
+			beanFactory.registerSingleton(name, object);
+		}
+		this.registeredBeanNames.add(name);
+	}
+	
+	private void registerSharedSpringBean(ConfigurableListableBeanFactory beanFactory, String name, Object object, boolean shareable){
+		synchronized(SHARED_BEANS){
+			SharedBeanKey key = new SharedBeanKey(beanFactory, name);
+			SharedBean sharedBean = SHARED_BEANS.get(key);
+			if(sharedBean == null){
+				if(beanFactory.containsSingleton(name) && beanFactory instanceof DefaultSingletonBeanRegistry){
+					((DefaultSingletonBeanRegistry) beanFactory).destroySingleton(name);
+				}
+				beanFactory.registerSingleton(name, object);
+				SHARED_BEANS.put(key, new SharedBean(this.releaseIdKey, shareable));
+			}else if(shareable && sharedBean.shareable && sharedBean.releaseId.equals(this.releaseIdKey)){
+				LOG.debug("Sharing bean {} with a test class running in parallel", name);
+				sharedBean.references++;
+			}else{
+				throw new IllegalStateException("Bean " + name + " is in use by another test class running in the same application context. "
+						+ "Use distinct session names or set " + CONTAINER_CACHE_PROPERTY + "=false");
+			}
+		}
+	}
+	
+	private void removeSpringBeans(TestContext testContext){
+		ConfigurableListableBeanFactory beanFactory = ((ConfigurableApplicationContext) testContext.getApplicationContext()).getBeanFactory();
+		synchronized(SHARED_BEANS){
+			for(String name: this.registeredBeanNames){
+				SharedBeanKey key = new SharedBeanKey(beanFactory, name);
+				SharedBean sharedBean = SHARED_BEANS.get(key);
+				if(sharedBean != null && --sharedBean.references == 0){
+					SHARED_BEANS.remove(key);
+					if(beanFactory instanceof DefaultSingletonBeanRegistry){
+						((DefaultSingletonBeanRegistry) beanFactory).destroySingleton(name);
+					}else{
+						testContext.markApplicationContextDirty(HierarchyMode.EXHAUSTIVE);
+					}
+				}
+			}
+		}
 	}
 	
 	private StatelessKieSession getDefaultStatelessKieSession(){
@@ -214,4 +383,39 @@ public class DroolsTestExecutionListener extends DependencyInjectionTestExecutio
 		return this.kieContainer.newKieSession(kieSessionName);
 	}
 	
+	private static final class SharedBeanKey {
+		private final ConfigurableListableBeanFactory beanFactory;
+		private final String name;
+		
+		private SharedBeanKey(ConfigurableListableBeanFactory beanFactory, String name) {
+			this.beanFactory = beanFactory;
+			this.name = name;
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(beanFactory) + name.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof SharedBeanKey)){
+				return false;
+			}
+			SharedBeanKey other = (SharedBeanKey) obj;
+			return beanFactory == other.beanFactory && name.equals(other.name);
+		}
+	}
+	
+	private static final class SharedBean {
+		private final String releaseId;
+		private final boolean shareable;
+		private int references = 1;
+		
+		private SharedBean(String releaseId, boolean shareable) {
+			this.releaseId = releaseId;
+			this.shareable = shareable;
+		}
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+package org.anair.drools.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Memory-mapped file of fixed size blocks used as a ring buffer of length prefixed records.
+ * Each block starts with a sequence number. When the last block is full, writing continues at the first block,
+ * so the file always holds the most recent records. Readers order blocks by sequence number.
+ * 
+ * @author anair
+ *
+ */
+final class MappedRingFile implements Closeable {
+	static final int MAGIC = 0x52545243;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 16;
+	static final int BLOCK_HEADER_SIZE = 8;
+	static final int RECORD_HEADER_SIZE = 4;
+	
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int blockSize;
+	private final int blockCount;
+	private long sequence = 0;
+	private int block = -1;
+	private int positionInBlock = 0;
+	
+	MappedRingFile(Path path, int blockSize, int blockCount) throws IOException {
+		this.blockSize = blockSize;
+		this.blockCount = blockCount;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.buffer = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) blockSize * blockCount);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, blockSize);
+		buffer.putInt(12, blockCount);
+	}
+	
+	/**
+	 * Append a record. The record must fit in a block with its length prefix and an end of block marker.
+	 */
+	void append(ByteBuffer record){
+		int length = record.remaining();
+		if(block < 0 || positionInBlock + RECORD_HEADER_SIZE + length + RECORD_HEADER_SIZE > blockSize){
+			nextBlock();
+		}
+		int offset = blockOffset(block) + positionInBlock;
+		buffer.putInt(offset, length);
+		buffer.position(offset + RECORD_HEADER_SIZE);
+		buffer.put(record);
+		positionInBlock += RECORD_HEADER_SIZE + length;
+		buffer.putInt(blockOffset(block) + positionInBlock, 0);
+	}
+	
+	private void nextBlock(){
+		block = (block + 1) % blockCount;
+		sequence++;
+		int offset = blockOffset(block);
+		buffer.putLong(offset, sequence);
+		buffer.putInt(offset + BLOCK_HEADER_SIZE, 0);
+		positionInBlock = BLOCK_HEADER_SIZE;
+	}
+	
+	private int blockOffset(int blockIndex){
+		return HEADER_SIZE + blockIndex * blockSize;
+	}
+	
+	void force(){
+		buffer.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		force();
+		channel.close();
+	}
+	
+	/**
+	 * Read records of a ring file, oldest first. A record length that does not fit in what is left of its block
+	 * ends the reading of that block.
+	 */
+	static void forEachRecord(Path path, Consumer<ByteBuffer> recordConsumer) throws IOException {
+		try(FileChannel readChannel = FileChannel.open(path, StandardOpenOption.READ)){
+			MappedByteBuffer readBuffer = readChannel.map(MapMode.READ_ONLY, 0, readChannel.size());
+			if(readBuffer.getInt(0) != MAGIC){
+				throw new IOException("Not a rules trace file: " + path);
+			}
+			int blockSize = readBuffer.getInt(8);
+			int blockCount = readBuffer.getInt(12);
+			if(blockSize <= BLOCK_HEADER_SIZE || blockCount <= 0
+					|| HEADER_SIZE + (long) blockSize * blockCount > readBuffer.capacity()){
+				throw new IOException("Corrupt rules trace file header: " + path);
+			}
+			
+			List<long[]> blocks = new ArrayList<>(blockCount);
+			for(int i=0;i<blockCount;i++){
+				long blockSequence = readBuffer.getLong(HEADER_SIZE + i * blockSize);
+				if(blockSequence > 0){
+					blocks.add(new long[]{blockSequence, i});
+				}
+			}
+			blocks.sort((a, b) -> Long.compare(a[0], b[0]));
+			
+			for(long[] sequenceAndBlock: blocks){
+				int blockStart = HEADER_SIZE + (int) sequenceAndBlock[1] * blockSize;
+				int position = BLOCK_HEADER_SIZE;
+				while(position + RECORD_HEADER_SIZE <= blockSize){
+					int length = readBuffer.getInt(blockStart + position);
+					if(length <= 0 || length > blockSize - position - RECORD_HEADER_SIZE){
+						// end of block marker, or a length torn by a crash: the rest of the block cannot be framed
+						break;
+					}
+					ByteBuffer record = readBuffer.duplicate();
+					record.position(blockStart + position + RECORD_HEADER_SIZE);
+					record.limit(blockStart + position + RECORD_HEADER_SIZE + length);
+					recordConsumer.accept(record.slice());
+					position += RECORD_HEADER_SIZE + length;
+				}
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,50 @@
+package org.anair.drools.trace;
+
+/**
+ * Working memory or activation event captured on the rule thread and encoded by the trace writer thread.
+ * Facts and declaration values are already rendered to capped text, so a queued event holds no reference to them.
+ * Event types match the Drools audit log event types.
+ * 
+ * @author anair
+ *
+ */
+final class TraceEvent {
+	static final byte INSERTED = 1;
+	static final byte UPDATED = 2;
+	static final byte RETRACTED = 3;
+	static final byte ACTIVATION_CREATED = 4;
+	static final byte ACTIVATION_CANCELLED = 5;
+	static final byte BEFORE_ACTIVATION_FIRE = 6;
+	static final byte AFTER_ACTIVATION_FIRE = 7;
+	
+	final byte type;
+	final long timestampMillis;
+	final long factId;
+	final String factText;
+	final String ruleName;
+	final long[] factIds;
+	final String declarations;
+	
+	private TraceEvent(byte type, long factId, String factText, String ruleName, long[] factIds, String declarations) {
+		this.type = type;
+		this.timestampMillis = System.currentTimeMillis();
+		this.factId = factId;
+		this.factText = factText;
+		this.ruleName = ruleName;
+		this.factIds = factIds;
+		this.declarations = declarations;
+	}
+	
+	static TraceEvent objectEvent(byte type, long factId, String factText){
+		return new TraceEvent(type, factId, factText, null, null, null);
+	}
+	
+	static TraceEvent activationEvent(byte type, String ruleName, long[] factIds, String declarations){
+		return new TraceEvent(type, 0, null, ruleName, factIds, declarations);
+	}
+	
+	boolean isObjectEvent(){
+		return type <= RETRACTED;
+	}
+	
+}
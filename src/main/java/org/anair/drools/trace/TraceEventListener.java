@@ -0,0 +1,146 @@
+package org.anair.drools.trace;
+
+import java.util.List;
+
+import org.drools.core.common.InternalFactHandle;
+import org.kie.api.event.rule.AfterMatchFiredEvent;
+import org.kie.api.event.rule.AgendaEventListener;
+import org.kie.api.event.rule.AgendaGroupPoppedEvent;
+import org.kie.api.event.rule.AgendaGroupPushedEvent;
+import org.kie.api.event.rule.BeforeMatchFiredEvent;
+import org.kie.api.event.rule.MatchCancelledEvent;
+import org.kie.api.event.rule.MatchCreatedEvent;
+import org.kie.api.event.rule.ObjectDeletedEvent;
+import org.kie.api.event.rule.ObjectInsertedEvent;
+import org.kie.api.event.rule.ObjectUpdatedEvent;
+import org.kie.api.event.rule.RuleFlowGroupActivatedEvent;
+import org.kie.api.event.rule.RuleFlowGroupDeactivatedEvent;
+import org.kie.api.event.rule.RuleRuntimeEventListener;
+import org.kie.api.runtime.rule.FactHandle;
+import org.kie.api.runtime.rule.Match;
+
+/**
+ * Record working memory and activation events to a TraceWriter.
+ * Facts and declaration values are converted to text on the rule thread, capped at TraceWriter.MAX_STRING_BYTES characters,
+ * so the trace shows a fact as it was at the event and queued events do not keep facts reachable.
+ * 
+ * @author anair
+ *
+ */
+public class TraceEventListener implements RuleRuntimeEventListener, AgendaEventListener {
+	
+	private final TraceWriter traceWriter;
+	
+	public TraceEventListener(TraceWriter traceWriter) {
+		this.traceWriter = traceWriter;
+	}
+
+	@Override
+	public void objectInserted(ObjectInsertedEvent event) {
+		traceWriter.record(TraceEvent.objectEvent(TraceEvent.INSERTED, factId(event.getFactHandle()), text(event.getObject())));
+	}
+
+	@Override
+	public void objectUpdated(ObjectUpdatedEvent event) {
+		traceWriter.record(TraceEvent.objectEvent(TraceEvent.UPDATED, factId(event.getFactHandle()), text(event.getObject())));
+	}
+
+	@Override
+	public void objectDeleted(ObjectDeletedEvent event) {
+		traceWriter.record(TraceEvent.objectEvent(TraceEvent.RETRACTED, factId(event.getFactHandle()), text(event.getOldObject())));
+	}
+
+	@Override
+	public void matchCreated(MatchCreatedEvent event) {
+		recordActivation(TraceEvent.ACTIVATION_CREATED, event.getMatch());
+	}
+
+	@Override
+	public void matchCancelled(MatchCancelledEvent event) {
+		recordActivation(TraceEvent.ACTIVATION_CANCELLED, event.getMatch());
+	}
+
+	@Override
+	public void beforeMatchFired(BeforeMatchFiredEvent event) {
+		recordActivation(TraceEvent.BEFORE_ACTIVATION_FIRE, event.getMatch());
+	}
+
+	@Override
+	public void afterMatchFired(AfterMatchFiredEvent event) {
+		recordActivation(TraceEvent.AFTER_ACTIVATION_FIRE, event.getMatch());
+	}
+
+	@Override
+	public void agendaGroupPopped(AgendaGroupPoppedEvent event) {
+	}
+
+	@Override
+	public void agendaGroupPushed(AgendaGroupPushedEvent event) {
+	}
+
+	@Override
+	public void beforeRuleFlowGroupActivated(RuleFlowGroupActivatedEvent event) {
+	}
+
+	@Override
+	public void afterRuleFlowGroupActivated(RuleFlowGroupActivatedEvent event) {
+	}
+
+	@Override
+	public void beforeRuleFlowGroupDeactivated(RuleFlowGroupDeactivatedEvent event) {
+	}
+
+	@Override
+	public void afterRuleFlowGroupDeactivated(RuleFlowGroupDeactivatedEvent event) {
+	}
+	
+	private void recordActivation(byte type, Match match){
+		List<? extends FactHandle> factHandles = match.getFactHandles();
+		long[] factIds = new long[factHandles.size()];
+		for(int i=0;i<factIds.length;i++){
+			factIds[i] = factId(factHandles.get(i));
+		}
+		traceWriter.record(TraceEvent.activationEvent(type, match.getRule().getName(), factIds, declarations(match)));
+	}
+	
+	private static String declarations(Match match){
+		StringBuilder declarations = new StringBuilder();
+		for(String declarationId: match.getDeclarationIds()){
+			if(declarations.length() > 0){
+				declarations.append("; ");
+			}
+			declarations.append(declarationId).append('=').append(text(match.getDeclarationValue(declarationId)));
+			if(declarations.length() >= TraceWriter.MAX_STRING_BYTES){
+				break;
+			}
+		}
+		return capped(declarations.toString());
+	}
+	
+	static String text(Object object){
+		try{
+			return capped(String.valueOf(object));
+		}catch(RuntimeException e){
+			return "<toString failed: " + e + ">";
+		}
+	}
+	
+	private static String capped(String text){
+		if(text.length() <= TraceWriter.MAX_STRING_BYTES){
+			return text;
+		}
+		int length = TraceWriter.MAX_STRING_BYTES;
+		if(Character.isHighSurrogate(text.charAt(length - 1))){
+			length--;
+		}
+		return text.substring(0, length);
+	}
+	
+	private static long factId(FactHandle factHandle){
+		if(factHandle instanceof InternalFactHandle){
+			return ((InternalFactHandle) factHandle).getId();
+		}
+		return -1;
+	}
+	
+}
@@ -0,0 +1,135 @@
+package org.anair.drools.trace;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Convert a binary rules trace file to the XML audit log format of the Drools Eclipse Audit view.
+ * 
+ * Usage: java org.anair.drools.trace.TraceFileConverter rules-trace.bin rules-trace.log
+ * 
+ * Records torn by a crash of the recording process are skipped.
+ * 
+ * @author anair
+ *
+ */
+public final class TraceFileConverter {
+	private static final String OBJECT_LOG_EVENT = "org.drools.core.audit.event.ObjectLogEvent";
+	private static final String ACTIVATION_LOG_EVENT = "org.drools.core.audit.event.ActivationLogEvent";
+	
+	private TraceFileConverter() {
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2){
+			throw new IllegalArgumentException("Usage: TraceFileConverter <trace file> <audit log file>");
+		}
+		toAuditLog(Paths.get(args[0]), Paths.get(args[1]));
+	}
+	
+	public static void toAuditLog(Path traceFile, Path auditLogFile) throws IOException {
+		try(BufferedWriter writer = Files.newBufferedWriter(auditLogFile, StandardCharsets.UTF_8)){
+			writer.write("<object-stream>\n");
+			try{
+				MappedRingFile.forEachRecord(traceFile, record -> writeEvent(writer, record));
+			}catch(UncheckedIOException e){
+				throw e.getCause();
+			}
+			writer.write("</object-stream>\n");
+		}
+	}
+	
+	private static void writeEvent(Writer writer, ByteBuffer record){
+		String event;
+		try{
+			event = toAuditLogEvent(record);
+		}catch(BufferUnderflowException e){
+			// corrupt record, e.g. a field length torn by a crash: skip it
+			return;
+		}
+		try{
+			writer.write(event);
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private static String toAuditLogEvent(ByteBuffer record){
+		StringWriter writer = new StringWriter();
+		try{
+			byte type = record.get();
+			record.getLong();
+			if(type <= TraceEvent.RETRACTED){
+				long factId = record.getLong();
+				String objectToString = getString(record);
+				writer.write("  <" + OBJECT_LOG_EVENT + ">\n");
+				writeElement(writer, "type", String.valueOf(type));
+				writeElement(writer, "factId", String.valueOf(factId));
+				writeElement(writer, "objectToString", objectToString);
+				writer.write("  </" + OBJECT_LOG_EVENT + ">\n");
+			}else{
+				String ruleName = getString(record);
+				int numberOfFactIds = record.getShort() & 0xFFFF;
+				StringBuilder factHandles = new StringBuilder();
+				for(int i=0;i<numberOfFactIds;i++){
+					if(i > 0){
+						factHandles.append(", ");
+					}
+					factHandles.append(record.getLong());
+				}
+				String declarations = getString(record);
+				writer.write("  <" + ACTIVATION_LOG_EVENT + ">\n");
+				writeElement(writer, "type", String.valueOf(type));
+				writeElement(writer, "activationId", ruleName + " [" + factHandles + "]");
+				writeElement(writer, "rule", ruleName);
+				writeElement(writer, "declarations", declarations);
+				writeElement(writer, "factHandles", factHandles.toString());
+				writer.write("  </" + ACTIVATION_LOG_EVENT + ">\n");
+			}
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+		return writer.toString();
+	}
+	
+	private static String getString(ByteBuffer record){
+		int length = record.getShort() & 0xFFFF;
+		if(length > record.remaining()){
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		record.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static void writeElement(Writer writer, String name, String value) throws IOException {
+		writer.write("    <" + name + ">");
+		writer.write(escape(value));
+		writer.write("</" + name + ">\n");
+	}
+	
+	private static String escape(String value){
+		StringBuilder escaped = new StringBuilder(value.length());
+		for(int i=0;i<value.length();i++){
+			char c = value.charAt(i);
+			switch(c){
+				case '<': escaped.append("&lt;"); break;
+				case '>': escaped.append("&gt;"); break;
+				case '&': escaped.append("&amp;"); break;
+				case '"': escaped.append("&quot;"); break;
+				default: escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+	
+}
@@ -0,0 +1,168 @@
+package org.anair.drools.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.anair.rules.exception.RulesSupportRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous writer of rules trace events to a memory-mapped ring file in a compact binary format.
+ * Rule threads only enqueue events. A single daemon thread encodes them and writes them to the file.
+ * Events are dropped, not blocked on, when the queue is full. The file keeps the most recent events
+ * and is converted to a Drools audit log with TraceFileConverter.
+ * 
+ * @author anair
+ *
+ */
+public class TraceWriter implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(TraceWriter.class);
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+	public static final int DEFAULT_BLOCK_COUNT = 256;
+	public static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+	static final int MAX_STRING_BYTES = 2048;
+	static final int MAX_FACT_IDS = 256;
+	private static final int MIN_BLOCK_SIZE = 16 * 1024;
+	private static final int BATCH_SIZE = 1024;
+	
+	private final MappedRingFile ringFile;
+	private final BlockingQueue<TraceEvent> queue;
+	private final TraceEventListener eventListener;
+	private final ByteBuffer recordBuffer = ByteBuffer.allocate(8 * 1024);
+	private final LongAdder droppedEvents = new LongAdder();
+	private final LongAdder writtenEvents = new LongAdder();
+	private final Thread writerThread;
+	private volatile boolean closed = false;
+	
+	public TraceWriter(Path traceFile) {
+		this(traceFile, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_COUNT, DEFAULT_QUEUE_CAPACITY);
+	}
+	
+	public TraceWriter(Path traceFile, int blockSize, int blockCount, int queueCapacity) {
+		if(blockSize < MIN_BLOCK_SIZE || blockCount < 1){
+			throw new IllegalArgumentException("Block size must be at least " + MIN_BLOCK_SIZE + " bytes and block count at least 1");
+		}
+		try{
+			this.ringFile = new MappedRingFile(traceFile, blockSize, blockCount);
+		}catch(IOException e){
+			throw new RulesSupportRuntimeException("Cannot open rules trace file: " + traceFile, e);
+		}
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.eventListener = new TraceEventListener(this);
+		this.writerThread = new Thread(this::writeLoop, "rules-trace-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+	
+	/**
+	 * Listener that records events of the sessions it is added to. Safe to add to many sessions.
+	 */
+	public TraceEventListener getEventListener() {
+		return eventListener;
+	}
+	
+	void record(TraceEvent event){
+		if(closed || !queue.offer(event)){
+			droppedEvents.increment();
+		}
+	}
+	
+	public long getDroppedEventCount() {
+		return droppedEvents.sum();
+	}
+	
+	public long getWrittenEventCount() {
+		return writtenEvents.sum();
+	}
+	
+	private void writeLoop(){
+		List<TraceEvent> batch = new ArrayList<>(BATCH_SIZE);
+		while(!closed || !queue.isEmpty()){
+			try{
+				TraceEvent event = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(event == null){
+					continue;
+				}
+				batch.add(event);
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				for(TraceEvent batchEvent: batch){
+					write(batchEvent);
+				}
+				writtenEvents.add(batch.size());
+				batch.clear();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				return;
+			}catch(RuntimeException e){
+				LOG.warn("Failed to write rules trace events", e);
+				batch.clear();
+			}
+		}
+	}
+	
+	private void write(TraceEvent event){
+		recordBuffer.clear();
+		recordBuffer.put(event.type);
+		recordBuffer.putLong(event.timestampMillis);
+		if(event.isObjectEvent()){
+			recordBuffer.putLong(event.factId);
+			putString(event.factText);
+		}else{
+			putString(event.ruleName);
+			int numberOfFactIds = Math.min(event.factIds.length, MAX_FACT_IDS);
+			recordBuffer.putShort((short) numberOfFactIds);
+			for(int i=0;i<numberOfFactIds;i++){
+				recordBuffer.putLong(event.factIds[i]);
+			}
+			putString(event.declarations);
+		}
+		recordBuffer.flip();
+		ringFile.append(recordBuffer);
+	}
+	
+	/**
+	 * Write at most MAX_STRING_BYTES of the UTF-8 encoded value, cut at a character boundary.
+	 */
+	private void putString(String value){
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int length = bytes.length;
+		if(length > MAX_STRING_BYTES){
+			length = MAX_STRING_BYTES;
+			while(length > 0 && (bytes[length] & 0xC0) == 0x80){
+				length--;
+			}
+		}
+		recordBuffer.putShort((short) length);
+		recordBuffer.put(bytes, 0, length);
+	}
+
+	/**
+	 * Write queued events and flush the ring file.
+	 */
+	@Override
+	public void close() {
+		if(closed){
+			return;
+		}
+		closed = true;
+		try{
+			writerThread.join(TimeUnit.SECONDS.toMillis(10));
+			ringFile.close();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}catch(IOException e){
+			throw new RulesSupportRuntimeException("Cannot close rules trace file", e);
+		}
+	}
+	
+}
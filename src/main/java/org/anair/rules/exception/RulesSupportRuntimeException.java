@@ -8,4 +8,8 @@ public class RulesSupportRuntimeException extends RuntimeException {
 		super(errorMessage);
 	}
 
+	public RulesSupportRuntimeException(String errorMessage, Throwable cause) {
+		super(errorMessage, cause);
+	}
+
 }
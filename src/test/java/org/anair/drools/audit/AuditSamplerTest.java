@@ -0,0 +1,43 @@
+package org.anair.drools.audit;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class AuditSamplerTest {
+	
+	@Test
+	public void everyNth_SamplesFirstOfEveryN() {
+		AuditSampler auditSampler = AuditSampler.everyNth(3);
+		
+		assertTrue(auditSampler.sample(null));
+		assertFalse(auditSampler.sample(null));
+		assertFalse(auditSampler.sample(null));
+		assertTrue(auditSampler.sample(null));
+	}
+	
+	@Test
+	public void perSecond_StopsSamplingOnceBudgetIsSpent() {
+		AuditSampler auditSampler = AuditSampler.perSecond(2);
+		
+		int sampled = 0;
+		for(int i=0;i<10;i++){
+			if(auditSampler.sample(null)){
+				sampled++;
+			}
+		}
+		assertTrue(sampled >= 2 && sampled <= 4);
+	}
+	
+	@Test
+	public void contextKey_SamplesTaggedExecutions() {
+		AuditSampler auditSampler = AuditSampler.everyNth(1000).or(AuditSampler.contextKey("audit"));
+		
+		assertTrue(auditSampler.sample(null));
+		assertFalse(auditSampler.sample(Collections.singletonMap("user", "USER1")));
+		assertTrue(auditSampler.sample(Collections.singletonMap("audit", "true")));
+	}
+
+}
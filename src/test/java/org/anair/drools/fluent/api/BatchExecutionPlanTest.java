@@ -0,0 +1,95 @@
+package org.anair.drools.fluent.api;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.command.BatchExecutionCommand;
+import org.kie.api.command.Command;
+import org.kie.api.command.KieCommands;
+
+@SuppressWarnings("rawtypes")
+public class BatchExecutionPlanTest {
+	
+	private KieCommands mockKieCommands;
+	private Command mockFocusGroup1;
+	private Command mockFocusGroup2;
+	private Command mockFireAllRules;
+	private Command mockInsertElements;
+	private BatchExecutionCommand mockBatchExecutionCommand;
+	
+	@Before
+	public void setUp() {
+		mockKieCommands = createMock(KieCommands.class);
+		mockFocusGroup1 = createMock(Command.class);
+		mockFocusGroup2 = createMock(Command.class);
+		mockFireAllRules = createMock(Command.class);
+		mockInsertElements = createMock(Command.class);
+		mockBatchExecutionCommand = createMock(BatchExecutionCommand.class);
+	}
+	
+	@After
+	public void tearDown() {
+		BatchExecutionPlan.clearCachedPlans();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void bind_AgendaGroupFocusBuiltOnceAndApplied() {
+		List<Object> facts = Arrays.asList("fact1", "fact2");
+		expect(mockKieCommands.newAgendaGroupSetFocus("plan-group2")).andReturn(mockFocusGroup2).once();
+		expect(mockKieCommands.newAgendaGroupSetFocus("plan-group1")).andReturn(mockFocusGroup1).once();
+		expect(mockKieCommands.newFireAllRules(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(mockFireAllRules).once();
+		expect(mockKieCommands.newInsertElements(facts)).andReturn(mockInsertElements).times(2);
+		expect(mockKieCommands.newBatchExecution(Arrays.asList(mockInsertElements, mockFocusGroup2, mockFocusGroup1, mockFireAllRules)))
+			.andReturn(mockBatchExecutionCommand).times(2);
+		replay(mockKieCommands);
+		
+		String[] agendaGroupNames = {"plan-group1", "plan-group2"};
+		BatchExecutionPlan plan = BatchExecutionPlan.forAgendaGroups(mockKieCommands, agendaGroupNames, RulesExecution.NUMBER_OF_RULES_FIRED);
+		assertSame(mockBatchExecutionCommand, plan.bind(null, facts));
+		
+		BatchExecutionPlan cachedPlan = BatchExecutionPlan.forAgendaGroups(mockKieCommands, agendaGroupNames.clone(), RulesExecution.NUMBER_OF_RULES_FIRED);
+		assertSame(plan, cachedPlan);
+		assertSame(mockBatchExecutionCommand, cachedPlan.bind(Collections.emptyMap(), facts));
+		
+		verify(mockKieCommands);
+	}
+
+	@Test
+	public void forAgendaGroups_OtherOutIdentifier_OtherPlan() {
+		expect(mockKieCommands.newAgendaGroupSetFocus("plan-group3")).andReturn(mockFocusGroup1).times(2);
+		expect(mockKieCommands.newFireAllRules("firedRules1")).andReturn(mockFireAllRules);
+		expect(mockKieCommands.newFireAllRules("firedRules2")).andReturn(mockFireAllRules);
+		replay(mockKieCommands);
+		
+		String[] agendaGroupNames = {"plan-group3"};
+		BatchExecutionPlan plan = BatchExecutionPlan.forAgendaGroups(mockKieCommands, agendaGroupNames, "firedRules1");
+		BatchExecutionPlan otherPlan = BatchExecutionPlan.forAgendaGroups(mockKieCommands, agendaGroupNames, "firedRules2");
+		
+		assertNotSame(plan, otherPlan);
+		verify(mockKieCommands);
+	}
+	
+	@Test
+	public void forAgendaGroups_CacheFull_PlanNotCached() {
+		KieCommands otherKieCommands = createMock(KieCommands.class);
+		expect(otherKieCommands.newFireAllRules(anyString())).andReturn(mockFireAllRules).anyTimes();
+		replay(otherKieCommands);
+		
+		for(int i=0;BatchExecutionPlan.getCachedPlanCount() < BatchExecutionPlan.MAX_CACHED_PLANS;i++){
+			BatchExecutionPlan.forAgendaGroups(otherKieCommands, null, "firedRules-" + i);
+		}
+		BatchExecutionPlan plan = BatchExecutionPlan.forAgendaGroups(otherKieCommands, null, "firedRules-overflow");
+		
+		assertNotSame(plan, BatchExecutionPlan.forAgendaGroups(otherKieCommands, null, "firedRules-overflow"));
+		assertEquals(BatchExecutionPlan.MAX_CACHED_PLANS, BatchExecutionPlan.getCachedPlanCount());
+	}
+
+}
@@ -0,0 +1,168 @@
+package org.anair.drools.fluent.api;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.anair.drools.model.FiredRulesReturnValues;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.command.BatchExecutionCommand;
+import org.kie.api.definition.rule.Rule;
+import org.kie.api.event.rule.AfterMatchFiredEvent;
+import org.kie.api.event.rule.AgendaEventListener;
+import org.kie.api.runtime.ExecutionResults;
+import org.kie.api.runtime.StatelessKieSession;
+import org.kie.api.runtime.rule.Match;
+
+public class CoalescingRulesExecutorTest {
+	
+	private StatelessKieSession mockStatelessKieSession;
+	private ExecutionResults mockExecutionResults;
+	private CoalescingRulesExecutor coalescingRulesExecutor;
+	
+	@Before
+	public void setUp() {
+		mockStatelessKieSession = createMock(StatelessKieSession.class);
+		mockExecutionResults = createMock(ExecutionResults.class);
+		expect(mockExecutionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(1).anyTimes();
+		coalescingRulesExecutor = new CoalescingRulesExecutor(() -> mockStatelessKieSession, Runnable::run);
+	}
+	
+	@After
+	public void tearDown() {
+		coalescingRulesExecutor.shutdown();
+	}
+
+	@Test
+	public void submit_ConcurrentRequests_FiredOnceAndSplitByRequest() throws Exception {
+		String fact1 = new String("fact1");
+		String fact2 = new String("fact2");
+		Rule mockRule = createMock(Rule.class);
+		expect(mockRule.getName()).andReturn("rule1").anyTimes();
+		Match mockMatch = createMock(Match.class);
+		expect(mockMatch.getObjects()).andReturn(Arrays.<Object>asList(fact1)).anyTimes();
+		expect(mockMatch.getRule()).andReturn(mockRule).anyTimes();
+		AfterMatchFiredEvent mockEvent = createMock(AfterMatchFiredEvent.class);
+		expect(mockEvent.getMatch()).andReturn(mockMatch).anyTimes();
+		
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andAnswer(() -> {
+			((AgendaEventListener) RulesExecutionTest.executionEventListeners(getCurrentArguments()[0]).get(0)).afterMatchFired(mockEvent);
+			return mockExecutionResults;
+		});
+		replay(mockStatelessKieSession, mockExecutionResults, mockRule, mockMatch, mockEvent);
+		
+		coalescingRulesExecutor.setWindow(1, TimeUnit.SECONDS);
+		coalescingRulesExecutor.setMaxBatchSize(2);
+		coalescingRulesExecutor.start();
+		CompletableFuture<FiredRulesReturnValues> request1 = coalescingRulesExecutor.submit(fact1);
+		CompletableFuture<FiredRulesReturnValues> request2 = coalescingRulesExecutor.submit(fact2);
+		
+		assertEquals(1, request1.get(5, TimeUnit.SECONDS).getNumberOfRulesFired().intValue());
+		assertEquals(Arrays.asList("rule1"), request1.get().getExecutedRules());
+		assertEquals(0, request2.get(5, TimeUnit.SECONDS).getNumberOfRulesFired().intValue());
+		verify(mockStatelessKieSession, mockExecutionResults);
+	}
+	
+	@Test
+	public void submit_ExecutionFails_FailsEveryRequestOfBatch() throws Exception {
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andThrow(new IllegalStateException("rule failed"));
+		replay(mockStatelessKieSession);
+		
+		coalescingRulesExecutor.setWindow(1, TimeUnit.SECONDS);
+		coalescingRulesExecutor.setMaxBatchSize(2);
+		coalescingRulesExecutor.start();
+		CompletableFuture<FiredRulesReturnValues> request1 = coalescingRulesExecutor.submit("fact1");
+		CompletableFuture<FiredRulesReturnValues> request2 = coalescingRulesExecutor.submit("fact2");
+		
+		for(CompletableFuture<FiredRulesReturnValues> request: Arrays.asList(request1, request2)){
+			try{
+				request.get(5, TimeUnit.SECONDS);
+				fail("Expected rules execution failure");
+			}catch(ExecutionException e){
+				assertEquals("rule failed", e.getCause().getMessage());
+			}
+		}
+		verify(mockStatelessKieSession);
+	}
+	
+	@Test
+	public void submit_AfterShutdown_Rejected() throws Exception {
+		coalescingRulesExecutor.start();
+		coalescingRulesExecutor.shutdown();
+		
+		try{
+			coalescingRulesExecutor.submit("fact1").get();
+			fail("Expected rejection");
+		}catch(ExecutionException e){
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+	
+	@Test
+	public void submit_SameFactInTwoRequests_AttributedToBoth() throws Exception {
+		String sharedFact = new String("shared");
+		Rule mockRule = createMock(Rule.class);
+		expect(mockRule.getName()).andReturn("rule1").anyTimes();
+		Match mockMatch = createMock(Match.class);
+		expect(mockMatch.getObjects()).andReturn(Arrays.<Object>asList(sharedFact)).anyTimes();
+		expect(mockMatch.getRule()).andReturn(mockRule).anyTimes();
+		AfterMatchFiredEvent mockEvent = createMock(AfterMatchFiredEvent.class);
+		expect(mockEvent.getMatch()).andReturn(mockMatch).anyTimes();
+		
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andAnswer(() -> {
+			((AgendaEventListener) RulesExecutionTest.executionEventListeners(getCurrentArguments()[0]).get(0)).afterMatchFired(mockEvent);
+			return mockExecutionResults;
+		});
+		replay(mockStatelessKieSession, mockExecutionResults, mockRule, mockMatch, mockEvent);
+		
+		coalescingRulesExecutor.setWindow(1, TimeUnit.SECONDS);
+		coalescingRulesExecutor.setMaxBatchSize(2);
+		coalescingRulesExecutor.start();
+		CompletableFuture<FiredRulesReturnValues> request1 = coalescingRulesExecutor.submit(sharedFact);
+		CompletableFuture<FiredRulesReturnValues> request2 = coalescingRulesExecutor.submit(sharedFact);
+		
+		assertEquals(1, request1.get(5, TimeUnit.SECONDS).getNumberOfRulesFired().intValue());
+		assertEquals(1, request2.get(5, TimeUnit.SECONDS).getNumberOfRulesFired().intValue());
+		verify(mockStatelessKieSession, mockExecutionResults);
+	}
+	
+	@Test
+	public void shutdown_Timeout_RejectsQueuedRequests() throws Exception {
+		CountDownLatch firing = new CountDownLatch(1);
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andAnswer(() -> {
+			firing.countDown();
+			try{
+				Thread.sleep(TimeUnit.SECONDS.toMillis(5));
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			return mockExecutionResults;
+		});
+		replay(mockStatelessKieSession, mockExecutionResults);
+		
+		coalescingRulesExecutor.setWindow(0, TimeUnit.MILLISECONDS);
+		coalescingRulesExecutor.setShutdownTimeout(50, TimeUnit.MILLISECONDS);
+		coalescingRulesExecutor.start();
+		CompletableFuture<FiredRulesReturnValues> request1 = coalescingRulesExecutor.submit("fact1");
+		assertTrue(firing.await(5, TimeUnit.SECONDS));
+		CompletableFuture<FiredRulesReturnValues> request2 = coalescingRulesExecutor.submit("fact2");
+		coalescingRulesExecutor.shutdown();
+		
+		assertNotNull(request1.get(5, TimeUnit.SECONDS));
+		try{
+			request2.get(5, TimeUnit.SECONDS);
+			fail("Expected rejection");
+		}catch(ExecutionException e){
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+
+}
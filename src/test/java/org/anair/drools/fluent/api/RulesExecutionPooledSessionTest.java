@@ -0,0 +1,174 @@
+package org.anair.drools.fluent.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.anair.drools.model.ExecutionOutcome;
+import org.anair.drools.model.FiredRulesReturnValues;
+import org.anair.drools.provider.container.KieContainerProviderImpl;
+import org.anair.drools.provider.session.KieSessionProviderImpl;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.Message.Level;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.builder.model.KieBaseModel;
+import org.kie.api.builder.model.KieModuleModel;
+import org.kie.api.builder.model.KieSessionModel.KieSessionType;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieContainerSessionsPool;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.StatelessKieSession;
+
+public class RulesExecutionPooledSessionTest {
+	
+	private static final String RELEASE_ID = "org.anair.drools:pooled-session-test:1.0.0";
+	private static final String SESSION_NAME = "pooled.session";
+	private static final String STATELESS_SESSION_NAME = "pooled.stateless.session";
+	private static final String RULES = "package org.anair.drools.pooled\n"
+			+ "global java.util.List results\n"
+			+ "rule \"collect\"\n"
+			+ "when\n"
+			+ "	$fact : String()\n"
+			+ "then\n"
+			+ "	results.add($fact);\n"
+			+ "end\n"
+			+ "rule \"unfocused\"\n"
+			+ "agenda-group \"unfocused\"\n"
+			+ "when\n"
+			+ "	$fact : String()\n"
+			+ "then\n"
+			+ "	results.add($fact);\n"
+			+ "end\n";
+	
+	private static KieContainer kieContainer;
+	
+	@BeforeClass
+	public static void buildKieContainer() {
+		KieServices kieServices = KieServices.Factory.get();
+		ReleaseId releaseId = kieServices.newReleaseId("org.anair.drools", "pooled-session-test", "1.0.0");
+		
+		KieModuleModel kieModuleModel = kieServices.newKieModuleModel();
+		KieBaseModel kieBaseModel = kieModuleModel.newKieBaseModel("pooled.kbase").setDefault(true).addPackage("org.anair.drools.pooled");
+		kieBaseModel.newKieSessionModel(SESSION_NAME).setType(KieSessionType.STATEFUL);
+		kieBaseModel.newKieSessionModel(STATELESS_SESSION_NAME).setType(KieSessionType.STATELESS);
+		
+		KieFileSystem kieFileSystem = kieServices.newKieFileSystem();
+		kieFileSystem.generateAndWritePomXML(releaseId);
+		kieFileSystem.writeKModuleXML(kieModuleModel.toXML());
+		kieFileSystem.write("src/main/resources/org/anair/drools/pooled/pooled.drl", RULES);
+		
+		KieBuilder kieBuilder = kieServices.newKieBuilder(kieFileSystem).buildAll();
+		assertTrue(kieBuilder.getResults().getMessages(Level.ERROR).toString(), !kieBuilder.getResults().hasMessages(Level.ERROR));
+		kieContainer = kieServices.newKieContainer(releaseId);
+	}
+	
+	@AfterClass
+	public static void disposeKieContainer() {
+		kieContainer.dispose();
+	}
+
+	@Test
+	public void close_OnPooledSession_NextBorrowerGetsEmptySession() {
+		KieContainerSessionsPool sessionsPool = kieContainer.newKieSessionsPool(1);
+		try{
+			KieSession kieSession = sessionsPool.newKieSession(SESSION_NAME);
+			List<Object> results = new ArrayList<>();
+			try(RulesExecution rulesExecution = new RulesExecution(kieSession)){
+				rulesExecution
+					.enableListeners(false)
+					.addFacts("fact1", "fact2")
+					.addGlobal("results", results)
+					.fireRules();
+			}
+			assertEquals(Arrays.asList("fact1", "fact2"), sortedCopy(results));
+			
+			KieSession reusedKieSession = sessionsPool.newKieSession(SESSION_NAME);
+			assertSame(kieSession, reusedKieSession);
+			assertTrue(reusedKieSession.getFactHandles().isEmpty());
+			assertNull(reusedKieSession.getGlobal("results"));
+			reusedKieSession.dispose();
+		}finally{
+			sessionsPool.shutdown();
+		}
+	}
+	
+	@Test
+	public void fireRulesInParallel_OnPooledStatelessSession_FiresEveryPartition() {
+		KieSessionProviderImpl kieSessionProvider = new KieSessionProviderImpl(new KieContainerProviderImpl());
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		try{
+			SessionBuilder sessionBuilder = new SessionBuilder(kieSessionProvider).forKnowledgeModule(RELEASE_ID).sessionPoolSize(1);
+			StatelessKieSession statelessKieSession = sessionBuilder.fetchStatelessKieSession(STATELESS_SESSION_NAME);
+			assertSame(statelessKieSession, sessionBuilder.fetchStatelessKieSession(STATELESS_SESSION_NAME));
+			List<Object> results = Collections.synchronizedList(new ArrayList<>());
+			
+			FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(statelessKieSession)
+				.addFacts("fact1", "fact2", "fact3", "fact4", "fact5")
+				.addGlobal("results", results)
+				.fireRulesInParallel(2, executorService);
+			
+			assertEquals(5, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+			assertEquals(3, firedRulesReturnValues.getPartitionResults().size());
+			assertEquals(Arrays.asList("fact1", "fact2", "fact3", "fact4", "fact5"), sortedCopy(results));
+		}finally{
+			executorService.shutdown();
+			kieSessionProvider.shutdown();
+		}
+	}
+	
+	@Test
+	public void fireRules_MaxRulesFiredWithMatchesInUnfocusedAgendaGroup_Completed() {
+		List<Object> results = new ArrayList<>();
+		FiredRulesReturnValues firedRulesReturnValues;
+		try(RulesExecution rulesExecution = new RulesExecution(kieContainer.newKieSession(SESSION_NAME))){
+			firedRulesReturnValues = rulesExecution
+				.enableListeners(false)
+				.addFacts("fact1", "fact2")
+				.addGlobal("results", results)
+				.maxRulesFired(2)
+				.fireRules();
+		}
+		
+		assertEquals(2, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		assertEquals(ExecutionOutcome.COMPLETED, firedRulesReturnValues.getExecutionOutcome());
+	}
+	
+	@Test
+	public void fireRules_MaxRulesFiredWithMatchesLeft_LimitReached() {
+		List<Object> results = new ArrayList<>();
+		FiredRulesReturnValues firedRulesReturnValues;
+		try(RulesExecution rulesExecution = new RulesExecution(kieContainer.newKieSession(SESSION_NAME))){
+			firedRulesReturnValues = rulesExecution
+				.enableListeners(false)
+				.addFacts("fact1", "fact2", "fact3")
+				.addGlobal("results", results)
+				.maxRulesFired(2)
+				.fireRules();
+		}
+		
+		assertEquals(2, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		assertEquals(2, results.size());
+		assertEquals(ExecutionOutcome.LIMIT_REACHED, firedRulesReturnValues.getExecutionOutcome());
+	}
+	
+	private static List<Object> sortedCopy(List<Object> results) {
+		List<Object> sorted = new ArrayList<>(results);
+		sorted.sort((first, second) -> first.toString().compareTo(second.toString()));
+		return sorted;
+	}
+	
+}
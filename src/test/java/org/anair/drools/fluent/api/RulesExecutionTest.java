@@ -5,24 +5,46 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EventListener;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
+import org.anair.drools.metrics.MetricsAgendaEventListener;
+import org.anair.drools.metrics.RulesMetrics;
+import org.anair.drools.model.ExecutionOutcome;
 import org.anair.drools.model.FiredRulesReturnValues;
+import org.drools.core.command.runtime.BatchExecutionCommandImpl;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.junit.Before;
 import org.junit.Test;
 import org.kie.api.command.BatchExecutionCommand;
+import org.kie.api.command.Command;
+import org.kie.api.event.KieRuntimeEventManager;
 import org.kie.api.event.process.ProcessEventListener;
 import org.kie.api.event.rule.AgendaEventListener;
 import org.kie.api.event.rule.RuleRuntimeEventListener;
+import org.kie.api.runtime.ClassObjectFilter;
 import org.kie.api.runtime.ExecutionResults;
 import org.kie.api.runtime.KieSession;
 import org.kie.api.runtime.StatelessKieSession;
 import org.kie.api.runtime.rule.Agenda;
+import org.kie.api.runtime.rule.AgendaFilter;
 import org.kie.api.runtime.rule.AgendaGroup;
 import org.kie.api.runtime.rule.FactHandle;
+import org.kie.api.runtime.rule.Match;
+import org.slf4j.MDC;
 
 
 public class RulesExecutionTest {
@@ -47,6 +69,11 @@ public class RulesExecutionTest {
 		mockAgendaEventListener = createMock(AgendaEventListener.class);
 		mockProcessEventListener = createMock(ProcessEventListener.class);
 		mockRuleRuntimeEventListener = createMock(RuleRuntimeEventListener.class);
+		for(KieRuntimeEventManager session: Arrays.asList(mockKieSession, mockStatelessKieSession)){
+			expect(session.getAgendaEventListeners()).andStubReturn(Collections.emptyList());
+			expect(session.getRuleRuntimeEventListeners()).andStubReturn(Collections.emptyList());
+			expect(session.getProcessEventListeners()).andStubReturn(Collections.emptyList());
+		}
 	}
 
 	@Test
@@ -54,6 +81,7 @@ public class RulesExecutionTest {
 		RulesExecution rulesExecution = new RulesExecution(mockStatelessKieSession);
 		
 		mockStatelessKieSession.addEventListener(isA(AgendaEventListener.class));
+		mockStatelessKieSession.removeEventListener(isA(AgendaEventListener.class));
 		mockStatelessKieSession.execute(Arrays.asList("fact1", "fact2"));
 		expectLastCall();
 		replay(mockStatelessKieSession);
@@ -69,7 +97,9 @@ public class RulesExecutionTest {
 	@Test
 	public void fireRules_OnStatelessSession_AllConfiguration() {
 		mockStatelessKieSession.addEventListener(mockAgendaEventListener);
+		mockStatelessKieSession.removeEventListener(mockAgendaEventListener);
 		mockStatelessKieSession.addEventListener(isA(AgendaEventListener.class));
+		mockStatelessKieSession.removeEventListener(isA(AgendaEventListener.class));
 		mockStatelessKieSession.setGlobal("g1", "g1");
 		mockStatelessKieSession.setGlobal("g2", "g2");
 		mockStatelessKieSession.execute(Arrays.asList("fact1", "fact2"));
@@ -139,6 +169,7 @@ public class RulesExecutionTest {
 		expect(mockKieSession.insert("fact1")).andStubReturn(mockFactHandle);
 		expect(mockKieSession.insert("fact2")).andStubReturn(mockFactHandle);
 		mockKieSession.addEventListener(isA(AgendaEventListener.class));
+		mockKieSession.removeEventListener(isA(AgendaEventListener.class));
 		expect(mockKieSession.fireAllRules()).andReturn(10);
 		replay(mockKieSession, mockFactHandle);
 		
@@ -155,9 +186,13 @@ public class RulesExecutionTest {
 	@Test
 	public void fireRules_OnStatefulSession_AllConfiguration() {
 		mockKieSession.addEventListener(mockAgendaEventListener);
+		mockKieSession.removeEventListener(mockAgendaEventListener);
 		mockKieSession.addEventListener(mockProcessEventListener);
+		mockKieSession.removeEventListener(mockProcessEventListener);
 		mockKieSession.addEventListener(mockRuleRuntimeEventListener);
+		mockKieSession.removeEventListener(mockRuleRuntimeEventListener);
 		mockKieSession.addEventListener(isA(AgendaEventListener.class));
+		mockKieSession.removeEventListener(isA(AgendaEventListener.class));
 		
 		mockKieSession.setGlobal("g1", "g1");
 		mockKieSession.setGlobal("g2", "g2");
@@ -194,7 +229,6 @@ public class RulesExecutionTest {
 	public void fireRules_OnStatelessSession_BatchExecution_MinimalConfiguration() {
 		ExecutionResults mockExectionResults = createMock(ExecutionResults.class);
 		expect(mockExectionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(10);
-		mockStatelessKieSession.addEventListener(isA(AgendaEventListener.class));
 		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExectionResults);
 		replay(mockStatelessKieSession, mockExectionResults);
 		
@@ -209,9 +243,7 @@ public class RulesExecutionTest {
 	
 	@Test
 	public void fireRules_OnStatelessSession_BatchExecution_AllConfiguration() {
-		mockStatelessKieSession.addEventListener(mockAgendaEventListener);
 		ExecutionResults mockExectionResults = createMock(ExecutionResults.class);
-		mockStatelessKieSession.addEventListener(isA(AgendaEventListener.class));
 		expect(mockExectionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(10);
 		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExectionResults);
 		replay(mockStatelessKieSession, mockExectionResults);
@@ -238,4 +270,774 @@ public class RulesExecutionTest {
 			.fireRules();
 	}
 
+	@Test
+	public void fireRulesInParallel_OnStatelessSession_MergesPartitionResults() {
+		ExecutionResults mockExectionResults = createMock(ExecutionResults.class);
+		expect(mockExectionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(2).times(3);
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExectionResults).times(3);
+		replay(mockStatelessKieSession, mockExectionResults);
+		
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockStatelessKieSession)
+			.addFacts("fact1", "fact2", "fact3", "fact4", "fact5")
+			.addGlobal("g1", "g1")
+			.forAgendaGroups("group1")
+			.fireRulesInParallel(2, executorService);
+		executorService.shutdown();
+		
+		verify(mockStatelessKieSession, mockExectionResults);
+		
+		assertEquals(6, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		assertEquals(3, firedRulesReturnValues.getPartitionResults().size());
+	}
+	
+	@Test(expected=IllegalAccessError.class)
+	public void fireRulesInParallel_NoFact() {
+		new RulesExecution(mockStatelessKieSession)
+			.fireRulesInParallel(1);
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void fireRulesInParallel_OnStatefulSession() {
+		new RulesExecution(mockKieSession)
+			.addFacts("fact1", "fact2")
+			.fireRulesInParallel(1);
+	}
+
+	@Test
+	public void fireRules_OnSharedStatelessSession_ListenersAddedByBatch() {
+		ExecutionResults mockExectionResults = createMock(ExecutionResults.class);
+		expect(mockExectionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(1).times(2);
+		Capture<BatchExecutionCommand> batchExecutionCommands = newCapture(CaptureType.ALL);
+		expect(mockStatelessKieSession.execute(capture(batchExecutionCommands))).andReturn(mockExectionResults).times(2);
+		replay(mockStatelessKieSession, mockExectionResults);
+		
+		for(int i=0;i<2;i++){
+			new RulesExecution(mockStatelessKieSession)
+				.addFacts("fact1")
+				.addEventListeners(mockAgendaEventListener, mockAgendaEventListener)
+				.fireRules();
+		}
+		
+		verify(mockStatelessKieSession, mockExectionResults);
+		for(BatchExecutionCommand batchExecutionCommand: batchExecutionCommands.getValues()){
+			List<EventListener> executionEventListeners = executionEventListeners(batchExecutionCommand);
+			assertEquals(2, executionEventListeners.size());
+			assertSame(mockAgendaEventListener, executionEventListeners.get(0));
+		}
+	}
+	
+	/**
+	 * Listeners the batch adds to the working memory of the call.
+	 */
+	static List<EventListener> executionEventListeners(Object batchExecutionCommand) {
+		for(Command<?> command: ((BatchExecutionCommandImpl) batchExecutionCommand).getCommands()){
+			if(command instanceof ExecutionListenersCommand){
+				return ((ExecutionListenersCommand) command).getEventListeners();
+			}
+		}
+		return Collections.emptyList();
+	}
+	
+	@Test
+	public void attachSessionEventListeners_AttachedOnce() {
+		expect(mockStatelessKieSession.getAgendaEventListeners()).andReturn(new ArrayList<AgendaEventListener>());
+		mockStatelessKieSession.addEventListener(mockAgendaEventListener);
+		expect(mockStatelessKieSession.getAgendaEventListeners()).andReturn(Arrays.asList(mockAgendaEventListener));
+		replay(mockStatelessKieSession);
+		
+		SessionEventListeners.attach(mockStatelessKieSession, mockAgendaEventListener);
+		SessionEventListeners.attach(mockStatelessKieSession, mockAgendaEventListener);
+		
+		verify(mockStatelessKieSession);
+	}
+
+	@Test
+	public void fireRules_OnStatefulSession_Lightweight() {
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.insert("fact2")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andReturn(10);
+		replay(mockKieSession, mockFactHandle);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.lightweight()
+			.addFacts("fact1", "fact2")
+			.addContext("key", "123")
+			.fireRules();
+		
+		verify(mockKieSession, mockFactHandle);
+		
+		assertEquals(10, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		assertTrue(firedRulesReturnValues.getFactHandles().isEmpty());
+		assertTrue(firedRulesReturnValues.getExecutedRules().isEmpty());
+	}
+	
+	@Test
+	public void fireRules_OnStatelessSession_Lightweight_Reused() {
+		ExecutionResults mockExectionResults = createMock(ExecutionResults.class);
+		expect(mockExectionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(3).andReturn(4);
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExectionResults).times(2);
+		replay(mockStatelessKieSession, mockExectionResults);
+		
+		RulesExecution rulesExecution = new RulesExecution(mockStatelessKieSession).lightweight();
+		FiredRulesReturnValues firstReturnValues = rulesExecution.addFacts("fact1").fireRules();
+		assertEquals(3, firstReturnValues.getNumberOfRulesFired().intValue());
+		FiredRulesReturnValues secondReturnValues = rulesExecution.reset().addFacts("fact2").fireRules();
+		
+		verify(mockStatelessKieSession, mockExectionResults);
+		
+		assertSame(firstReturnValues, secondReturnValues);
+		assertEquals(4, secondReturnValues.getNumberOfRulesFired().intValue());
+		assertNull(secondReturnValues.getExecutionResults());
+	}
+	
+	@Test
+	public void reset_OnStatelessSession_ClearsResultCacheAndLimits() {
+		RulesResultCache resultCache = new RulesResultCache(10, 1, TimeUnit.MINUTES);
+		ExecutionResults mockExectionResults = createMock(ExecutionResults.class);
+		expect(mockExectionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(3).times(2);
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExectionResults).times(2);
+		replay(mockStatelessKieSession, mockExectionResults);
+		
+		RulesExecution rulesExecution = new RulesExecution(mockStatelessKieSession).lightweight();
+		rulesExecution.addFacts("fact1").cacheResult(resultCache, "foo:bar:1.0", "kbase.session", "request-1").fireRules();
+		rulesExecution.reset().addFacts("fact1").fireRules();
+		
+		verify(mockStatelessKieSession, mockExectionResults);
+		assertEquals(0, resultCache.getHitCount());
+		assertEquals(1, resultCache.getMissCount());
+	}
+	
+	@Test
+	public void fireRules_OnStatefulSession_SessionNotDisposed() {
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andReturn(1);
+		replay(mockKieSession, mockFactHandle);
+		
+		RulesExecution rulesExecution = new RulesExecution(mockKieSession)
+			.enableListeners(false)
+			.addFacts("fact1");
+		FiredRulesReturnValues firedRulesReturnValues = rulesExecution.fireRules();
+		
+		//No dispose() call recorded, the session stays usable
+		verify(mockKieSession, mockFactHandle);
+		assertEquals(1, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		assertSame(rulesExecution, rulesExecution.reset());
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void reset_OnReleasedStatefulSession_Throws() {
+		mockKieSession.dispose();
+		replay(mockKieSession);
+		
+		RulesExecution rulesExecution = new RulesExecution(mockKieSession);
+		rulesExecution.close();
+		rulesExecution.reset();
+	}
+
+	@Test
+	public void fireRules_OnStatefulSession_WithMetrics() {
+		RulesMetrics mockRulesMetrics = createMock(RulesMetrics.class);
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		mockKieSession.addEventListener(isA(MetricsAgendaEventListener.class));
+		mockKieSession.removeEventListener(isA(MetricsAgendaEventListener.class));
+		mockKieSession.addEventListener(isA(AgendaEventListener.class));
+		mockKieSession.removeEventListener(isA(AgendaEventListener.class));
+		expect(mockKieSession.fireAllRules()).andReturn(3);
+		mockRulesMetrics.rulesExecuted(eq("foo:bar:1.0"), eq("kbase.session"), eq(1), eq(3), anyLong());
+		replay(mockKieSession, mockFactHandle, mockRulesMetrics);
+		
+		new RulesExecution(mockKieSession)
+			.addFacts("fact1")
+			.withMetrics(mockRulesMetrics, "foo:bar:1.0", "kbase.session")
+			.fireRules();
+		
+		verify(mockKieSession, mockFactHandle, mockRulesMetrics);
+	}
+
+	@Test
+	public void fireRulesAsync_OnStatelessSession_CarriesMdcContext() throws Exception {
+		ExecutionResults mockExectionResults = createMock(ExecutionResults.class);
+		expect(mockExectionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(10);
+		List<String> mdcValues = new ArrayList<>();
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andAnswer(() -> {
+			mdcValues.add(MDC.get("txn"));
+			return mockExectionResults;
+		});
+		replay(mockStatelessKieSession, mockExectionResults);
+		
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		MDC.put("txn", "TXN1");
+		try{
+			FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockStatelessKieSession)
+				.addFacts("fact1")
+				.enableListeners(false)
+				.fireRulesAsync(executorService)
+				.get(5, TimeUnit.SECONDS);
+			assertEquals(10, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		}finally{
+			MDC.remove("txn");
+			executorService.shutdown();
+		}
+		
+		verify(mockStatelessKieSession, mockExectionResults);
+		assertEquals(Arrays.asList("TXN1"), mdcValues);
+	}
+	
+	@Test
+	public void fireRulesAsync_OnStatefulSession_TimeoutHaltsAndReleasesSession() throws Exception {
+		CountDownLatch haltLatch = new CountDownLatch(1);
+		CountDownLatch disposeLatch = new CountDownLatch(1);
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andAnswer(() -> {
+			haltLatch.await(5, TimeUnit.SECONDS);
+			return 1;
+		});
+		mockKieSession.halt();
+		expectLastCall().andAnswer(() -> {
+			haltLatch.countDown();
+			return null;
+		}).atLeastOnce();
+		mockKieSession.dispose();
+		expectLastCall().andAnswer(() -> {
+			disposeLatch.countDown();
+			return null;
+		});
+		replay(mockKieSession, mockFactHandle);
+		
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		CompletableFuture<FiredRulesReturnValues> future = new RulesExecution(mockKieSession)
+			.addFacts("fact1")
+			.enableListeners(false)
+			.autoRelease(true)
+			.fireRulesAsync(executorService, 50, TimeUnit.MILLISECONDS);
+		try{
+			future.get(5, TimeUnit.SECONDS);
+			fail("Expected timeout");
+		}catch(ExecutionException e){
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertTrue(disposeLatch.await(5, TimeUnit.SECONDS));
+		executorService.shutdown();
+		
+		verify(mockKieSession, mockFactHandle);
+	}
+	
+	@Test
+	public void fireRulesAsync_TimeoutBeforeExecutorRuns_RulesNotFired() throws Exception {
+		CountDownLatch disposeLatch = new CountDownLatch(1);
+		mockKieSession.dispose();
+		expectLastCall().andAnswer(() -> {
+			disposeLatch.countDown();
+			return null;
+		});
+		replay(mockKieSession, mockFactHandle);
+		
+		List<Runnable> queuedTasks = new ArrayList<>();
+		CompletableFuture<FiredRulesReturnValues> future = new RulesExecution(mockKieSession)
+			.addFacts("fact1")
+			.enableListeners(false)
+			.autoRelease(true)
+			.fireRulesAsync(queuedTasks::add, 10, TimeUnit.MILLISECONDS);
+		try{
+			future.get(5, TimeUnit.SECONDS);
+			fail("Expected timeout");
+		}catch(ExecutionException e){
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertTrue(disposeLatch.await(5, TimeUnit.SECONDS));
+		//The executor picks up the task only after the timeout
+		queuedTasks.forEach(Runnable::run);
+		
+		verify(mockKieSession, mockFactHandle);
+	}
+	
+	@Test
+	public void fireRulesAsync_TimeoutBeforeFiringStarts_HaltRepeatedUntilFiring() throws Exception {
+		CountDownLatch timedOut = new CountDownLatch(1);
+		CountDownLatch haltedWhileFiring = new CountDownLatch(1);
+		CountDownLatch disposeLatch = new CountDownLatch(1);
+		AtomicBoolean firing = new AtomicBoolean();
+		expect(mockKieSession.insert("fact1")).andAnswer(() -> {
+			timedOut.await(5, TimeUnit.SECONDS);
+			return mockFactHandle;
+		});
+		expect(mockKieSession.fireAllRules()).andAnswer(() -> {
+			firing.set(true);
+			haltedWhileFiring.await(5, TimeUnit.SECONDS);
+			return 1;
+		});
+		mockKieSession.halt();
+		expectLastCall().andAnswer(() -> {
+			if(firing.get()){
+				haltedWhileFiring.countDown();
+			}
+			return null;
+		}).atLeastOnce();
+		mockKieSession.dispose();
+		expectLastCall().andAnswer(() -> {
+			disposeLatch.countDown();
+			return null;
+		});
+		replay(mockKieSession, mockFactHandle);
+		
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		CompletableFuture<FiredRulesReturnValues> future = new RulesExecution(mockKieSession)
+			.addFacts("fact1")
+			.enableListeners(false)
+			.autoRelease(true)
+			.fireRulesAsync(executorService, 50, TimeUnit.MILLISECONDS);
+		try{
+			future.get(5, TimeUnit.SECONDS);
+			fail("Expected timeout");
+		}catch(ExecutionException e){
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		timedOut.countDown();
+		assertTrue(haltedWhileFiring.await(5, TimeUnit.SECONDS));
+		assertTrue(disposeLatch.await(5, TimeUnit.SECONDS));
+		executorService.shutdown();
+		
+		verify(mockKieSession, mockFactHandle);
+	}
+
+	@Test
+	public void fireRulesAsync_OnStatefulSession_FailureReleasesWithoutHalt() throws Exception {
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andThrow(new IllegalStateException("rule failed"));
+		mockKieSession.dispose();
+		replay(mockKieSession, mockFactHandle);
+		
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		try{
+			new RulesExecution(mockKieSession)
+				.addFacts("fact1")
+				.enableListeners(false)
+				.autoRelease(true)
+				.fireRulesAsync(executorService, 5, TimeUnit.SECONDS)
+				.get(5, TimeUnit.SECONDS);
+			fail("Expected rule failure");
+		}catch(ExecutionException e){
+			assertEquals("rule failed", e.getCause().getMessage());
+		}finally{
+			executorService.shutdown();
+		}
+		
+		//Session is released before the future completes and is never halted
+		verify(mockKieSession, mockFactHandle);
+	}
+
+	@Test
+	public void fireRulesStreaming_OnStatefulSession_ChunksAndRetracts() {
+		expect(mockKieSession.insert(anyObject())).andReturn(mockFactHandle).times(3);
+		expect(mockKieSession.fireAllRules()).andReturn(2).andReturn(1);
+		mockKieSession.delete(mockFactHandle);
+		expectLastCall().times(3);
+		replay(mockKieSession, mockFactHandle);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.lightweight()
+			.chunkSize(2)
+			.retractAfterFire(true)
+			.fireRulesStreaming(Stream.of("fact1", "fact2", "fact3"));
+		
+		verify(mockKieSession, mockFactHandle);
+		
+		assertEquals(3, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		assertTrue(firedRulesReturnValues.getFactHandles().isEmpty());
+	}
+	
+	@Test
+	public void fireRulesStreaming_OnStatefulSession_RetainFactHandles() {
+		expect(mockKieSession.insert(anyObject())).andReturn(mockFactHandle).times(2);
+		expect(mockKieSession.fireAllRules()).andReturn(1);
+		replay(mockKieSession, mockFactHandle);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.lightweight()
+			.retainFactHandles(true)
+			.fireRulesStreaming(Arrays.asList("fact1", "fact2").iterator());
+		
+		verify(mockKieSession, mockFactHandle);
+		
+		assertEquals(2, firedRulesReturnValues.getFactHandles().size());
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void fireRulesStreaming_OnStatelessSession() {
+		new RulesExecution(mockStatelessKieSession).fireRulesStreaming(Stream.of("fact1"));
+	}
+
+	@Test
+	public void fireRules_OnStatelessSession_NotAuditSampled_NoListeners() {
+		ExecutionResults mockExectionResults = createMock(ExecutionResults.class);
+		expect(mockExectionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(1);
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExectionResults);
+		replay(mockStatelessKieSession, mockExectionResults);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockStatelessKieSession)
+			.auditSampler(context -> false)
+			.addFacts("fact1")
+			.addContext("key", "123")
+			.fireRules();
+		
+		verify(mockStatelessKieSession, mockExectionResults);
+		
+		assertEquals(1, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		assertNull(MDC.get("key"));
+	}
+
+	@Test
+	public void fireRules_OnStatefulSession_CollectsWithoutRetainingFactHandles() {
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andReturn(1);
+		expect(mockKieSession.getObjects(isA(ClassObjectFilter.class))).andReturn(Arrays.<Object>asList("fact1"));
+		expect(mockKieSession.getGlobal("total")).andReturn(10);
+		replay(mockKieSession, mockFactHandle);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.enableListeners(false)
+			.addFacts("fact1")
+			.collect(String.class)
+			.collectGlobal("total")
+			.fireRules();
+		
+		verify(mockKieSession, mockFactHandle);
+		
+		assertEquals(Arrays.asList("fact1"), firedRulesReturnValues.getCollected(String.class));
+		assertEquals(10, firedRulesReturnValues.getGlobal("total"));
+		assertTrue(firedRulesReturnValues.getFactHandles().isEmpty());
+	}
+	
+	@Test
+	public void fireRules_OnStatelessSession_BatchExecution_CollectsWithoutRetainingExecutionResults() {
+		ExecutionResults mockExectionResults = createMock(ExecutionResults.class);
+		expect(mockExectionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(1);
+		expect(mockExectionResults.getValue("collect:java.lang.String")).andReturn(Arrays.asList("fact1"));
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExectionResults);
+		replay(mockStatelessKieSession, mockExectionResults);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockStatelessKieSession)
+			.enableListeners(false)
+			.addFacts("fact1")
+			.collect(String.class)
+			.fireRules();
+		
+		verify(mockStatelessKieSession, mockExectionResults);
+		
+		assertEquals(Arrays.asList("fact1"), firedRulesReturnValues.getCollected(String.class));
+		assertNull(firedRulesReturnValues.getExecutionResults());
+	}
+	
+	@Test(expected=NullPointerException.class)
+	public void collectQuery_NoQueryName_Rejected() {
+		new RulesExecution(mockKieSession)
+			.collectQuery(null);
+	}
+
+	@Test
+	public void close_OnStatefulSession_DisposesOnce() {
+		mockKieSession.setGlobal("result", "value");
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andReturn(1);
+		mockKieSession.dispose();
+		expectLastCall().once();
+		replay(mockKieSession, mockFactHandle);
+		
+		try(RulesExecution rulesExecution = new RulesExecution(mockKieSession)){
+			rulesExecution
+				.enableListeners(false)
+				.addFacts("fact1")
+				.addGlobal("result", "value")
+				.fireRules();
+			rulesExecution.close();
+		}
+		
+		verify(mockKieSession, mockFactHandle);
+	}
+	
+	@Test
+	public void fireRules_OnStatefulSession_AutoReleaseDisposesSession() {
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andThrow(new IllegalStateException("rule failed"));
+		mockKieSession.dispose();
+		replay(mockKieSession, mockFactHandle);
+		
+		try{
+			new RulesExecution(mockKieSession)
+				.enableListeners(false)
+				.addFacts("fact1")
+				.autoRelease(true)
+				.fireRules();
+			fail("Expected IllegalStateException");
+		}catch(IllegalStateException e){
+			assertEquals("rule failed", e.getMessage());
+		}
+		
+		verify(mockKieSession, mockFactHandle);
+	}
+	
+	@Test
+	public void setLeakDetection_ReleasedSessionIsNotTracked() {
+		mockKieSession.dispose();
+		replay(mockKieSession);
+		
+		RulesExecution.setLeakDetection(true);
+		try{
+			int openLeases = SessionLeakDetector.getOpenLeaseCount();
+			RulesExecution rulesExecution = new RulesExecution(mockKieSession);
+			assertEquals(openLeases + 1, SessionLeakDetector.getOpenLeaseCount());
+			rulesExecution.close();
+			assertEquals(openLeases, SessionLeakDetector.getOpenLeaseCount());
+		}finally{
+			RulesExecution.setLeakDetection(false);
+		}
+		
+		verify(mockKieSession);
+	}
+
+	@Test
+	public void fireRules_OnStatefulSession_BatchExecution() {
+		ExecutionResults mockExectionResults = createMock(ExecutionResults.class);
+		expect(mockExectionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(2);
+		expect(mockKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExectionResults);
+		replay(mockKieSession, mockExectionResults);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.enableListeners(false)
+			.addFacts("fact1", "fact2")
+			.forAgendaGroups("agenda-group-1")
+			.batchExecution()
+			.fireRules();
+		
+		verify(mockKieSession, mockExectionResults);
+		
+		assertEquals(2, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		assertSame(mockExectionResults, firedRulesReturnValues.getExecutionResults());
+		assertTrue(firedRulesReturnValues.getFactHandles().isEmpty());
+	}
+
+	@Test
+	public void fireRules_OnStatefulSession_BatchFlagIgnored() {
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andReturn(1);
+		replay(mockKieSession, mockFactHandle);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.enableListeners(false)
+			.addFacts("fact1")
+			.fireRules(true);
+		
+		verify(mockKieSession, mockFactHandle);
+		
+		assertEquals(1, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		assertEquals(1, firedRulesReturnValues.getFactHandles().size());
+	}
+
+	@Test
+	public void fireRules_OnStatefulSession_MaxRulesFired() {
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules(2)).andReturn(2);
+		expectPendingMatchProbe();
+		replay(mockKieSession, mockFactHandle);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.lightweight()
+			.addFacts("fact1")
+			.maxRulesFired(2)
+			.fireRules();
+		
+		verify(mockKieSession, mockFactHandle);
+		
+		assertEquals(2, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		assertEquals(ExecutionOutcome.LIMIT_REACHED, firedRulesReturnValues.getExecutionOutcome());
+	}
+	
+	@Test
+	public void fireRules_OnStatefulSession_Completed() {
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules(5)).andReturn(1);
+		replay(mockKieSession, mockFactHandle);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.lightweight()
+			.addFacts("fact1")
+			.maxRulesFired(5)
+			.fireRules();
+		
+		verify(mockKieSession, mockFactHandle);
+		
+		assertEquals(ExecutionOutcome.COMPLETED, firedRulesReturnValues.getExecutionOutcome());
+	}
+	
+	@Test
+	public void fireRules_OnStatefulSession_DeadlineHaltsSession() {
+		CountDownLatch haltLatch = new CountDownLatch(1);
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andAnswer(() -> {
+			haltLatch.await(5, TimeUnit.SECONDS);
+			return 7;
+		});
+		mockKieSession.halt();
+		expectLastCall().andAnswer(() -> {
+			haltLatch.countDown();
+			return null;
+		}).atLeastOnce();
+		replay(mockKieSession, mockFactHandle);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.lightweight()
+			.addFacts("fact1")
+			.deadline(50, TimeUnit.MILLISECONDS)
+			.fireRules();
+		
+		verify(mockKieSession, mockFactHandle);
+		
+		assertEquals(7, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		assertEquals(ExecutionOutcome.TIMED_OUT, firedRulesReturnValues.getExecutionOutcome());
+	}
+	
+	@Test
+	public void fireRules_OnStatefulSession_DeadlineHaltRepeatedUntilFiringStops() {
+		//The first halt lands before firing starts and is ignored by the session
+		CountDownLatch haltLatch = new CountDownLatch(2);
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andAnswer(() -> {
+			haltLatch.await(5, TimeUnit.SECONDS);
+			return 3;
+		});
+		mockKieSession.halt();
+		expectLastCall().andAnswer(() -> {
+			haltLatch.countDown();
+			return null;
+		}).atLeastOnce();
+		replay(mockKieSession, mockFactHandle);
+		
+		long start = System.nanoTime();
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.lightweight()
+			.addFacts("fact1")
+			.deadline(20, TimeUnit.MILLISECONDS)
+			.fireRules();
+		
+		verify(mockKieSession, mockFactHandle);
+		
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertEquals(ExecutionOutcome.TIMED_OUT, firedRulesReturnValues.getExecutionOutcome());
+	}
+	
+	@Test
+	public void fireRules_OnStatefulSession_DeadlineCancelledOnceFiringReturns() throws Exception {
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andReturn(1);
+		replay(mockKieSession, mockFactHandle);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.lightweight()
+			.addFacts("fact1")
+			.deadline(20, TimeUnit.MILLISECONDS)
+			.fireRules();
+		Thread.sleep(100);
+		
+		//No halt after the execution completed
+		verify(mockKieSession, mockFactHandle);
+		assertEquals(ExecutionOutcome.COMPLETED, firedRulesReturnValues.getExecutionOutcome());
+	}
+	
+	@Test
+	public void fireRules_OnStatelessSession_MaxRulesFiredWithEmptyAgendaCompleted() {
+		ExecutionResults mockExectionResults = createMock(ExecutionResults.class);
+		expect(mockExectionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(2);
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExectionResults);
+		replay(mockStatelessKieSession, mockExectionResults);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockStatelessKieSession)
+			.lightweight()
+			.addFacts("fact1")
+			.maxRulesFired(2)
+			.fireRules();
+		
+		verify(mockStatelessKieSession, mockExectionResults);
+		
+		//The pending match probe found no match left
+		assertEquals(ExecutionOutcome.COMPLETED, firedRulesReturnValues.getExecutionOutcome());
+	}
+	
+	@Test
+	public void pendingMatchProbe_RecordsAcceptedMatchAndRejectsAll() {
+		Match mockMatch = createMock(Match.class);
+		replay(mockMatch);
+		
+		RulesExecution.PendingMatchProbe rejectingFilterProbe = new RulesExecution.PendingMatchProbe(match -> false);
+		assertFalse(rejectingFilterProbe.accept(mockMatch));
+		assertFalse(rejectingFilterProbe.isPending());
+		
+		RulesExecution.PendingMatchProbe probe = new RulesExecution.PendingMatchProbe(null);
+		assertFalse(probe.accept(mockMatch));
+		assertTrue(probe.isPending());
+	}
+	
+	@Test
+	public void fireRulesStreaming_OnStatefulSession_StopsAtMaxRulesFired() {
+		expect(mockKieSession.insert(anyObject())).andReturn(mockFactHandle).times(2);
+		expect(mockKieSession.fireAllRules(3)).andReturn(1);
+		expect(mockKieSession.fireAllRules(2)).andReturn(2);
+		expectPendingMatchProbe();
+		replay(mockKieSession, mockFactHandle);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.lightweight()
+			.chunkSize(1)
+			.maxRulesFired(3)
+			.fireRulesStreaming(Stream.of("fact1", "fact2", "fact3"));
+		
+		verify(mockKieSession, mockFactHandle);
+		
+		assertEquals(3, firedRulesReturnValues.getNumberOfRulesFired().intValue());
+		assertEquals(ExecutionOutcome.LIMIT_REACHED, firedRulesReturnValues.getExecutionOutcome());
+	}
+	
+	@Test
+	public void fireRules_OnStatefulSession_MaxRulesFiredNoMatchAccepted_Completed() {
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules(isA(AgendaFilter.class), eq(2))).andReturn(2);
+		//The match left is rejected by the agenda filter
+		expectPendingMatchProbe();
+		replay(mockKieSession, mockFactHandle);
+		
+		FiredRulesReturnValues firedRulesReturnValues = new RulesExecution(mockKieSession)
+			.lightweight()
+			.addFacts("fact1")
+			.maxRulesFired(2)
+			.agendaFilter(match -> false)
+			.fireRules();
+		
+		verify(mockKieSession, mockFactHandle);
+		
+		assertEquals(ExecutionOutcome.COMPLETED, firedRulesReturnValues.getExecutionOutcome());
+	}
+	
+	private void expectPendingMatchProbe() {
+		expect(mockKieSession.fireAllRules(isA(RulesExecution.PendingMatchProbe.class), eq(1))).andAnswer(() -> {
+			Match mockMatch = createMock(Match.class);
+			replay(mockMatch);
+			((AgendaFilter) getCurrentArguments()[0]).accept(mockMatch);
+			return 0;
+		});
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void deadline_OnStatelessSession() {
+		new RulesExecution(mockStatelessKieSession).deadline(1, TimeUnit.SECONDS);
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void fireRules_OnStatelessSession_MaxRulesFiredWithoutBatchExecution() {
+		new RulesExecution(mockStatelessKieSession)
+			.enableListeners(false)
+			.addFacts("fact1")
+			.maxRulesFired(1)
+			.fireRules(false);
+	}
+
 }
@@ -0,0 +1,195 @@
+package org.anair.drools.fluent.api;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.anair.drools.model.FiredRulesReturnValues;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.command.BatchExecutionCommand;
+import org.kie.api.runtime.ExecutionResults;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.StatelessKieSession;
+
+public class RulesResultCacheTest {
+	
+	private static final String RELEASE_ID = "foo:bar:1.0";
+	private static final String SESSION_NAME = "kbase.stateless.session";
+	private StatelessKieSession mockStatelessKieSession;
+	private ExecutionResults mockExecutionResults;
+	
+	@Before
+	public void setUp() {
+		mockStatelessKieSession = createMock(StatelessKieSession.class);
+		mockExecutionResults = createMock(ExecutionResults.class);
+		expect(mockExecutionResults.getValue(RulesExecution.NUMBER_OF_RULES_FIRED)).andReturn(1).anyTimes();
+	}
+
+	@Test
+	public void fireRules_SameKey_SkipsEngine() {
+		RulesResultCache resultCache = new RulesResultCache(10, 1, TimeUnit.MINUTES);
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExecutionResults).once();
+		replay(mockStatelessKieSession, mockExecutionResults);
+		
+		FiredRulesReturnValues first = execute(resultCache, "request-1", "USD");
+		FiredRulesReturnValues second = execute(resultCache, "request-1", "EUR");
+		
+		verify(mockStatelessKieSession, mockExecutionResults);
+		assertNotSame(first, second);
+		assertEquals(first.getNumberOfRulesFired(), second.getNumberOfRulesFired());
+		assertEquals(1, resultCache.getHitCount());
+		assertEquals(1, resultCache.getMissCount());
+	}
+	
+	@Test
+	public void fireRules_KeyGlobalChanged_Misses() {
+		RulesResultCache resultCache = new RulesResultCache(10, 1, TimeUnit.MINUTES);
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExecutionResults).times(2);
+		replay(mockStatelessKieSession, mockExecutionResults);
+		
+		execute(resultCache, "request-1", "USD", "currency");
+		execute(resultCache, "request-1", "USD", "currency");
+		execute(resultCache, "request-1", "EUR", "currency");
+		
+		verify(mockStatelessKieSession, mockExecutionResults);
+		assertEquals(1, resultCache.getHitCount());
+		assertEquals(2, resultCache.getMissCount());
+	}
+	
+	@Test
+	public void get_ReturnsCopyWithoutExecutionResults() {
+		RulesResultCache resultCache = new RulesResultCache(10, 1, TimeUnit.MINUTES);
+		RulesResultCache.Key key = resultCache.newKey(RELEASE_ID, SESSION_NAME, "request-1", null);
+		FiredRulesReturnValues returnValues = new FiredRulesReturnValues();
+		returnValues.setNumberOfRulesFired(1);
+		returnValues.setExecutionResults(mockExecutionResults);
+		returnValues.getExecutedRules().add("rule1");
+		resultCache.put(key, returnValues);
+		returnValues.getExecutedRules().add("rule2");
+		
+		FiredRulesReturnValues firstHit = resultCache.get(key);
+		firstHit.getExecutedRules().add("rule3");
+		FiredRulesReturnValues secondHit = resultCache.get(key);
+		
+		assertNotSame(firstHit, secondHit);
+		assertNull(secondHit.getExecutionResults());
+		assertEquals(1, secondHit.getNumberOfRulesFired().intValue());
+		assertEquals(Arrays.asList("rule1"), secondHit.getExecutedRules());
+	}
+	
+	@Test
+	public void kieContainerUpdated_InvalidatesReleaseId() {
+		RulesResultCache resultCache = new RulesResultCache(10, 1, TimeUnit.MINUTES);
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExecutionResults).times(2);
+		replay(mockStatelessKieSession, mockExecutionResults);
+		
+		execute(resultCache, "request-1", "USD");
+		assertEquals(1, resultCache.size());
+		resultCache.kieContainerUpdated(RELEASE_ID);
+		assertEquals(0, resultCache.size());
+		execute(resultCache, "request-1", "USD");
+		
+		verify(mockStatelessKieSession, mockExecutionResults);
+	}
+	
+	@Test
+	public void put_AfterInvalidation_IsNotCached() {
+		RulesResultCache resultCache = new RulesResultCache(10, 1, TimeUnit.MINUTES);
+		RulesResultCache.Key key = resultCache.newKey(RELEASE_ID, SESSION_NAME, "request-1", null);
+		resultCache.invalidate(RELEASE_ID);
+		resultCache.put(key, new FiredRulesReturnValues());
+		
+		assertEquals(0, resultCache.size());
+	}
+	
+	@Test
+	public void get_ExpiredOrEvicted_Misses() throws Exception {
+		RulesResultCache resultCache = new RulesResultCache(1, 20, TimeUnit.MILLISECONDS);
+		RulesResultCache.Key key1 = resultCache.newKey(RELEASE_ID, SESSION_NAME, "request-1", null);
+		RulesResultCache.Key key2 = resultCache.newKey(RELEASE_ID, SESSION_NAME, "request-2", null);
+		resultCache.put(key1, new FiredRulesReturnValues());
+		resultCache.put(key2, new FiredRulesReturnValues());
+		
+		assertNull(resultCache.get(key1));
+		assertNotNull(resultCache.get(key2));
+		Thread.sleep(50);
+		assertNull(resultCache.get(key2));
+	}
+	
+	@Test
+	public void put_Full_EvictsLeastRecentlyUsed() {
+		RulesResultCache resultCache = new RulesResultCache(10, 1, TimeUnit.MINUTES);
+		List<RulesResultCache.Key> keys = new ArrayList<>();
+		for(int i=0;i<11;i++){
+			keys.add(resultCache.newKey(RELEASE_ID, SESSION_NAME, "request-" + i, null));
+		}
+		for(int i=0;i<10;i++){
+			resultCache.put(keys.get(i), new FiredRulesReturnValues());
+		}
+		assertNotNull(resultCache.get(keys.get(0)));
+		resultCache.put(keys.get(10), new FiredRulesReturnValues());
+		
+		//The excess entry and a tenth of the maximum size are evicted
+		assertEquals(9, resultCache.size());
+		assertNotNull(resultCache.get(keys.get(0)));
+		assertNull(resultCache.get(keys.get(1)));
+		assertNull(resultCache.get(keys.get(2)));
+		assertNotNull(resultCache.get(keys.get(10)));
+	}
+	
+	@Test
+	public void put_Concurrent_StaysBounded() throws Exception {
+		RulesResultCache resultCache = new RulesResultCache(100, 1, TimeUnit.MINUTES);
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		try{
+			List<Future<?>> futures = new ArrayList<>();
+			for(int thread=0;thread<4;thread++){
+				int offset = thread * 10000;
+				futures.add(executorService.submit(() -> {
+					for(int i=0;i<10000;i++){
+						RulesResultCache.Key key = resultCache.newKey(RELEASE_ID, SESSION_NAME, offset + i, null);
+						resultCache.put(key, new FiredRulesReturnValues());
+						resultCache.get(key);
+					}
+				}));
+			}
+			for(Future<?> future: futures){
+				future.get(30, TimeUnit.SECONDS);
+			}
+		}finally{
+			executorService.shutdown();
+		}
+		
+		//A put that races an eviction in progress may be left over, at most one per thread
+		assertTrue(resultCache.size() <= 104);
+	}
+	
+	@Test(expected=NullPointerException.class)
+	public void newKey_NoReleaseId_Rejected() {
+		new RulesResultCache(10, 1, TimeUnit.MINUTES).newKey(null, SESSION_NAME, "request-1", null);
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void cacheResult_OnStatefulSession_NotSupported() {
+		new RulesExecution(createMock(KieSession.class))
+			.cacheResult(new RulesResultCache(10, 1, TimeUnit.MINUTES), RELEASE_ID, SESSION_NAME, "request-1");
+	}
+	
+	private FiredRulesReturnValues execute(RulesResultCache resultCache, String factKey, String currency, String... keyGlobals) {
+		return new RulesExecution(mockStatelessKieSession)
+			.lightweight()
+			.cacheResult(resultCache, RELEASE_ID, SESSION_NAME, factKey, keyGlobals)
+			.addFacts("fact1")
+			.addGlobal("currency", currency)
+			.fireRules();
+	}
+
+}
@@ -0,0 +1,78 @@
+package org.anair.drools.metrics;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class JmxRulesMetricsTest {
+	
+	private static final String RELEASE_ID = "foo:bar:1.0";
+	private static final String SESSION_NAME = "kbase.session";
+	private JmxRulesMetrics rulesMetrics;
+	
+	@Before
+	public void setUp() {
+		rulesMetrics = new JmxRulesMetrics();
+	}
+
+	@Test
+	public void recordRuleAndSessionMetrics() {
+		rulesMetrics.matchCreated(RELEASE_ID, SESSION_NAME, "org.rules", "rule1");
+		rulesMetrics.matchCreated(RELEASE_ID, SESSION_NAME, "org.rules", "rule1");
+		rulesMetrics.matchCancelled(RELEASE_ID, SESSION_NAME, "org.rules", "rule1");
+		rulesMetrics.ruleFired(RELEASE_ID, SESSION_NAME, "org.rules", "rule1", 1000);
+		rulesMetrics.rulesExecuted(RELEASE_ID, SESSION_NAME, 5, 1, 2000);
+		rulesMetrics.sessionAcquired(RELEASE_ID, SESSION_NAME, 300);
+		rulesMetrics.containerBuilt(RELEASE_ID, 5000);
+		
+		assertEquals(2L, rulesMetrics.getCounters().get("rule.matchesCreated[foo:bar:1.0,kbase.session,org.rules,rule1]").longValue());
+		assertEquals(1L, rulesMetrics.getCounters().get("rule.matchesCancelled[foo:bar:1.0,kbase.session,org.rules,rule1]").longValue());
+		assertEquals(1L, rulesMetrics.getCounters().get("session.rulesFired[foo:bar:1.0,kbase.session]").longValue());
+		assertEquals(1L, rulesMetrics.getCounters().get("container.builds[foo:bar:1.0]").longValue());
+		assertEquals(1000L, rulesMetrics.getLatencies().get("rule.firingTime[foo:bar:1.0,kbase.session,org.rules,rule1].max").longValue());
+		assertEquals(5L, rulesMetrics.getLatencies().get("session.factsInserted[foo:bar:1.0,kbase.session].total").longValue());
+		assertEquals(300L, rulesMetrics.getLatencies().get("session.acquisitionTime[foo:bar:1.0,kbase.session].p99").longValue());
+		
+		rulesMetrics.reset();
+		assertTrue(rulesMetrics.getCounters().isEmpty());
+	}
+	
+	@Test
+	public void ruleFired_SameRuleNameInOtherPackage_RecordedApart() {
+		rulesMetrics.ruleFired(RELEASE_ID, SESSION_NAME, "org.rules.pricing", "validate", 1000);
+		rulesMetrics.ruleFired(RELEASE_ID, SESSION_NAME, "org.rules.pricing", "validate", 1000);
+		rulesMetrics.ruleFired(RELEASE_ID, SESSION_NAME, "org.rules.eligibility", "validate", 100);
+		
+		assertEquals(2L, rulesMetrics.getCounters().get("rule.fired[foo:bar:1.0,kbase.session,org.rules.pricing,validate]").longValue());
+		assertEquals(1L, rulesMetrics.getCounters().get("rule.fired[foo:bar:1.0,kbase.session,org.rules.eligibility,validate]").longValue());
+	}
+	
+	@Test
+	public void latencyHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(int i=1;i<=100;i++){
+			histogram.record(i * 1000L);
+		}
+		
+		assertEquals(100, histogram.getCount());
+		assertEquals(100000L, histogram.getMaxNanos());
+		assertTrue(histogram.getPercentileNanos(50) >= 50000L);
+		assertTrue(histogram.getPercentileNanos(50) < 100000L);
+		assertEquals(100000L, histogram.getPercentileNanos(100));
+	}
+	
+	@Test
+	public void registerAndUnregisterMBean() throws Exception {
+		rulesMetrics.register("org.anair.drools:type=RulesMetrics,name=test");
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("org.anair.drools:type=RulesMetrics,name=test")));
+		
+		rulesMetrics.unregister();
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("org.anair.drools:type=RulesMetrics,name=test")));
+	}
+
+}
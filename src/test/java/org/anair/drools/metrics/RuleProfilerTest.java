@@ -0,0 +1,148 @@
+package org.anair.drools.metrics;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.definition.rule.Rule;
+import org.kie.api.event.rule.AfterMatchFiredEvent;
+import org.kie.api.event.rule.AgendaEventListener;
+import org.kie.api.event.rule.BeforeMatchFiredEvent;
+import org.kie.api.event.rule.MatchCancelledEvent;
+import org.kie.api.event.rule.MatchCreatedEvent;
+import org.kie.api.runtime.rule.Match;
+
+public class RuleProfilerTest {
+	
+	private RuleProfiler ruleProfiler;
+	
+	@Before
+	public void setUp() {
+		ruleProfiler = new RuleProfiler();
+	}
+
+	@Test
+	public void getTopRules_SortedByTotalFiringTime() {
+		ruleProfiler.ruleFired("org.rules", "fast", 100);
+		ruleProfiler.ruleFired("org.rules", "fast", 100);
+		ruleProfiler.ruleFired("org.rules", "slow", 5000);
+		ruleProfiler.ruleFired("org.rules", "medium", 1000);
+		ruleProfiler.matchCreated("org.rules", "slow");
+		ruleProfiler.matchCreated("org.rules", "slow");
+		ruleProfiler.matchCreated("org.rules", "slow");
+		ruleProfiler.matchCreated("org.rules", "slow");
+		ruleProfiler.matchCancelled("org.rules", "slow");
+		
+		List<RuleProfile> topRules = ruleProfiler.getTopRules(2);
+		
+		assertEquals(2, topRules.size());
+		assertEquals("slow", topRules.get(0).getRuleName());
+		assertEquals("medium", topRules.get(1).getRuleName());
+		assertEquals(0.25d, topRules.get(0).getCancelledMatchRatio(), 0.0001d);
+		assertEquals(5000L, topRules.get(0).getMaxFiringNanos());
+		assertEquals(3, ruleProfiler.getProfiledRuleCount());
+		assertTrue(ruleProfiler.getReport().startsWith("Top 3 rules by total firing time"));
+		
+		ruleProfiler.reset();
+		assertTrue(ruleProfiler.getTopRules().isEmpty());
+	}
+	
+	@Test
+	public void ruleFired_SameRuleNameInOtherPackage_ProfiledApart() {
+		ruleProfiler.ruleFired("org.rules.pricing", "validate", 1000);
+		ruleProfiler.ruleFired("org.rules.eligibility", "validate", 100);
+		
+		List<RuleProfile> topRules = ruleProfiler.getTopRules(2);
+		
+		assertEquals(2, ruleProfiler.getProfiledRuleCount());
+		assertEquals("org.rules.pricing", topRules.get(0).getPackageName());
+		assertEquals("validate", topRules.get(0).getRuleName());
+		assertEquals("org.rules.eligibility", topRules.get(1).getPackageName());
+		assertTrue(topRules.get(0).toString().startsWith("org.rules.pricing.validate fired=1"));
+	}
+	
+	@Test
+	public void newAgendaEventListener_RecordsMatchesAndFiring() {
+		Rule mockRule = createMock(Rule.class);
+		Match mockMatch = createMock(Match.class);
+		expect(mockRule.getName()).andReturn("rule1").anyTimes();
+		expect(mockRule.getPackageName()).andReturn("org.rules").anyTimes();
+		expect(mockMatch.getRule()).andReturn(mockRule).anyTimes();
+		MatchCreatedEvent matchCreatedEvent = createMock(MatchCreatedEvent.class);
+		expect(matchCreatedEvent.getMatch()).andReturn(mockMatch).times(2);
+		MatchCancelledEvent matchCancelledEvent = createMock(MatchCancelledEvent.class);
+		expect(matchCancelledEvent.getMatch()).andReturn(mockMatch);
+		BeforeMatchFiredEvent beforeMatchFiredEvent = createMock(BeforeMatchFiredEvent.class);
+		AfterMatchFiredEvent afterMatchFiredEvent = createMock(AfterMatchFiredEvent.class);
+		expect(afterMatchFiredEvent.getMatch()).andReturn(mockMatch);
+		replay(mockRule, mockMatch, matchCreatedEvent, matchCancelledEvent, beforeMatchFiredEvent, afterMatchFiredEvent);
+		
+		AgendaEventListener listener = ruleProfiler.newAgendaEventListener();
+		listener.matchCreated(matchCreatedEvent);
+		listener.matchCreated(matchCreatedEvent);
+		listener.matchCancelled(matchCancelledEvent);
+		listener.beforeMatchFired(beforeMatchFiredEvent);
+		listener.afterMatchFired(afterMatchFiredEvent);
+		
+		verify(mockRule, mockMatch, matchCreatedEvent, matchCancelledEvent, beforeMatchFiredEvent, afterMatchFiredEvent);
+		RuleProfile profile = ruleProfiler.getTopRules(1).get(0);
+		assertEquals(2L, profile.getMatchesCreated());
+		assertEquals(1L, profile.getMatchesCancelled());
+		assertEquals(1L, profile.getFired());
+	}
+	
+	@Test
+	public void registerAndUnregisterMBean() throws Exception {
+		ruleProfiler.ruleFired("org.rules", "rule1", 100);
+		ruleProfiler.register("org.anair.drools:type=RuleProfiler,name=test");
+		ObjectName objectName = new ObjectName("org.anair.drools:type=RuleProfiler,name=test");
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+		assertEquals(1, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "ProfiledRuleCount"));
+		
+		ruleProfiler.unregister();
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+	}
+
+	@Test
+	public void metricsListener_ConcurrentFirings_TimedPerThreadForMetricsAndProfiler() throws Exception {
+		JmxRulesMetrics rulesMetrics = new JmxRulesMetrics();
+		MetricsAgendaEventListener listener = new MetricsAgendaEventListener(rulesMetrics, "foo:bar:1.0", "kbase.session", ruleProfiler);
+		AfterMatchFiredEvent slowRuleFired = afterMatchFiredEvent("slow");
+		AfterMatchFiredEvent fastRuleFired = afterMatchFiredEvent("fast");
+		
+		listener.beforeMatchFired(null);
+		Thread.sleep(20);
+		Thread otherThread = new Thread(() -> {
+			listener.beforeMatchFired(null);
+			listener.afterMatchFired(fastRuleFired);
+		});
+		otherThread.start();
+		otherThread.join();
+		listener.afterMatchFired(slowRuleFired);
+		
+		RuleProfile profile = ruleProfiler.getTopRules(1).get(0);
+		assertEquals("slow", profile.getRuleName());
+		assertTrue(profile.getMaxFiringNanos() >= 20000000L);
+		assertEquals(profile.getMaxFiringNanos(), rulesMetrics.getLatency("rule.firingTime[foo:bar:1.0,kbase.session,org.rules,slow]").getMaxNanos());
+		assertEquals(1L, rulesMetrics.getCounters().get("rule.fired[foo:bar:1.0,kbase.session,org.rules,fast]").longValue());
+	}
+	
+	private AfterMatchFiredEvent afterMatchFiredEvent(String ruleName) {
+		Rule mockRule = createMock(Rule.class);
+		Match mockMatch = createMock(Match.class);
+		AfterMatchFiredEvent afterMatchFiredEvent = createMock(AfterMatchFiredEvent.class);
+		expect(mockRule.getName()).andReturn(ruleName).anyTimes();
+		expect(mockRule.getPackageName()).andReturn("org.rules").anyTimes();
+		expect(mockMatch.getRule()).andReturn(mockRule).anyTimes();
+		expect(afterMatchFiredEvent.getMatch()).andReturn(mockMatch).anyTimes();
+		replay(mockRule, mockMatch, afterMatchFiredEvent);
+		return afterMatchFiredEvent;
+	}
+
+}
@@ -2,6 +2,15 @@ package org.anair.drools.provider.container;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.anair.rules.exception.RulesSupportRuntimeException;
 import org.drools.compiler.kie.builder.impl.ResultsImpl;
 import org.junit.Before;
@@ -10,6 +19,7 @@ import org.kie.api.KieServices;
 import org.kie.api.builder.KieScanner;
 import org.kie.api.builder.Message.Level;
 import org.kie.api.builder.ReleaseId;
+import org.kie.api.event.kiescanner.KieScannerEventListener;
 import org.kie.api.runtime.KieContainer;
 
 import static org.easymock.EasyMock.*;
@@ -77,6 +87,7 @@ public class KieContainerProviderImplTest {
 		expect(mockKieServices.newKieContainer(isA(ReleaseId.class))).andReturn(mockKieContainer);
 		expect(mockKieContainer.verify()).andReturn(new ResultsImpl());
 		expect(mockKieServices.newKieScanner(mockKieContainer)).andReturn(mockKieScanner);
+		mockKieScanner.addListener(isA(KieScannerEventListener.class));
 		mockKieScanner.start(10);
 		replay(mockKieContainer, mockKieServices, mockKieScanner);
 		
@@ -86,4 +97,218 @@ public class KieContainerProviderImplTest {
 		assertNotNull(actualKieContainer);
 	}
 
+	@Test
+	public void getKieContainer_ConcurrentCalls_BuildOnce() throws Exception {
+		expect(mockKieServices.newKieContainer(isA(ReleaseId.class))).andReturn(mockKieContainer).once();
+		expect(mockKieContainer.verify()).andReturn(new ResultsImpl()).once();
+		replay(mockKieContainer, mockKieServices);
+		
+		ExecutorService executorService = Executors.newFixedThreadPool(8);
+		CountDownLatch startLatch = new CountDownLatch(1);
+		List<Future<KieContainer>> futures = new ArrayList<>();
+		for(int i=0;i<8;i++){
+			futures.add(executorService.submit(() -> {
+				startLatch.await();
+				return kieContainerProvider.getKieContainer(RELEASE_ID, 0);
+			}));
+		}
+		startLatch.countDown();
+		for(Future<KieContainer> future: futures){
+			assertSame(mockKieContainer, future.get(10, TimeUnit.SECONDS));
+		}
+		executorService.shutdown();
+		verify(mockKieContainer, mockKieServices);
+	}
+	
+	@Test
+	public void getKieContainer_ValidationError_NotCached() {
+		ResultsImpl results = new ResultsImpl();
+		results.addMessage(Level.ERROR, "path", "error message");
+		expect(mockKieServices.newKieContainer(isA(ReleaseId.class))).andReturn(mockKieContainer).times(2);
+		expect(mockKieContainer.verify()).andReturn(results).times(2);
+		replay(mockKieContainer, mockKieServices);
+		
+		for(int i=0;i<2;i++){
+			try{
+				kieContainerProvider.getKieContainer(RELEASE_ID, 0);
+				fail("Expected validation error");
+			}catch(RulesSupportRuntimeException e){
+				assertEquals(0, kieContainerProvider.getCacheSize());
+			}
+		}
+		verify(mockKieContainer, mockKieServices);
+	}
+	
+	@Test
+	public void evictKieContainer_StopsScannerAndDisposesContainer() {
+		expect(mockKieServices.newKieContainer(isA(ReleaseId.class))).andReturn(mockKieContainer);
+		expect(mockKieContainer.verify()).andReturn(new ResultsImpl());
+		expect(mockKieServices.newKieScanner(mockKieContainer)).andReturn(mockKieScanner);
+		mockKieScanner.addListener(isA(KieScannerEventListener.class));
+		mockKieScanner.start(10);
+		mockKieScanner.shutdown();
+		mockKieContainer.dispose();
+		replay(mockKieContainer, mockKieServices, mockKieScanner);
+		
+		List<String> updatedReleaseIds = new ArrayList<>();
+		kieContainerProvider.addKieContainerUpdateListener(updatedReleaseIds::add);
+		kieContainerProvider.getKieContainer(RELEASE_ID, 10);
+		kieContainerProvider.evictKieContainer(RELEASE_ID);
+		verify(mockKieContainer, mockKieServices, mockKieScanner);
+		
+		assertEquals(0, kieContainerProvider.getCacheSize());
+		assertEquals(1, updatedReleaseIds.size());
+	}
+	
+	@Test
+	public void getKieContainer_CacheFull_EvictsLeastRecentlyUsed() {
+		KieContainer mockKieContainer2 = createMock(KieContainer.class);
+		kieContainerProvider.setMaxCacheSize(1);
+		kieContainerProvider.setDrainTimeoutMillis(0);
+		expect(mockKieServices.newKieContainer(isA(ReleaseId.class))).andReturn(mockKieContainer).andReturn(mockKieContainer2);
+		expect(mockKieContainer.verify()).andReturn(new ResultsImpl());
+		expect(mockKieContainer2.verify()).andReturn(new ResultsImpl());
+		mockKieContainer.dispose();
+		replay(mockKieContainer, mockKieContainer2, mockKieServices);
+		
+		kieContainerProvider.getKieContainer(RELEASE_ID, 0);
+		KieContainer actualKieContainer = kieContainerProvider.getKieContainer("foo:bar:2.0", 0);
+		verify(mockKieContainer, mockKieContainer2, mockKieServices);
+		
+		assertSame(mockKieContainer2, actualKieContainer);
+		assertEquals(1, kieContainerProvider.getCacheSize());
+	}
+	
+	@Test
+	public void getKieContainer_CacheFull_SlowBuildKeepsNewContainer() {
+		KieContainer mockKieContainer2 = createMock(KieContainer.class);
+		kieContainerProvider.setMaxCacheSize(1);
+		kieContainerProvider.setDrainTimeoutMillis(0);
+		expect(mockKieServices.newKieContainer(isA(ReleaseId.class))).andReturn(mockKieContainer).andAnswer(() -> {
+			//Cached container is used while the new container builds
+			kieContainerProvider.getKieContainer(RELEASE_ID, 0);
+			return mockKieContainer2;
+		});
+		expect(mockKieContainer.verify()).andReturn(new ResultsImpl());
+		expect(mockKieContainer2.verify()).andReturn(new ResultsImpl());
+		mockKieContainer.dispose();
+		replay(mockKieContainer, mockKieContainer2, mockKieServices);
+		
+		kieContainerProvider.getKieContainer(RELEASE_ID, 0);
+		KieContainer actualKieContainer = kieContainerProvider.getKieContainer("foo:bar:2.0", 0);
+		verify(mockKieContainer, mockKieContainer2, mockKieServices);
+		
+		assertSame(mockKieContainer2, actualKieContainer);
+		assertEquals(1, kieContainerProvider.getCacheSize());
+	}
+
+	@Test
+	public void hotSwap_WarmsUpAndSwapsContainer() throws Exception {
+		KieContainer mockKieContainer2 = createMock(KieContainer.class);
+		KieContainerWarmUp mockWarmUp = createMock(KieContainerWarmUp.class);
+		kieContainerProvider.setSwapExecutor(Runnable::run);
+		kieContainerProvider.setDrainTimeoutMillis(0);
+		expect(mockKieServices.newKieContainer(isA(ReleaseId.class))).andReturn(mockKieContainer).andReturn(mockKieContainer2);
+		expect(mockKieContainer.verify()).andReturn(new ResultsImpl());
+		expect(mockKieContainer2.verify()).andReturn(new ResultsImpl());
+		mockWarmUp.warmUp(mockKieContainer2);
+		mockKieContainer.dispose();
+		replay(mockKieContainer, mockKieContainer2, mockKieServices, mockWarmUp);
+		
+		kieContainerProvider.getKieContainer(RELEASE_ID, 0);
+		KieContainer swappedKieContainer = kieContainerProvider.hotSwap(RELEASE_ID, "foo:bar:2.0", mockWarmUp).get(10, TimeUnit.SECONDS);
+		KieContainer actualKieContainer = kieContainerProvider.getKieContainer(RELEASE_ID, 0);
+		verify(mockKieContainer, mockKieContainer2, mockKieServices, mockWarmUp);
+		
+		assertSame(mockKieContainer2, swappedKieContainer);
+		assertSame(mockKieContainer2, actualKieContainer);
+		assertEquals(1, kieContainerProvider.getCacheSize());
+	}
+	
+	@Test
+	public void hotSwap_ValidationError_KeepsCurrentContainer() throws Exception {
+		KieContainer mockKieContainer2 = createMock(KieContainer.class);
+		kieContainerProvider.setSwapExecutor(Runnable::run);
+		ResultsImpl results = new ResultsImpl();
+		results.addMessage(Level.ERROR, "path", "error message");
+		expect(mockKieServices.newKieContainer(isA(ReleaseId.class))).andReturn(mockKieContainer).andReturn(mockKieContainer2);
+		expect(mockKieContainer.verify()).andReturn(new ResultsImpl());
+		expect(mockKieContainer2.verify()).andReturn(results);
+		mockKieContainer2.dispose();
+		replay(mockKieContainer, mockKieContainer2, mockKieServices);
+		
+		kieContainerProvider.getKieContainer(RELEASE_ID, 0);
+		try{
+			kieContainerProvider.hotSwap(RELEASE_ID, "foo:bar:2.0", null).get(10, TimeUnit.SECONDS);
+			fail("Expected validation error");
+		}catch(ExecutionException e){
+			assertTrue(e.getCause() instanceof RulesSupportRuntimeException);
+		}
+		KieContainer actualKieContainer = kieContainerProvider.getKieContainer(RELEASE_ID, 0);
+		verify(mockKieContainer, mockKieContainer2, mockKieServices);
+		
+		assertSame(mockKieContainer, actualKieContainer);
+	}
+
+	@Test
+	public void acquireKieContainer_Swapped_DisposesOnceLeaseClosed() throws Exception {
+		KieContainer mockKieContainer2 = createMock(KieContainer.class);
+		CountDownLatch disposeLatch = new CountDownLatch(1);
+		kieContainerProvider.setSwapExecutor(Runnable::run);
+		kieContainerProvider.setDrainTimeoutMillis(0);
+		expect(mockKieServices.newKieContainer(isA(ReleaseId.class))).andReturn(mockKieContainer).andReturn(mockKieContainer2);
+		expect(mockKieContainer.verify()).andReturn(new ResultsImpl());
+		expect(mockKieContainer2.verify()).andReturn(new ResultsImpl());
+		mockKieContainer.dispose();
+		expectLastCall().andAnswer(() -> {
+			disposeLatch.countDown();
+			return null;
+		});
+		replay(mockKieContainer, mockKieContainer2, mockKieServices);
+		
+		KieContainerLease lease = kieContainerProvider.acquireKieContainer(RELEASE_ID, 0);
+		kieContainerProvider.hotSwap(RELEASE_ID, "foo:bar:2.0", null).get(10, TimeUnit.SECONDS);
+		assertSame(mockKieContainer, lease.getKieContainer());
+		assertEquals(1, disposeLatch.getCount());
+		
+		lease.close();
+		assertTrue(disposeLatch.await(5, TimeUnit.SECONDS));
+		verify(mockKieContainer, mockKieContainer2, mockKieServices);
+	}
+	
+	@Test
+	public void hotSwap_DuringBuild_SwapsOnceBuilt() throws Exception {
+		KieContainer mockKieContainer2 = createMock(KieContainer.class);
+		CountDownLatch buildStarted = new CountDownLatch(1);
+		CountDownLatch buildLatch = new CountDownLatch(1);
+		kieContainerProvider.setDrainTimeoutMillis(0);
+		expect(mockKieServices.newKieContainer(isA(ReleaseId.class))).andAnswer(() -> {
+			buildStarted.countDown();
+			buildLatch.await(5, TimeUnit.SECONDS);
+			return mockKieContainer;
+		}).andReturn(mockKieContainer2);
+		expect(mockKieContainer.verify()).andReturn(new ResultsImpl());
+		expect(mockKieContainer2.verify()).andReturn(new ResultsImpl());
+		mockKieContainer.dispose();
+		replay(mockKieContainer, mockKieContainer2, mockKieServices);
+		
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		try{
+			Future<KieContainer> building = executorService.submit(() -> kieContainerProvider.getKieContainer(RELEASE_ID, 0));
+			assertTrue(buildStarted.await(5, TimeUnit.SECONDS));
+			Future<KieContainer> swapping = kieContainerProvider.hotSwap(RELEASE_ID, "foo:bar:2.0", null);
+			Thread.sleep(100);
+			assertFalse(swapping.isDone());
+			
+			buildLatch.countDown();
+			assertSame(mockKieContainer, building.get(5, TimeUnit.SECONDS));
+			assertSame(mockKieContainer2, swapping.get(5, TimeUnit.SECONDS));
+		}finally{
+			executorService.shutdown();
+		}
+		
+		assertSame(mockKieContainer2, kieContainerProvider.getKieContainer(RELEASE_ID, 0));
+		verify(mockKieContainer, mockKieContainer2, mockKieServices);
+	}
+
 }
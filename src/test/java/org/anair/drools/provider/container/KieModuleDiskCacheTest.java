@@ -0,0 +1,96 @@
+package org.anair.drools.provider.container;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.drools.compiler.kie.builder.impl.ResultsImpl;
+import org.drools.compiler.kproject.ReleaseIdImpl;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.KieRepository;
+import org.kie.api.builder.ReleaseId;
+
+import static org.easymock.EasyMock.*;
+
+public class KieModuleDiskCacheTest {
+	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	private KieModuleDiskCache kieModuleDiskCache;
+	private static final ReleaseId RELEASE_ID = new ReleaseIdImpl("foo:bar:1.0");
+	private static final byte[] COMPILED_KIE_MODULE = "compiled kjar".getBytes();
+	
+	@Before
+	public void setUp() {
+		kieModuleDiskCache = new KieModuleDiskCache(temporaryFolder.getRoot().getAbsolutePath());
+	}
+
+	@Test
+	public void load_Stored() {
+		kieModuleDiskCache.store(RELEASE_ID, "hash1", COMPILED_KIE_MODULE);
+		
+		assertArrayEquals(COMPILED_KIE_MODULE, kieModuleDiskCache.load(RELEASE_ID, "hash1"));
+	}
+	
+	@Test
+	public void load_StaleContentHash_NotFound() {
+		kieModuleDiskCache.store(RELEASE_ID, "hash1", COMPILED_KIE_MODULE);
+		kieModuleDiskCache.store(RELEASE_ID, "hash2", COMPILED_KIE_MODULE);
+		
+		assertNull(kieModuleDiskCache.load(RELEASE_ID, "hash1"));
+		assertNotNull(kieModuleDiskCache.load(RELEASE_ID, "hash2"));
+		assertEquals(1, temporaryFolder.getRoot().list().length);
+	}
+	
+	@Test
+	public void load_Corrupt_Discarded() throws Exception {
+		kieModuleDiskCache.store(RELEASE_ID, "hash1", COMPILED_KIE_MODULE);
+		File[] cacheFiles = temporaryFolder.getRoot().listFiles();
+		Path cacheFile = cacheFiles[0].toPath();
+		byte[] content = Files.readAllBytes(cacheFile);
+		content[content.length - 1] ^= 1;
+		Files.write(cacheFile, content);
+		
+		assertNull(kieModuleDiskCache.load(RELEASE_ID, "hash1"));
+		assertFalse(Files.exists(cacheFile));
+	}
+
+	@Test
+	public void install_Miss_CompilesOnceAndInstallsCompiledModule() {
+		KieServices mockKieServices = createMock(KieServices.class);
+		KieRepository mockKieRepository = createMock(KieRepository.class);
+		InternalKieModule mockSourceKieModule = createNiceMock(InternalKieModule.class);
+		InternalKieModule mockCompiledKieModule = createMock(InternalKieModule.class);
+		KieBuilder mockKieBuilder = createMock(KieBuilder.class);
+		KieFileSystem mockKieFileSystem = createNiceMock(KieFileSystem.class);
+		expect(mockKieServices.getRepository()).andReturn(mockKieRepository).anyTimes();
+		expect(mockKieRepository.getKieModule(RELEASE_ID)).andReturn(mockSourceKieModule);
+		expect(mockSourceKieModule.getBytes()).andReturn("source kjar".getBytes());
+		expect(mockSourceKieModule.getFileNames()).andReturn(Collections.emptyList());
+		expect(mockKieServices.newKieFileSystem()).andReturn(mockKieFileSystem);
+		expect(mockKieServices.newKieBuilder(mockKieFileSystem)).andReturn(mockKieBuilder).once();
+		expect(mockKieBuilder.buildAll()).andReturn(mockKieBuilder).once();
+		expect(mockKieBuilder.getResults()).andReturn(new ResultsImpl());
+		expect(mockKieBuilder.getKieModule()).andReturn(mockCompiledKieModule);
+		expect(mockCompiledKieModule.getBytes()).andReturn(COMPILED_KIE_MODULE);
+		mockKieRepository.addKieModule(mockCompiledKieModule);
+		replay(mockKieServices, mockKieRepository, mockSourceKieModule, mockCompiledKieModule, mockKieBuilder, mockKieFileSystem);
+		
+		assertTrue(kieModuleDiskCache.install(mockKieServices, RELEASE_ID));
+		verify(mockKieServices, mockKieRepository, mockSourceKieModule, mockCompiledKieModule, mockKieBuilder, mockKieFileSystem);
+		
+		assertArrayEquals(COMPILED_KIE_MODULE, kieModuleDiskCache.load(RELEASE_ID, KieModuleDiskCache.toHex(KieModuleDiskCache.sha256("source kjar".getBytes()))));
+	}
+
+}
@@ -0,0 +1,88 @@
+package org.anair.drools.provider.session;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.anair.drools.provider.container.KieContainerProvider;
+import org.anair.drools.provider.container.KieContainerWarmUp;
+import org.anair.drools.provider.container.KnowledgeModule;
+import org.anair.rules.exception.RulesSupportRuntimeException;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.builder.model.KieSessionModel;
+import org.kie.api.builder.model.KieSessionModel.KieSessionType;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.StatelessKieSession;
+
+public class KieModuleInitializerTest {
+	
+	private KieContainerProvider mockKieContainerProvider;
+	private KieSessionProvider mockKieSessionProvider;
+	private KieContainer mockKieContainer;
+	private KieSessionModel mockStatefulSessionModel;
+	private KieSessionModel mockStatelessSessionModel;
+	private KieSession mockKieSession;
+	private StatelessKieSession mockStatelessKieSession;
+	private KieContainerWarmUp mockWarmUp;
+	private KieModuleInitializer kieModuleInitializer;
+	private static final String RELEASE_ID = "foo:bar:1.0";
+	
+	@Before
+	public void setUp() {
+		mockKieContainerProvider = createMock(KieContainerProvider.class);
+		mockKieSessionProvider = createMock(KieSessionProvider.class);
+		mockKieContainer = createMock(KieContainer.class);
+		mockStatefulSessionModel = createMock(KieSessionModel.class);
+		mockStatelessSessionModel = createMock(KieSessionModel.class);
+		mockKieSession = createMock(KieSession.class);
+		mockStatelessKieSession = createMock(StatelessKieSession.class);
+		mockWarmUp = createMock(KieContainerWarmUp.class);
+		
+		kieModuleInitializer = new KieModuleInitializer(mockKieContainerProvider, mockKieSessionProvider);
+	}
+
+	@Test
+	public void initialize_PrefillsSessionPoolsAndWarmsUp() {
+		KnowledgeModule knowledgeModule = new KnowledgeModule(RELEASE_ID, "stateful.session", "stateless.session");
+		knowledgeModule.setSessionPoolSize(2);
+		knowledgeModule.setWarmUp(mockWarmUp);
+		kieModuleInitializer.setKnowledgeModules(Arrays.asList(knowledgeModule));
+		
+		expect(mockKieContainerProvider.getKieContainer(RELEASE_ID, 0)).andReturn(mockKieContainer);
+		expect(mockKieContainer.getKieSessionModel("stateful.session")).andReturn(mockStatefulSessionModel);
+		expect(mockKieContainer.getKieSessionModel("stateless.session")).andReturn(mockStatelessSessionModel);
+		expect(mockStatefulSessionModel.getType()).andReturn(KieSessionType.STATEFUL);
+		expect(mockStatelessSessionModel.getType()).andReturn(KieSessionType.STATELESS);
+		expect(mockKieSessionProvider.getStatefulKieSession(RELEASE_ID, 0, "stateful.session", 2)).andReturn(mockKieSession).times(2);
+		mockKieSession.dispose();
+		expectLastCall().times(2);
+		expect(mockKieSessionProvider.getStatelessKieSession(RELEASE_ID, 0, "stateless.session", 2)).andReturn(mockStatelessKieSession);
+		mockWarmUp.warmUp(mockKieContainer);
+		replay(mockKieContainerProvider, mockKieSessionProvider, mockKieContainer, mockStatefulSessionModel, mockStatelessSessionModel, mockKieSession, mockWarmUp);
+		
+		assertFalse(kieModuleInitializer.isReady());
+		kieModuleInitializer.initialize();
+		
+		verify(mockKieContainerProvider, mockKieSessionProvider, mockKieContainer, mockStatefulSessionModel, mockStatelessSessionModel, mockKieSession, mockWarmUp);
+		assertTrue(kieModuleInitializer.isReady());
+	}
+	
+	@Test
+	public void initialize_ModuleFails_NotReady() {
+		kieModuleInitializer.setKnowledgeModules(Arrays.asList(new KnowledgeModule(RELEASE_ID)));
+		expect(mockKieContainerProvider.getKieContainer(RELEASE_ID, 0)).andThrow(new RulesSupportRuntimeException("Kie Container not found"));
+		replay(mockKieContainerProvider);
+		
+		try{
+			kieModuleInitializer.initialize();
+			fail("Expected knowledge module load failure");
+		}catch(RulesSupportRuntimeException e){
+			assertTrue(e.getMessage().contains(RELEASE_ID));
+		}
+		assertFalse(kieModuleInitializer.isReady());
+	}
+
+}
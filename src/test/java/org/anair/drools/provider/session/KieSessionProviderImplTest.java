@@ -2,10 +2,17 @@ package org.anair.drools.provider.session;
 
 import static org.junit.Assert.*;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.anair.drools.fluent.api.SessionBuilder;
+import org.anair.drools.provider.container.KieContainerLease;
 import org.anair.drools.provider.container.KieContainerProviderImpl;
+import org.drools.compiler.kie.builder.impl.ResultsImpl;
 import org.junit.Before;
 import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
 import org.kie.api.runtime.*;
 
 import static org.easymock.EasyMock.*;
@@ -23,7 +30,9 @@ public class KieSessionProviderImplTest {
 	
 	@Before
 	public void setUp() {
-		mockKieContainerProvider = createMock(KieContainerProviderImpl.class);
+		mockKieContainerProvider = createMockBuilder(KieContainerProviderImpl.class)
+				.addMockedMethod("acquireKieContainer", String.class, long.class)
+				.createMock();
 		mockKieContainer = createMock(KieContainer.class);
 		mockKieContainerSessionsPool = createMock(KieContainerSessionsPool.class);
 		mockKieSession = createMock(KieSession.class);
@@ -34,7 +43,7 @@ public class KieSessionProviderImplTest {
 
 	@Test
 	public void getStatefulKieSession_New() {
-		expect(mockKieContainerProvider.getKieContainer(RELEASE_ID, 100)).andReturn(mockKieContainer);
+		expect(mockKieContainerProvider.acquireKieContainer(RELEASE_ID, 100)).andReturn(KieContainerLease.unmanaged(mockKieContainer));
 		expect(mockKieContainer.newKieSessionsPool(10)).andReturn(mockKieContainerSessionsPool);
 		expect(mockKieContainerSessionsPool.newKieSession(SESSION_NAME)).andReturn(mockKieSession);
 		replay(mockKieContainerProvider, mockKieContainer, mockKieSession, mockKieContainerSessionsPool);
@@ -45,7 +54,7 @@ public class KieSessionProviderImplTest {
 	
 	@Test
 	public void getDefaultStatefulKieSession_New() {
-		expect(mockKieContainerProvider.getKieContainer(RELEASE_ID, 100)).andReturn(mockKieContainer);
+		expect(mockKieContainerProvider.acquireKieContainer(RELEASE_ID, 100)).andReturn(KieContainerLease.unmanaged(mockKieContainer));
 		expect(mockKieContainer.newKieSessionsPool(10)).andReturn(mockKieContainerSessionsPool);
 		expect(mockKieContainerSessionsPool.newKieSession(SessionBuilder.DEFAULT_SESSION_NAME)).andReturn(mockKieSession);
 		replay(mockKieContainerProvider, mockKieContainer, mockKieSession, mockKieContainerSessionsPool);
@@ -56,7 +65,7 @@ public class KieSessionProviderImplTest {
 	
 	@Test
 	public void getStatelessKieSession_New() {
-		expect(mockKieContainerProvider.getKieContainer(RELEASE_ID, 100)).andReturn(mockKieContainer);
+		expect(mockKieContainerProvider.acquireKieContainer(RELEASE_ID, 100)).andReturn(KieContainerLease.unmanaged(mockKieContainer));
 		expect(mockKieContainer.newKieSessionsPool(10)).andReturn(mockKieContainerSessionsPool);
 		expect(mockKieContainerSessionsPool.newStatelessKieSession(SESSION_NAME)).andReturn(mockStatelessKieSession);
 		
@@ -68,7 +77,7 @@ public class KieSessionProviderImplTest {
 	
 	@Test
 	public void getDefaultStatelessKieSession_New() {
-		expect(mockKieContainerProvider.getKieContainer(RELEASE_ID, 100)).andReturn(mockKieContainer);
+		expect(mockKieContainerProvider.acquireKieContainer(RELEASE_ID, 100)).andReturn(KieContainerLease.unmanaged(mockKieContainer));
 		expect(mockKieContainer.newKieSessionsPool(10)).andReturn(mockKieContainerSessionsPool);
 		expect(mockKieContainerSessionsPool.newStatelessKieSession(SessionBuilder.DEFAULT_SESSION_NAME)).andReturn(mockStatelessKieSession);
 		replay(mockKieContainerProvider, mockKieContainer, mockStatelessKieSession, mockKieContainerSessionsPool);
@@ -77,4 +86,110 @@ public class KieSessionProviderImplTest {
 		assertNotNull(actualKieSession);
 	}
 	
+	@Test
+	public void getStatefulKieSession_ReusesSessionsPool() {
+		expect(mockKieContainerProvider.acquireKieContainer(RELEASE_ID, 100)).andReturn(KieContainerLease.unmanaged(mockKieContainer)).times(2);
+		expect(mockKieContainer.newKieSessionsPool(10)).andReturn(mockKieContainerSessionsPool).once();
+		expect(mockKieContainerSessionsPool.newKieSession(SESSION_NAME)).andReturn(mockKieSession).times(2);
+		replay(mockKieContainerProvider, mockKieContainer, mockKieSession, mockKieContainerSessionsPool);
+		kieSessionProvider.getStatefulKieSession(RELEASE_ID, 100, SESSION_NAME, 10);
+		KieSession actualKieSession = kieSessionProvider.getStatefulKieSession(RELEASE_ID, 100, SESSION_NAME, 10);
+		verify(mockKieContainerProvider, mockKieContainer, mockKieSession, mockKieContainerSessionsPool);
+		assertNotNull(actualKieSession);
+		assertEquals(1, kieSessionProvider.getKieSessionPoolRegistry().getMissCount());
+		assertEquals(1, kieSessionProvider.getKieSessionPoolRegistry().getHitCount());
+		assertEquals(2, kieSessionProvider.getKieSessionPoolRegistry().getAcquisitionCount());
+	}
+	
+	@Test
+	public void getStatefulKieSession_OtherPoolSize_ReusesPoolAndCountsMismatch() {
+		expect(mockKieContainerProvider.acquireKieContainer(RELEASE_ID, 100)).andReturn(KieContainerLease.unmanaged(mockKieContainer)).times(2);
+		expect(mockKieContainer.newKieSessionsPool(10)).andReturn(mockKieContainerSessionsPool).once();
+		expect(mockKieContainerSessionsPool.newKieSession(SESSION_NAME)).andReturn(mockKieSession).times(2);
+		replay(mockKieContainerProvider, mockKieContainer, mockKieSession, mockKieContainerSessionsPool);
+		kieSessionProvider.getStatefulKieSession(RELEASE_ID, 100, SESSION_NAME, 10);
+		kieSessionProvider.getStatefulKieSession(RELEASE_ID, 100, SESSION_NAME, 50);
+		verify(mockKieContainerProvider, mockKieContainer, mockKieSession, mockKieContainerSessionsPool);
+		assertEquals(1, kieSessionProvider.getKieSessionPoolRegistry().getPoolCount());
+		assertEquals(1, kieSessionProvider.getKieSessionPoolRegistry().getPoolSizeMismatchCount());
+	}
+	
+	@Test
+	public void shutdown_ShutsDownSessionsPools() {
+		expect(mockKieContainerProvider.acquireKieContainer(RELEASE_ID, 100)).andReturn(KieContainerLease.unmanaged(mockKieContainer));
+		expect(mockKieContainer.newKieSessionsPool(10)).andReturn(mockKieContainerSessionsPool);
+		expect(mockKieContainerSessionsPool.newStatelessKieSession(SESSION_NAME)).andReturn(mockStatelessKieSession);
+		mockKieContainerSessionsPool.shutdown();
+		replay(mockKieContainerProvider, mockKieContainer, mockStatelessKieSession, mockKieContainerSessionsPool);
+		kieSessionProvider.getStatelessKieSession(RELEASE_ID, 100, SESSION_NAME, 10);
+		kieSessionProvider.shutdown();
+		verify(mockKieContainerProvider, mockKieContainer, mockStatelessKieSession, mockKieContainerSessionsPool);
+		assertEquals(0, kieSessionProvider.getKieSessionPoolRegistry().getPoolCount());
+	}
+	
+	@Test
+	public void evictKieContainer_PooledSessions_DisposesOnceSessionPoolShutDown() throws Exception {
+		KieServices mockKieServices = createMock(KieServices.class);
+		KieContainerProviderImpl kieContainerProvider = new KieContainerProviderImpl();
+		kieContainerProvider.setKieServices(mockKieServices);
+		kieSessionProvider = new KieSessionProviderImpl(kieContainerProvider);
+		kieSessionProvider.getKieSessionPoolRegistry().setDrainTimeoutMillis(300);
+		CountDownLatch disposeLatch = new CountDownLatch(1);
+		expect(mockKieServices.newKieContainer(isA(ReleaseId.class))).andReturn(mockKieContainer);
+		expect(mockKieContainer.verify()).andReturn(new ResultsImpl());
+		expect(mockKieContainer.newKieSessionsPool(10)).andReturn(mockKieContainerSessionsPool);
+		expect(mockKieContainerSessionsPool.newKieSession(SESSION_NAME)).andReturn(mockKieSession);
+		mockKieContainerSessionsPool.shutdown();
+		mockKieContainer.dispose();
+		expectLastCall().andAnswer(() -> {
+			disposeLatch.countDown();
+			return null;
+		});
+		replay(mockKieServices, mockKieContainer, mockKieSession, mockKieContainerSessionsPool);
+		
+		kieSessionProvider.getStatefulKieSession(RELEASE_ID, 0, SESSION_NAME, 10);
+		kieContainerProvider.evictKieContainer(RELEASE_ID);
+		//The session pool is drained on eviction and holds the container until it is shut down
+		assertFalse(disposeLatch.await(100, TimeUnit.MILLISECONDS));
+		assertEquals(0, kieSessionProvider.getKieSessionPoolRegistry().getPoolCount());
+		
+		assertTrue(disposeLatch.await(5, TimeUnit.SECONDS));
+		verify(mockKieServices, mockKieContainer, mockKieSession, mockKieContainerSessionsPool);
+	}
+	
+	@Test
+	public void hotSwap_PooledSessions_NextSessionFromNewContainer() throws Exception {
+		KieServices mockKieServices = createMock(KieServices.class);
+		KieContainer mockKieContainer2 = createMock(KieContainer.class);
+		KieContainerSessionsPool mockKieContainerSessionsPool2 = createMock(KieContainerSessionsPool.class);
+		KieSession mockKieSession2 = createMock(KieSession.class);
+		KieContainerProviderImpl kieContainerProvider = new KieContainerProviderImpl();
+		kieContainerProvider.setKieServices(mockKieServices);
+		kieContainerProvider.setSwapExecutor(Runnable::run);
+		kieContainerProvider.setDrainTimeoutMillis(0);
+		kieSessionProvider = new KieSessionProviderImpl(kieContainerProvider);
+		kieSessionProvider.getKieSessionPoolRegistry().setDrainTimeoutMillis(0);
+		CountDownLatch disposeLatch = new CountDownLatch(1);
+		expect(mockKieServices.newKieContainer(isA(ReleaseId.class))).andReturn(mockKieContainer).andReturn(mockKieContainer2);
+		expect(mockKieContainer.verify()).andReturn(new ResultsImpl());
+		expect(mockKieContainer2.verify()).andReturn(new ResultsImpl());
+		expect(mockKieContainer.newKieSessionsPool(10)).andReturn(mockKieContainerSessionsPool);
+		expect(mockKieContainer2.newKieSessionsPool(10)).andReturn(mockKieContainerSessionsPool2);
+		expect(mockKieContainerSessionsPool.newKieSession(SESSION_NAME)).andReturn(mockKieSession);
+		expect(mockKieContainerSessionsPool2.newKieSession(SESSION_NAME)).andReturn(mockKieSession2);
+		mockKieContainerSessionsPool.shutdown();
+		mockKieContainer.dispose();
+		expectLastCall().andAnswer(() -> {
+			disposeLatch.countDown();
+			return null;
+		});
+		replay(mockKieServices, mockKieContainer, mockKieContainer2, mockKieSession, mockKieSession2, mockKieContainerSessionsPool, mockKieContainerSessionsPool2);
+		
+		kieSessionProvider.getStatefulKieSession(RELEASE_ID, 0, SESSION_NAME, 10);
+		kieContainerProvider.hotSwap(RELEASE_ID, "foo:bar:2.0", null).get(5, TimeUnit.SECONDS);
+		assertTrue(disposeLatch.await(5, TimeUnit.SECONDS));
+		assertSame(mockKieSession2, kieSessionProvider.getStatefulKieSession(RELEASE_ID, 0, SESSION_NAME, 10));
+		verify(mockKieServices, mockKieContainer, mockKieContainer2, mockKieSession, mockKieSession2, mockKieContainerSessionsPool, mockKieContainerSessionsPool2);
+	}
+	
 }
@@ -0,0 +1,144 @@
+package org.anair.drools.provider.session;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.anair.rules.exception.RulesSupportRuntimeException;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.FactHandle;
+
+public class PartitionedKieSessionManagerTest {
+	
+	private KieSession mockKieSession;
+	private FactHandle mockFactHandle;
+	
+	@Before
+	public void setUp() {
+		mockKieSession = createMock(KieSession.class);
+		mockFactHandle = createMock(FactHandle.class);
+	}
+
+	@Test
+	public void insertAll_FiresBeforeTaskOnOwningPartition() throws Exception {
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.insert("fact2")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andReturn(2);
+		expect(mockKieSession.getFactCount()).andReturn(2L);
+		mockKieSession.dispose();
+		replay(mockKieSession, mockFactHandle);
+		
+		PartitionedKieSessionManager manager = new PartitionedKieSessionManager(1, () -> mockKieSession);
+		manager.start();
+		manager.insertAll("customer-1", Arrays.asList("fact1", "fact2"));
+		long factCount = manager.execute("customer-1", KieSession::getFactCount).get(10, TimeUnit.SECONDS);
+		manager.shutdown();
+		
+		verify(mockKieSession, mockFactHandle);
+		
+		assertEquals(2L, factCount);
+		assertEquals(2, manager.getInsertedCount(0));
+		assertEquals(2, manager.getRulesFiredCount(0));
+		assertEquals(0, manager.getQueueDepth(0));
+	}
+	
+	@Test
+	public void partitionFor_SameKeySamePartition() {
+		PartitionedKieSessionManager manager = new PartitionedKieSessionManager(8, () -> mockKieSession);
+		
+		int partition = manager.partitionFor("customer-1");
+		assertEquals(partition, manager.partitionFor("customer-1"));
+		assertTrue(partition >= 0 && partition < 8);
+	}
+	
+	@Test
+	public void start_SessionSupplierFails_StopsStartedPartitions() {
+		mockKieSession.dispose();
+		replay(mockKieSession);
+		
+		AtomicInteger suppliedSessions = new AtomicInteger();
+		PartitionedKieSessionManager manager = new PartitionedKieSessionManager(3, () -> {
+			if(suppliedSessions.getAndIncrement() == 1){
+				throw new RulesSupportRuntimeException("Kie session not found");
+			}
+			return mockKieSession;
+		});
+		try{
+			manager.start();
+			fail("Expected start to fail");
+		}catch(RulesSupportRuntimeException e){
+			assertEquals("Kie session not found", e.getMessage());
+		}
+		
+		//The session of the partition started before the failure is disposed
+		verify(mockKieSession);
+		assertEquals(2, suppliedSessions.get());
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void insert_NotStarted() {
+		new PartitionedKieSessionManager(2, () -> mockKieSession).insert("customer-1", "fact1");
+	}
+	
+	@Test
+	public void fireAllRules_Error_FailsPartitionAndRejectsCallers() throws Exception {
+		expect(mockKieSession.insert("fact1")).andReturn(mockFactHandle);
+		expect(mockKieSession.fireAllRules()).andThrow(new StackOverflowError());
+		mockKieSession.dispose();
+		replay(mockKieSession, mockFactHandle);
+		
+		PartitionedKieSessionManager manager = new PartitionedKieSessionManager(1, () -> mockKieSession);
+		manager.start();
+		manager.insert("customer-1", "fact1");
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(!manager.isPartitionFailed(0) && System.nanoTime() < deadline){
+			Thread.sleep(10);
+		}
+		
+		assertTrue(manager.isPartitionFailed(0));
+		try{
+			manager.execute("customer-1", KieSession::getFactCount);
+			fail("Expected failed partition");
+		}catch(IllegalStateException e){
+			assertTrue(e.getCause() instanceof StackOverflowError);
+		}
+		manager.shutdown();
+		verify(mockKieSession, mockFactHandle);
+	}
+	
+	@Test
+	public void execute_TaskError_FailsOnlyTheTask() throws Exception {
+		mockKieSession.dispose();
+		replay(mockKieSession);
+		
+		PartitionedKieSessionManager manager = new PartitionedKieSessionManager(1, () -> mockKieSession);
+		manager.start();
+		CompletableFuture<Long> failingTask = manager.execute("customer-1", session -> {
+			throw new StackOverflowError();
+		});
+		try{
+			failingTask.get(5, TimeUnit.SECONDS);
+			fail("Expected task failure");
+		}catch(ExecutionException e){
+			assertTrue(e.getCause() instanceof StackOverflowError);
+		}
+		assertFalse(manager.isPartitionFailed(0));
+		manager.shutdown();
+		
+		try{
+			manager.insert("customer-1", "fact1");
+			fail("Expected shut down partition");
+		}catch(IllegalStateException e){
+			//Rejected instead of blocking or queuing for a stopped worker
+		}
+		verify(mockKieSession);
+	}
+
+}
@@ -0,0 +1,221 @@
+package org.anair.drools.reactive;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.anair.drools.model.FiredRulesReturnValues;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.command.BatchExecutionCommand;
+import org.kie.api.runtime.ExecutionResults;
+import org.kie.api.runtime.StatelessKieSession;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class RulesProcessorTest {
+	
+	private StatelessKieSession mockStatelessKieSession;
+	private ExecutionResults mockExecutionResults;
+	private TestSubscription upstream;
+	private TestSubscriber downstream;
+	private RulesProcessor rulesProcessor;
+	
+	@Before
+	public void setUp() {
+		mockStatelessKieSession = createMock(StatelessKieSession.class);
+		mockExecutionResults = createMock(ExecutionResults.class);
+		expect(mockExecutionResults.getValue("numberOfRulesFired")).andReturn(1).anyTimes();
+		upstream = new TestSubscription();
+		downstream = new TestSubscriber();
+		rulesProcessor = new RulesProcessor(() -> mockStatelessKieSession, Runnable::run);
+		rulesProcessor.setExecutionCustomizer(rulesExecution -> rulesExecution.lightweight());
+		rulesProcessor.setConcurrency(1);
+	}
+
+	@Test
+	public void onNext_SlowSubscriber_StopsRequestingUpstream() {
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExecutionResults).times(2);
+		replay(mockStatelessKieSession, mockExecutionResults);
+		rulesProcessor.setBatchSize(2);
+		rulesProcessor.setBatchWindow(1, TimeUnit.MINUTES);
+		rulesProcessor.setPrefetch(4);
+		rulesProcessor.subscribe(downstream);
+		rulesProcessor.onSubscribe(upstream);
+		
+		for(int i=0;i<4;i++){
+			rulesProcessor.onNext(Arrays.asList("fact" + i));
+		}
+		assertEquals(4, upstream.requested);
+		assertTrue(downstream.values.isEmpty());
+		
+		downstream.subscription.request(1);
+		assertEquals(1, downstream.values.size());
+		assertEquals(6, upstream.requested);
+		
+		verify(mockStatelessKieSession, mockExecutionResults);
+	}
+	
+	@Test
+	public void onComplete_FlushesPartialBatchAndCompletes() {
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExecutionResults);
+		replay(mockStatelessKieSession, mockExecutionResults);
+		rulesProcessor.setBatchSize(10);
+		rulesProcessor.setBatchWindow(1, TimeUnit.MINUTES);
+		rulesProcessor.subscribe(downstream);
+		rulesProcessor.onSubscribe(upstream);
+		downstream.subscription.request(Long.MAX_VALUE);
+		
+		rulesProcessor.onNext(Arrays.asList("fact1", "fact2"));
+		rulesProcessor.onNext(Arrays.asList("fact3"));
+		assertTrue(downstream.values.isEmpty());
+		rulesProcessor.onComplete();
+		
+		verify(mockStatelessKieSession, mockExecutionResults);
+		assertEquals(1, downstream.values.size());
+		assertEquals(1, downstream.values.get(0).getNumberOfRulesFired().intValue());
+		assertTrue(downstream.completed);
+	}
+	
+	@Test
+	public void onNext_ExecutionFails_CancelsUpstreamAndSignalsError() {
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andThrow(new IllegalStateException("rule failed"));
+		replay(mockStatelessKieSession, mockExecutionResults);
+		rulesProcessor.setBatchSize(1);
+		rulesProcessor.subscribe(downstream);
+		rulesProcessor.onSubscribe(upstream);
+		downstream.subscription.request(1);
+		
+		rulesProcessor.onNext(Arrays.asList("fact1"));
+		
+		verify(mockStatelessKieSession, mockExecutionResults);
+		assertTrue(upstream.cancelled);
+		assertEquals("rule failed", downstream.error.getMessage());
+		assertFalse(downstream.completed);
+	}
+	
+	@Test
+	public void onNext_DefaultBatchSize_OneResultPerFactGroup() {
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExecutionResults).times(2);
+		replay(mockStatelessKieSession, mockExecutionResults);
+		rulesProcessor.subscribe(downstream);
+		rulesProcessor.onSubscribe(upstream);
+		downstream.subscription.request(Long.MAX_VALUE);
+		
+		rulesProcessor.onNext(Arrays.asList("fact1", "fact2"));
+		rulesProcessor.onNext(Arrays.asList("fact3"));
+		rulesProcessor.onComplete();
+		
+		verify(mockStatelessKieSession, mockExecutionResults);
+		assertEquals(2, downstream.values.size());
+		assertTrue(downstream.completed);
+	}
+	
+	@Test
+	public void onNext_BatchWindowElapsed_DrainsOnExecutor() throws Exception {
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExecutionResults);
+		replay(mockStatelessKieSession, mockExecutionResults);
+		ExecutorService executorService = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "rules-processor-test"));
+		try{
+			rulesProcessor = new RulesProcessor(() -> mockStatelessKieSession, executorService);
+			rulesProcessor.setExecutionCustomizer(rulesExecution -> rulesExecution.lightweight());
+			rulesProcessor.setBatchSize(10);
+			rulesProcessor.setBatchWindow(20, TimeUnit.MILLISECONDS);
+			rulesProcessor.subscribe(downstream);
+			rulesProcessor.onSubscribe(upstream);
+			downstream.subscription.request(Long.MAX_VALUE);
+			
+			rulesProcessor.onNext(Arrays.asList("fact1"));
+			assertTrue(downstream.emitted.await(5, TimeUnit.SECONDS));
+		}finally{
+			executorService.shutdown();
+		}
+		
+		verify(mockStatelessKieSession, mockExecutionResults);
+		assertEquals("rules-processor-test", downstream.emittingThread);
+	}
+	
+	@Test
+	public void onError_BeforeSubscribe_SignalledToLateSubscriber() {
+		replay(mockStatelessKieSession, mockExecutionResults);
+		rulesProcessor.onSubscribe(upstream);
+		rulesProcessor.onError(new IllegalStateException("upstream failed"));
+		
+		rulesProcessor.subscribe(downstream);
+		
+		assertNotNull(downstream.subscription);
+		assertEquals("upstream failed", downstream.error.getMessage());
+		assertFalse(upstream.cancelled);
+	}
+	
+	@Test
+	public void onComplete_BeforeSubscribe_LateSubscriberGetsResultsAndCompletion() {
+		expect(mockStatelessKieSession.execute(isA(BatchExecutionCommand.class))).andReturn(mockExecutionResults);
+		replay(mockStatelessKieSession, mockExecutionResults);
+		rulesProcessor.onSubscribe(upstream);
+		rulesProcessor.onNext(Arrays.asList("fact1"));
+		rulesProcessor.onComplete();
+		
+		rulesProcessor.subscribe(downstream);
+		assertFalse(downstream.completed);
+		downstream.subscription.request(1);
+		
+		verify(mockStatelessKieSession, mockExecutionResults);
+		assertEquals(1, downstream.values.size());
+		assertTrue(downstream.completed);
+	}
+	
+	private static class TestSubscription implements Subscription {
+		private long requested;
+		private boolean cancelled;
+		
+		@Override
+		public void request(long n) {
+			requested += n;
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+	
+	private static class TestSubscriber implements Subscriber<FiredRulesReturnValues> {
+		private final List<FiredRulesReturnValues> values = new ArrayList<>();
+		private final CountDownLatch emitted = new CountDownLatch(1);
+		private volatile String emittingThread;
+		private Subscription subscription;
+		private Throwable error;
+		private boolean completed;
+		
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(FiredRulesReturnValues value) {
+			values.add(value);
+			emittingThread = Thread.currentThread().getName();
+			emitted.countDown();
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			this.error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			this.completed = true;
+		}
+	}
+
+}
@@ -0,0 +1,170 @@
+package org.anair.drools.test.listener;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+
+import org.anair.drools.test.annotation.EventListeners;
+import org.anair.drools.test.annotation.StatelessKSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.Message.Level;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.builder.model.KieBaseModel;
+import org.kie.api.builder.model.KieModuleModel;
+import org.kie.api.builder.model.KieSessionModel.KieSessionType;
+import org.kie.api.cdi.KReleaseId;
+import org.kie.api.cdi.KSession;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.StatelessKieSession;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.test.annotation.DirtiesContext.HierarchyMode;
+import org.springframework.test.context.TestContext;
+
+public class DroolsTestExecutionListenerTest {
+	
+	private static final String STATELESS_SESSION_NAME = "listener.stateless.session";
+	private static final String STATEFUL_SESSION_NAME = "listener.session";
+	private GenericApplicationContext applicationContext;
+	
+	@BeforeClass
+	public static void installKnowledgeModule() {
+		KieServices kieServices = KieServices.Factory.get();
+		ReleaseId releaseId = kieServices.newReleaseId("org.anair.drools", "listener-test", "1.0.0");
+		
+		KieModuleModel kieModuleModel = kieServices.newKieModuleModel();
+		KieBaseModel kieBaseModel = kieModuleModel.newKieBaseModel("listener.kbase").setDefault(true).addPackage("org.anair.drools.listener");
+		kieBaseModel.newKieSessionModel(STATELESS_SESSION_NAME).setType(KieSessionType.STATELESS);
+		kieBaseModel.newKieSessionModel(STATEFUL_SESSION_NAME).setType(KieSessionType.STATEFUL);
+		
+		KieFileSystem kieFileSystem = kieServices.newKieFileSystem();
+		kieFileSystem.generateAndWritePomXML(releaseId);
+		kieFileSystem.writeKModuleXML(kieModuleModel.toXML());
+		kieFileSystem.write("src/main/resources/org/anair/drools/listener/listener.drl",
+				"package org.anair.drools.listener\nrule \"noop\"\nwhen\n	String()\nthen\nend\n");
+		
+		KieBuilder kieBuilder = kieServices.newKieBuilder(kieFileSystem).buildAll();
+		assertFalse(kieBuilder.getResults().getMessages(Level.ERROR).toString(), kieBuilder.getResults().hasMessages(Level.ERROR));
+	}
+	
+	@Before
+	public void setUp() {
+		applicationContext = new GenericApplicationContext();
+		applicationContext.refresh();
+	}
+	
+	@After
+	public void tearDown() {
+		System.clearProperty(DroolsTestExecutionListener.CONTAINER_CACHE_PROPERTY);
+		applicationContext.close();
+	}
+
+	@Test
+	public void afterTestClass_ContainerCacheDisabled_MarksContextDirty() {
+		TestContext testContext = testContext(StatelessTestClass.class);
+		testContext.markApplicationContextDirty(HierarchyMode.EXHAUSTIVE);
+		replay(testContext);
+		
+		DroolsTestExecutionListener listener = new DroolsTestExecutionListener();
+		listener.beforeTestClass(testContext);
+		assertTrue(applicationContext.getBeanFactory().containsSingleton(STATELESS_SESSION_NAME));
+		listener.afterTestClass(testContext);
+		
+		verify(testContext);
+	}
+	
+	@Test
+	public void afterTestClass_ParallelClassesShareBean_LastClassRemovesIt() {
+		System.setProperty(DroolsTestExecutionListener.CONTAINER_CACHE_PROPERTY, "true");
+		TestContext testContext = testContext(StatelessTestClass.class);
+		TestContext otherTestContext = testContext(OtherStatelessTestClass.class);
+		replay(testContext, otherTestContext);
+		
+		DroolsTestExecutionListener listener = new DroolsTestExecutionListener();
+		DroolsTestExecutionListener otherListener = new DroolsTestExecutionListener();
+		listener.beforeTestClass(testContext);
+		Object statelessKieSession = applicationContext.getBean(STATELESS_SESSION_NAME);
+		otherListener.beforeTestClass(otherTestContext);
+		assertSame(statelessKieSession, applicationContext.getBean(STATELESS_SESSION_NAME));
+		
+		listener.afterTestClass(testContext);
+		assertTrue(applicationContext.getBeanFactory().containsSingleton(STATELESS_SESSION_NAME));
+		otherListener.afterTestClass(otherTestContext);
+		assertFalse(applicationContext.getBeanFactory().containsSingleton(STATELESS_SESSION_NAME));
+		
+		verify(testContext, otherTestContext);
+	}
+	
+	@Test
+	public void beforeTestClass_StatefulSessionInUse_Rejected() {
+		System.setProperty(DroolsTestExecutionListener.CONTAINER_CACHE_PROPERTY, "true");
+		TestContext testContext = testContext(StatefulTestClass.class);
+		TestContext otherTestContext = testContext(StatefulTestClass.class);
+		replay(testContext, otherTestContext);
+		
+		DroolsTestExecutionListener listener = new DroolsTestExecutionListener();
+		DroolsTestExecutionListener otherListener = new DroolsTestExecutionListener();
+		listener.beforeTestClass(testContext);
+		try{
+			otherListener.beforeTestClass(otherTestContext);
+			fail("Expected IllegalStateException");
+		}catch(IllegalStateException e){
+			assertTrue(e.getMessage().contains(STATEFUL_SESSION_NAME));
+		}finally{
+			otherListener.afterTestClass(otherTestContext);
+		}
+		assertTrue(applicationContext.getBeanFactory().containsSingleton(STATEFUL_SESSION_NAME));
+		listener.afterTestClass(testContext);
+		assertFalse(applicationContext.getBeanFactory().containsSingleton(STATEFUL_SESSION_NAME));
+		
+		verify(testContext, otherTestContext);
+	}
+	
+	@Test
+	public void traceFile_PerTestClassAndProcess() {
+		String processId = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+		
+		Path traceFile = DroolsTestExecutionListener.traceFile(StatelessTestClass.class, "rules-trace");
+		Path otherTraceFile = DroolsTestExecutionListener.traceFile(OtherStatelessTestClass.class, "rules-trace");
+		
+		assertNotEquals(traceFile, otherTraceFile);
+		assertEquals("target", traceFile.getParent().toString());
+		assertEquals("rules-trace-" + StatelessTestClass.class.getName() + "-" + processId + ".bin", traceFile.getFileName().toString());
+	}
+	
+	private TestContext testContext(Class<?> testClass) {
+		TestContext testContext = createMock(TestContext.class);
+		expect(testContext.getTestClass()).andReturn(testClass).anyTimes();
+		expect(testContext.getApplicationContext()).andReturn(applicationContext).anyTimes();
+		return testContext;
+	}
+	
+	@KReleaseId(groupId="org.anair.drools", artifactId="listener-test", version="1.0.0")
+	@EventListeners(enabled=false)
+	private static class StatelessTestClass {
+		@StatelessKSession(STATELESS_SESSION_NAME)
+		private StatelessKieSession statelessKieSession;
+	}
+	
+	@KReleaseId(groupId="org.anair.drools", artifactId="listener-test", version="1.0.0")
+	@EventListeners(enabled=false)
+	private static class OtherStatelessTestClass {
+		@StatelessKSession(STATELESS_SESSION_NAME)
+		private StatelessKieSession statelessKieSession;
+	}
+	
+	@KReleaseId(groupId="org.anair.drools", artifactId="listener-test", version="1.0.0")
+	@EventListeners(enabled=false)
+	private static class StatefulTestClass {
+		@KSession(STATEFUL_SESSION_NAME)
+		private KieSession kieSession;
+	}
+
+}
@@ -0,0 +1,142 @@
+package org.anair.drools.trace;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TraceWriterTest {
+	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	@Test
+	public void record_ConvertedToAuditLog() throws Exception {
+		Path traceFile = new File(temporaryFolder.getRoot(), "rules-trace.bin").toPath();
+		Path auditLogFile = new File(temporaryFolder.getRoot(), "rules-trace.log").toPath();
+		
+		TraceWriter traceWriter = new TraceWriter(traceFile);
+		traceWriter.record(TraceEvent.objectEvent(TraceEvent.INSERTED, 1, "Order<1>"));
+		traceWriter.record(TraceEvent.activationEvent(TraceEvent.AFTER_ACTIVATION_FIRE, "Big order",
+				new long[]{1}, "$order=Order<1>"));
+		traceWriter.close();
+		TraceFileConverter.toAuditLog(traceFile, auditLogFile);
+		
+		String auditLog = new String(Files.readAllBytes(auditLogFile), StandardCharsets.UTF_8);
+		assertEquals(2, traceWriter.getWrittenEventCount());
+		assertTrue(auditLog.startsWith("<object-stream>"));
+		assertTrue(auditLog.contains("<objectToString>Order&lt;1&gt;</objectToString>"));
+		assertTrue(auditLog.contains("<activationId>Big order [1]</activationId>"));
+		assertTrue(auditLog.contains("<declarations>$order=Order&lt;1&gt;</declarations>"));
+	}
+	
+	@Test
+	public void record_RingFileKeepsMostRecentEvents() throws Exception {
+		Path traceFile = new File(temporaryFolder.getRoot(), "rules-trace.bin").toPath();
+		Path auditLogFile = new File(temporaryFolder.getRoot(), "rules-trace.log").toPath();
+		
+		TraceWriter traceWriter = new TraceWriter(traceFile, 16 * 1024, 2, 100000);
+		for(int i=0;i<10000;i++){
+			traceWriter.record(TraceEvent.objectEvent(TraceEvent.INSERTED, i, "fact-" + i));
+		}
+		traceWriter.close();
+		TraceFileConverter.toAuditLog(traceFile, auditLogFile);
+		
+		String auditLog = new String(Files.readAllBytes(auditLogFile), StandardCharsets.UTF_8);
+		assertTrue(auditLog.contains("<objectToString>fact-9999</objectToString>"));
+		assertFalse(auditLog.contains("<objectToString>fact-0</objectToString>"));
+		assertTrue(auditLog.endsWith("</object-stream>\n"));
+	}
+	
+	@Test
+	public void record_AfterClose_Dropped() {
+		TraceWriter traceWriter = new TraceWriter(new File(temporaryFolder.getRoot(), "rules-trace.bin").toPath());
+		traceWriter.close();
+		traceWriter.record(TraceEvent.objectEvent(TraceEvent.INSERTED, 1, "fact"));
+		
+		assertEquals(1, traceWriter.getDroppedEventCount());
+	}
+
+	@Test
+	public void record_MultiByteText_CutAtCharacterBoundary() throws Exception {
+		Path traceFile = new File(temporaryFolder.getRoot(), "rules-trace.bin").toPath();
+		Path auditLogFile = new File(temporaryFolder.getRoot(), "rules-trace.log").toPath();
+		String euros = StringUtils.repeat('\u20ac', 1000);
+		
+		TraceWriter traceWriter = new TraceWriter(traceFile);
+		traceWriter.record(TraceEvent.objectEvent(TraceEvent.INSERTED, 1, euros));
+		traceWriter.close();
+		TraceFileConverter.toAuditLog(traceFile, auditLogFile);
+		
+		String auditLog = new String(Files.readAllBytes(auditLogFile), StandardCharsets.UTF_8);
+		assertTrue(auditLog.contains("<objectToString>" + euros.substring(0, TraceWriter.MAX_STRING_BYTES / 3) + "</objectToString>"));
+		assertFalse(auditLog.contains("\ufffd"));
+	}
+	
+	@Test
+	public void toAuditLog_TornRecordLength_BlockSkipped() throws Exception {
+		Path traceFile = new File(temporaryFolder.getRoot(), "rules-trace.bin").toPath();
+		Path auditLogFile = new File(temporaryFolder.getRoot(), "rules-trace.log").toPath();
+		
+		TraceWriter traceWriter = new TraceWriter(traceFile);
+		traceWriter.record(TraceEvent.objectEvent(TraceEvent.INSERTED, 1, "fact-1"));
+		traceWriter.close();
+		corrupt(traceFile, MappedRingFile.HEADER_SIZE + MappedRingFile.BLOCK_HEADER_SIZE,
+				ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE));
+		TraceFileConverter.toAuditLog(traceFile, auditLogFile);
+		
+		String auditLog = new String(Files.readAllBytes(auditLogFile), StandardCharsets.UTF_8);
+		assertEquals("<object-stream>\n</object-stream>\n", auditLog);
+	}
+	
+	@Test
+	public void toAuditLog_TornTextLength_RecordSkipped() throws Exception {
+		Path traceFile = new File(temporaryFolder.getRoot(), "rules-trace.bin").toPath();
+		Path auditLogFile = new File(temporaryFolder.getRoot(), "rules-trace.log").toPath();
+		
+		TraceWriter traceWriter = new TraceWriter(traceFile);
+		traceWriter.record(TraceEvent.objectEvent(TraceEvent.INSERTED, 1, "fact-1"));
+		traceWriter.record(TraceEvent.objectEvent(TraceEvent.INSERTED, 2, "fact-2"));
+		traceWriter.close();
+		// type, timestamp and fact id precede the text length of the first record
+		corrupt(traceFile, MappedRingFile.HEADER_SIZE + MappedRingFile.BLOCK_HEADER_SIZE
+				+ MappedRingFile.RECORD_HEADER_SIZE + 1 + 8 + 8, ByteBuffer.allocate(2).putShort(0, (short) 0x7FFF));
+		TraceFileConverter.toAuditLog(traceFile, auditLogFile);
+		
+		String auditLog = new String(Files.readAllBytes(auditLogFile), StandardCharsets.UTF_8);
+		assertFalse(auditLog.contains("fact-1"));
+		assertTrue(auditLog.contains("<objectToString>fact-2</objectToString>"));
+	}
+	
+	@Test
+	public void text_CappedOnRecordingThread() {
+		StringBuilder fact = new StringBuilder(StringUtils.repeat('a', TraceWriter.MAX_STRING_BYTES + 10));
+		String text = TraceEventListener.text(fact);
+		fact.setLength(0);
+		
+		assertEquals(TraceWriter.MAX_STRING_BYTES, text.length());
+		assertTrue(TraceEventListener.text(new Object(){
+			@Override
+			public String toString() {
+				throw new IllegalStateException("broken");
+			}
+		}).startsWith("<toString failed"));
+	}
+	
+	private void corrupt(Path traceFile, long position, ByteBuffer bytes) throws Exception {
+		try(FileChannel channel = FileChannel.open(traceFile, StandardOpenOption.WRITE)){
+			channel.write(bytes, position);
+		}
+	}
+
+}